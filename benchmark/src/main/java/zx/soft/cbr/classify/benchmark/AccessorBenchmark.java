@@ -0,0 +1,83 @@
+package zx.soft.cbr.classify.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import zx.soft.cbr.classify.utils.Accessor;
+import zx.soft.cbr.classify.utils.AccessorUtil;
+import zx.soft.cbr.classify.utils.ExtractorUtil;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Attribute access: cached {@link AccessorUtil} lookups, reflective getter calls and the compiled
+ * {@link FeatureExtractor} that replaced them in the scoring loop. Lookups also run on 4 threads to show
+ * contention on the shared caches.
+ *
+ * @author wanggang
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessorBenchmark {
+
+	private BenchmarkCase aCase;
+
+	private Accessor accessor;
+
+	private FeatureExtractor extractor;
+
+	@Setup
+	public void setUp() {
+		aCase = new BenchmarkCase();
+		aCase.setNumber(3, 2.5);
+		accessor = AccessorUtil.getAccessor("x3", BenchmarkCase.class);
+		extractor = ExtractorUtil.getExtractor("x3", BenchmarkCase.class);
+	}
+
+	@Benchmark
+	public Accessor lookupByClass() {
+		return AccessorUtil.getAccessor("x3", BenchmarkCase.class);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Accessor lookupByClassContended() {
+		return AccessorUtil.getAccessor("x3", BenchmarkCase.class);
+	}
+
+	@Benchmark
+	public Accessor lookupBound() {
+		return AccessorUtil.getAccessor("x3", aCase);
+	}
+
+	@Benchmark
+	public Object reflectiveGetter() throws Exception {
+		return accessor.invokeGetter(aCase);
+	}
+
+	@Benchmark
+	public FeatureExtractor extractorLookup() {
+		return ExtractorUtil.getExtractor("x3", BenchmarkCase.class);
+	}
+
+	@Benchmark
+	public double extractorGetDouble() {
+		return extractor.getDouble(aCase);
+	}
+
+}
@@ -0,0 +1,161 @@
+package zx.soft.cbr.classify.benchmark;
+
+import zx.soft.cbr.classify.core.ICase;
+
+/**
+ * Case with {@value #WIDTH} numeric (x0..) and {@value #WIDTH} nominal (c0..) attributes, onto which the
+ * attributes of an ARFF dataset are mapped so the reflective algorithms can run over any dataset.
+ *
+ * @author wanggang
+ *
+ */
+public class BenchmarkCase implements ICase {
+
+	public static final int WIDTH = 16;
+
+	private final double[] numbers = new double[WIDTH];
+
+	private final String[] values = new String[WIDTH];
+
+	void setNumber(int i, double value) {
+		numbers[i] = value;
+	}
+
+	void setValue(int i, String value) {
+		values[i] = value;
+	}
+
+	public double getX0() {
+		return numbers[0];
+	}
+
+	public double getX1() {
+		return numbers[1];
+	}
+
+	public double getX2() {
+		return numbers[2];
+	}
+
+	public double getX3() {
+		return numbers[3];
+	}
+
+	public double getX4() {
+		return numbers[4];
+	}
+
+	public double getX5() {
+		return numbers[5];
+	}
+
+	public double getX6() {
+		return numbers[6];
+	}
+
+	public double getX7() {
+		return numbers[7];
+	}
+
+	public double getX8() {
+		return numbers[8];
+	}
+
+	public double getX9() {
+		return numbers[9];
+	}
+
+	public double getX10() {
+		return numbers[10];
+	}
+
+	public double getX11() {
+		return numbers[11];
+	}
+
+	public double getX12() {
+		return numbers[12];
+	}
+
+	public double getX13() {
+		return numbers[13];
+	}
+
+	public double getX14() {
+		return numbers[14];
+	}
+
+	public double getX15() {
+		return numbers[15];
+	}
+
+	public String getC0() {
+		return values[0];
+	}
+
+	public String getC1() {
+		return values[1];
+	}
+
+	public String getC2() {
+		return values[2];
+	}
+
+	public String getC3() {
+		return values[3];
+	}
+
+	public String getC4() {
+		return values[4];
+	}
+
+	public String getC5() {
+		return values[5];
+	}
+
+	public String getC6() {
+		return values[6];
+	}
+
+	public String getC7() {
+		return values[7];
+	}
+
+	public String getC8() {
+		return values[8];
+	}
+
+	public String getC9() {
+		return values[9];
+	}
+
+	public String getC10() {
+		return values[10];
+	}
+
+	public String getC11() {
+		return values[11];
+	}
+
+	public String getC12() {
+		return values[12];
+	}
+
+	public String getC13() {
+		return values[13];
+	}
+
+	public String getC14() {
+		return values[14];
+	}
+
+	public String getC15() {
+		return values[15];
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		return super.clone();
+	}
+
+}
@@ -0,0 +1,92 @@
+package zx.soft.cbr.classify.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import zx.soft.cbr.classify.core.FeatureImpl;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.io.ArffReader;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+
+/**
+ * Case bases of the benchmarks, built from the bundled ARFF datasets: the first {@link BenchmarkCase#WIDTH}
+ * numeric and nominal attributes are mapped onto a {@link BenchmarkCase}, and rows are repeated until the
+ * requested size is reached.
+ *
+ * @author wanggang
+ *
+ */
+public class CaseBases {
+
+	private final CaseMatrix matrix;
+
+	private final List<BenchmarkCase> cases;
+
+	private final List<IFeature> features;
+
+	/**
+	 * @param dataDir
+	 *            Directory of the ARFF files
+	 * @param dataset
+	 *            File name without extension
+	 * @param size
+	 *            Cases to generate
+	 * @param featureCount
+	 *            Features to compare, numeric ones first, at most the attributes the dataset has
+	 * @throws IOException
+	 */
+	public CaseBases(String dataDir, String dataset, int size, int featureCount) throws IOException {
+		this.matrix = ArffReader.read(new File(dataDir, dataset + ".arff"));
+		int numeric = Math.min(matrix.getNumericCount(), BenchmarkCase.WIDTH);
+		int nominal = Math.min(matrix.getNominalCount(), BenchmarkCase.WIDTH);
+		this.features = new ArrayList<IFeature>();
+		for (int f = 0; f < numeric && features.size() < featureCount; f++) {
+			features.add(new FeatureImpl("x" + f, 1, matrix.getNumericFeature(f).getRange()));
+		}
+		for (int f = 0; f < nominal && features.size() < featureCount; f++) {
+			features.add(new FeatureImpl("c" + f, 1, 0));
+		}
+		this.cases = new ArrayList<BenchmarkCase>(size);
+		for (int i = 0; i < size; i++) {
+			int row = i % matrix.size();
+			BenchmarkCase aCase = new BenchmarkCase();
+			for (int f = 0; f < numeric; f++) {
+				aCase.setNumber(f, matrix.getNumericColumn(f)[row]);
+			}
+			for (int f = 0; f < nominal; f++) {
+				Object value = matrix.getDictionary(f).decode(matrix.getNominalColumn(f)[row]);
+				aCase.setValue(f, value == null ? null : value.toString());
+			}
+			cases.add(aCase);
+		}
+	}
+
+	public Set<ICase> getCaseSet() {
+		return new LinkedHashSet<ICase>(cases);
+	}
+
+	public List<BenchmarkCase> getCases() {
+		return cases;
+	}
+
+	public List<IFeature> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @return one case of every original row, used as queries
+	 */
+	public List<BenchmarkCase> getQueries() {
+		return cases.subList(0, Math.min(matrix.size(), cases.size()));
+	}
+
+	public CaseMatrix getMatrix() {
+		return matrix;
+	}
+
+}
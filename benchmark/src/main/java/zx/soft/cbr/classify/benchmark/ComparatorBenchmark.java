@@ -0,0 +1,74 @@
+package zx.soft.cbr.classify.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+import zx.soft.cbr.classify.core.FeatureImpl;
+
+/**
+ * Cost of one {@link DefaultFeatureComparator#similar} call: boxed numbers, strings and the unboxed numeric
+ * rule.
+ *
+ * @author wanggang
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparatorBenchmark {
+
+	private DefaultFeatureComparator comparator;
+
+	private Object number1;
+
+	private Object number2;
+
+	private Object text1;
+
+	private Object text2;
+
+	private double value1;
+
+	private double value2;
+
+	@Setup
+	public void setUp() {
+		comparator = new DefaultFeatureComparator(new FeatureImpl("x", 1, 4));
+		number1 = Double.valueOf(5.1);
+		number2 = Double.valueOf(6.3);
+		text1 = new String("proper");
+		text2 = new String("proper");
+		value1 = 5.1;
+		value2 = 6.3;
+	}
+
+	@Benchmark
+	public double boxedNumbers() {
+		return comparator.similar(number1, number2);
+	}
+
+	@Benchmark
+	public double strings() {
+		return comparator.similar(text1, text2);
+	}
+
+	@Benchmark
+	public double unboxed() {
+		return DefaultFeatureComparator.similar(value1, value2, 4);
+	}
+
+}
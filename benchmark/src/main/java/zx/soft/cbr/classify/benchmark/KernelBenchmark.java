@@ -0,0 +1,81 @@
+package zx.soft.cbr.classify.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+import zx.soft.cbr.classify.matrix.SimilarityKernel;
+
+/**
+ * One column of a blocked scan: {@link SimilarityKernel#accumulateRangeSimilarity} of
+ * {@link SimilarityKernel#getDefault()} against {@link SimilarityKernel#scalar()} over {@link CaseMatrix#BLOCK_SIZE}
+ * rows. The default kernel is the vector one only when the forks resolve the incubator module:
+ * {@code java -jar target/benchmarks.jar KernelBenchmark -jvmArgsAppend "--add-modules jdk.incubator.vector"};
+ * without it both benchmarks measure the scalar kernel.
+ *
+ * @author wanggang
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+
+	/**
+	 * Share of the rows within the range of the query, the rest scoring 0
+	 */
+	@Param({ "0.1", "0.9" })
+	public double hitRate;
+
+	private final SimilarityKernel defaultKernel = SimilarityKernel.getDefault();
+
+	private final SimilarityKernel scalarKernel = SimilarityKernel.scalar();
+
+	private double[] column;
+
+	private double[] scores;
+
+	private double value;
+
+	private double range;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		column = new double[CaseMatrix.BLOCK_SIZE];
+		for (int i = 0; i < column.length; i++) {
+			column[i] = random.nextDouble() * 100;
+		}
+		scores = new double[column.length];
+		value = 50;
+		range = 50 * hitRate;
+	}
+
+	@Benchmark
+	public double defaultKernel() {
+		defaultKernel.accumulateRangeSimilarity(value, column, 0, range, 1, scores, scores.length);
+		return scores[scores.length - 1];
+	}
+
+	@Benchmark
+	public double scalarKernel() {
+		scalarKernel.accumulateRangeSimilarity(value, column, 0, range, 1, scores, scores.length);
+		return scores[scores.length - 1];
+	}
+
+}
@@ -0,0 +1,109 @@
+package zx.soft.cbr.classify.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import zx.soft.cbr.classify.core.FeatureSimilarity;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+
+/**
+ * Retrieval over a case base: throughput of {@link FeatureSimilarity#getSimilarity} and
+ * {@link FeatureSimilarity#getMostSimilar}, with the columnar scan as reference, and the latency distribution
+ * of a single top-k query. Queries cycle over the rows of the dataset. Run with {@code -prof gc} for the
+ * allocation rate.
+ *
+ * @author wanggang
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimilarityBenchmark {
+
+	@Param("../matlab/data")
+	public String dataDir;
+
+	@Param({ "iris", "vote", "nursery", "satimage" })
+	public String dataset;
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	@Param({ "4", "16" })
+	public int featureCount;
+
+	private final FeatureSimilarity similarity = new FeatureSimilarity();
+
+	private Set<ICase> cases;
+
+	private List<IFeature> features;
+
+	private List<BenchmarkCase> queries;
+
+	private CaseMatrix matrix;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		CaseBases bases = new CaseBases(dataDir, dataset, size, featureCount);
+		cases = bases.getCaseSet();
+		features = bases.getFeatures();
+		queries = bases.getQueries();
+		matrix = CaseMatrix.build(bases.getCases(), features);
+	}
+
+	private ICase nextQuery() {
+		ICase query = queries.get(next);
+		next = next + 1 == queries.size() ? 0 : next + 1;
+		return query;
+	}
+
+	@Benchmark
+	public Set<ICaseSimilarity> getSimilarity() {
+		return similarity.getSimilarity(nextQuery(), cases, 50, features);
+	}
+
+	@Benchmark
+	public List<ICaseSimilarity> getMostSimilar() {
+		return similarity.getMostSimilar(nextQuery(), cases, 10, Double.NEGATIVE_INFINITY, features);
+	}
+
+	@Benchmark
+	public TopK matrixTopK() {
+		return matrix.topK(matrix.query(nextQuery()), 10, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Single-query latency, reported as percentiles
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public List<ICaseSimilarity> queryLatency() {
+		return similarity.getMostSimilar(nextQuery(), cases, 10, Double.NEGATIVE_INFINITY, features);
+	}
+
+}
@@ -0,0 +1,228 @@
+package zx.soft.cbr.classify.classifier;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.ISimilarityAlgorithm;
+import zx.soft.cbr.classify.utils.ExtractorUtil;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Retrieval and reuse phases of matlab/src/cbrAlgorithm.m: the k cases most similar to a query are retrieved
+ * through an {@link ISimilarityAlgorithm} and their classes combined by a {@link ReusePolicy}.
+ * <p>
+ * Classes get dense ids in order of first appearance. Votes are tallied in per-thread arrays indexed by
+ * class id and reset through the list of ids they touched, so reusing the retrieved cases allocates nothing.
+ * A classifier may be shared by threads classifying concurrently.
+ *
+ * @author wanggang
+ *
+ */
+public class CbrClassifier {
+
+	/**
+	 * Neighbours used by matlab/src/cbrAlgorithm.m
+	 */
+	public static final int DEFAULT_K = 5;
+
+	/**
+	 * Id of a missing (null) class
+	 */
+	public static final int NO_CLASS = -1;
+
+	private final ISimilarityAlgorithm algorithm;
+
+	private final Collection<IFeature> features;
+
+	private final String classAttribute;
+
+	private final int k;
+
+	private final ReusePolicy policy;
+
+	private final ConcurrentMap<Object, Integer> classIds = new ConcurrentHashMap<Object, Integer>();
+
+	private volatile Object[] classes = new Object[0];
+
+	private final ThreadLocal<Votes> votes = new ThreadLocal<Votes>() {
+		@Override
+		protected Votes initialValue() {
+			return new Votes();
+		}
+	};
+
+	/**
+	 * @param algorithm
+	 * @param features
+	 *            Features to be compared, must not include the class attribute
+	 * @param classAttribute
+	 *            Attribute holding the class of a case
+	 * @param k
+	 *            Cases retrieved for each query
+	 * @param policy
+	 */
+	public CbrClassifier(ISimilarityAlgorithm algorithm, Collection<IFeature> features, String classAttribute,
+			int k, ReusePolicy policy) {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		for (IFeature feature : features) {
+			if (feature.getAttribute().equals(classAttribute)) {
+				throw new IllegalArgumentException("The class attribute cannot be a feature: " + classAttribute);
+			}
+		}
+		this.algorithm = algorithm;
+		this.features = features;
+		this.classAttribute = classAttribute;
+		this.k = k;
+		this.policy = policy;
+	}
+
+	/**
+	 * @param query
+	 * @param caseBase
+	 * @return class of the query, null if the case base is empty
+	 */
+	public Object classify(ICase query, Set<ICase> caseBase) {
+		return getClassLabel(reuseId(retrieve(query, caseBase)));
+	}
+
+	/**
+	 * @param query
+	 * @param caseBase
+	 * @return the k cases most similar to the query, from the most to the least similar
+	 */
+	public List<ICaseSimilarity> retrieve(ICase query, Set<ICase> caseBase) {
+		return algorithm.getMostSimilar(query, caseBase, k, Double.NEGATIVE_INFINITY, features);
+	}
+
+	/**
+	 * @param nearest
+	 *            Retrieved cases, from the most to the least similar
+	 * @return class chosen by the policy, null if no case has a class
+	 */
+	public Object reuse(List<ICaseSimilarity> nearest) {
+		return getClassLabel(reuseId(nearest));
+	}
+
+	/**
+	 * @param nearest
+	 *            Retrieved cases, from the most to the least similar
+	 * @return id of the class chosen by the policy, {@link #NO_CLASS} if no case has a class
+	 */
+	public int reuseId(List<ICaseSimilarity> nearest) {
+		if (policy == ReusePolicy.CLOSEST) {
+			for (int rank = 0; rank < nearest.size(); rank++) {
+				int id = getClassId(nearest.get(rank).getSimilarCase());
+				if (id != NO_CLASS) {
+					return id;
+				}
+			}
+			return NO_CLASS;
+		}
+		Votes tally = votes.get();
+		tally.ensureCapacity(classes.length);
+		try {
+			for (int rank = 0; rank < nearest.size(); rank++) {
+				ICaseSimilarity result = nearest.get(rank);
+				int id = getClassId(result.getSimilarCase());
+				if (id != NO_CLASS) {
+					tally.ensureCapacity(id + 1);
+					tally.add(id, policy == ReusePolicy.WEIGHTED ? result.getValue() : 1);
+				}
+			}
+			return tally.best();
+		} finally {
+			tally.clear();
+		}
+	}
+
+	/**
+	 * @param theCase
+	 * @return class of the case, null if missing
+	 */
+	public Object getLabel(ICase theCase) {
+		FeatureExtractor extractor = ExtractorUtil.getExtractor(classAttribute, theCase.getClass());
+		if (extractor == null) {
+			throw new IllegalArgumentException("No class attribute " + classAttribute + " in "
+					+ theCase.getClass().getName());
+		}
+		return extractor.get(theCase);
+	}
+
+	/**
+	 * @param theCase
+	 * @return id of the class of the case, registering the class if needed
+	 */
+	public int getClassId(ICase theCase) {
+		return getClassId(getLabel(theCase));
+	}
+
+	/**
+	 * @param label
+	 * @return id of the class, registering it if needed, {@link #NO_CLASS} for null
+	 */
+	public int getClassId(Object label) {
+		if (label == null) {
+			return NO_CLASS;
+		}
+		Integer id = classIds.get(label);
+		return id != null ? id : register(label);
+	}
+
+	private synchronized int register(Object label) {
+		Integer id = classIds.get(label);
+		if (id == null) {
+			Object[] grown = Arrays.copyOf(classes, classes.length + 1);
+			grown[classes.length] = label;
+			// publish the label before its id, so getClassLabel never sees an id beyond the array
+			classes = grown;
+			id = grown.length - 1;
+			classIds.put(label, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @param id
+	 * @return class of the id, null for {@link #NO_CLASS}
+	 */
+	public Object getClassLabel(int id) {
+		return id < 0 ? null : classes[id];
+	}
+
+	/**
+	 * @return number of classes seen so far
+	 */
+	public int getClassCount() {
+		return classes.length;
+	}
+
+	public ISimilarityAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public Collection<IFeature> getFeatures() {
+		return features;
+	}
+
+	public String getClassAttribute() {
+		return classAttribute;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public ReusePolicy getPolicy() {
+		return policy;
+	}
+
+}
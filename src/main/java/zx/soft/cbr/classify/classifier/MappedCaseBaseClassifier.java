@@ -0,0 +1,136 @@
+package zx.soft.cbr.classify.classifier;
+
+import java.util.BitSet;
+
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+import zx.soft.cbr.classify.matrix.MappedCaseBase;
+import zx.soft.cbr.classify.matrix.NominalDictionary;
+
+/**
+ * Retrieval and reuse phases of {@link CbrClassifier} over the rows of a labelled {@link MappedCaseBase}, so a
+ * case base opened from a file is classified without its cases. The features, weights and ranges compared are
+ * the ones stored in the file, and the classes are the codes of its class column, used as class ids.
+ * <p>
+ * Votes are tallied as in {@link CbrClassifier}, in per-thread arrays indexed by class code. A classifier may
+ * be shared by threads classifying concurrently.
+ *
+ * @author wanggang
+ *
+ */
+public class MappedCaseBaseClassifier {
+
+	private final MappedCaseBase caseBase;
+
+	private final int k;
+
+	private final ReusePolicy policy;
+
+	private final ThreadLocal<Votes> votes = new ThreadLocal<Votes>() {
+		@Override
+		protected Votes initialValue() {
+			return new Votes();
+		}
+	};
+
+	/**
+	 * @param caseBase
+	 *            Case base with labels
+	 * @param k
+	 *            Rows retrieved for each query
+	 * @param policy
+	 */
+	public MappedCaseBaseClassifier(MappedCaseBase caseBase, int k, ReusePolicy policy) {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		if (!caseBase.hasLabels()) {
+			throw new IllegalArgumentException("Case base without class attribute: " + caseBase);
+		}
+		this.caseBase = caseBase;
+		this.k = k;
+		this.policy = policy;
+	}
+
+	/**
+	 * @param query
+	 * @return class of the query, null if the case base is empty
+	 */
+	public Object classify(ICase query) {
+		return classify(caseBase.query(query), null);
+	}
+
+	/**
+	 * @param query
+	 *            Query of the case base, e.g. {@link MappedCaseBase#query(int)} of a held-out row
+	 * @param excluded
+	 *            Rows not retrieved, null for none
+	 * @return class of the query, null if no row is retrieved
+	 */
+	public Object classify(CaseMatrix.Query query, BitSet excluded) {
+		return getClassLabel(reuse(retrieve(query, excluded)));
+	}
+
+	/**
+	 * @param query
+	 * @param excluded
+	 *            Rows not retrieved, null for none
+	 * @return the k rows most similar to the query, from the most to the least similar
+	 */
+	public TopK retrieve(CaseMatrix.Query query, BitSet excluded) {
+		return caseBase.topK(query, k, Double.NEGATIVE_INFINITY, excluded);
+	}
+
+	/**
+	 * @param nearest
+	 *            Retrieved rows, from the most to the least similar
+	 * @return class code chosen by the policy, {@link NominalDictionary#MISSING} if no row has a class
+	 */
+	public int reuse(TopK nearest) {
+		if (policy == ReusePolicy.CLOSEST) {
+			for (int rank = 0; rank < nearest.size(); rank++) {
+				int code = caseBase.getLabel(nearest.id(rank));
+				if (code != NominalDictionary.MISSING) {
+					return code;
+				}
+			}
+			return NominalDictionary.MISSING;
+		}
+		Votes tally = votes.get();
+		tally.ensureCapacity(caseBase.getClassDictionary().size());
+		try {
+			for (int rank = 0; rank < nearest.size(); rank++) {
+				int code = caseBase.getLabel(nearest.id(rank));
+				if (code != NominalDictionary.MISSING) {
+					tally.add(code, policy == ReusePolicy.WEIGHTED ? nearest.score(rank) : 1);
+				}
+			}
+			int best = tally.best();
+			return best == CbrClassifier.NO_CLASS ? NominalDictionary.MISSING : best;
+		} finally {
+			tally.clear();
+		}
+	}
+
+	/**
+	 * @param code
+	 * @return class of the code, null for {@link NominalDictionary#MISSING}
+	 */
+	public Object getClassLabel(int code) {
+		return code == NominalDictionary.MISSING ? null : caseBase.getClassDictionary().decode(code);
+	}
+
+	public MappedCaseBase getCaseBase() {
+		return caseBase;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public ReusePolicy getPolicy() {
+		return policy;
+	}
+
+}
@@ -0,0 +1,142 @@
+package zx.soft.cbr.classify.classifier;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.LiveCaseBase;
+import zx.soft.cbr.classify.utils.Accessor;
+import zx.soft.cbr.classify.utils.AccessorUtil;
+
+/**
+ * Retain phase of matlab/src/cbrRetentionPhase.m on a {@link LiveCaseBase}: queries are classified against a
+ * snapshot of the case base and the solved cases appended according to a {@link RetentionPolicy}. Indexes and
+ * statistics registered as listeners of the case base are updated with every retained case. Any number of
+ * threads may solve queries at the same time.
+ * <p>
+ * A case is retained with its predicted class: when its class attribute holds another value, a clone of it
+ * is retained with the class attribute set through its setter.
+ *
+ * @author wanggang
+ *
+ */
+public class Retention {
+
+	private final CbrClassifier classifier;
+
+	private final LiveCaseBase caseBase;
+
+	private final RetentionPolicy policy;
+
+	private final AtomicLong solved = new AtomicLong();
+
+	private final AtomicLong retained = new AtomicLong();
+
+	public Retention(CbrClassifier classifier, LiveCaseBase caseBase, RetentionPolicy policy) {
+		this.classifier = classifier;
+		this.caseBase = caseBase;
+		this.policy = policy;
+	}
+
+	/**
+	 * Classifies a query, then retains it
+	 *
+	 * @param query
+	 * @param actual
+	 *            Real class of the query, null if unknown
+	 * @return predicted class, null if the case base is empty
+	 */
+	public Object solve(ICase query, Object actual) {
+		Object predicted = classifier.classify(query, caseBase.snapshot());
+		solved.incrementAndGet();
+		retain(query, predicted, actual);
+		return predicted;
+	}
+
+	/**
+	 * Applies the policy to a solved case
+	 *
+	 * @param query
+	 * @param predicted
+	 *            Class given by the reuse phase
+	 * @param actual
+	 *            Real class of the query, null if unknown
+	 * @return id of the retained case, -1 if it was not retained
+	 */
+	public int retain(ICase query, Object predicted, Object actual) {
+		switch (policy) {
+		case FULL:
+			break;
+		case ONLY_CORRECT:
+			if (actual == null || !actual.equals(predicted)) {
+				return -1;
+			}
+			break;
+		default:
+			return -1;
+		}
+		if (predicted == null) {
+			return -1;
+		}
+		int id = caseBase.add(solvedCase(query, predicted));
+		retained.incrementAndGet();
+		return id;
+	}
+
+	/**
+	 * @return the query, or a clone of it, holding the predicted class
+	 */
+	private ICase solvedCase(ICase query, Object predicted) {
+		if (predicted.equals(classifier.getLabel(query))) {
+			return query;
+		}
+		Accessor accessor = AccessorUtil.getAccessor(classifier.getClassAttribute(), query.getClass());
+		if (accessor == null || !accessor.isWriteable()) {
+			throw new IllegalStateException("Class attribute " + classifier.getClassAttribute() + " of "
+					+ query.getClass().getName() + " has no setter");
+		}
+		try {
+			ICase solved = (ICase) query.clone();
+			accessor.invokeSetter(solved, predicted);
+			return solved;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException("Cannot clone the solved case", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot set the class of the solved case", e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Cannot set the class of the solved case", e.getCause());
+		}
+	}
+
+	public CbrClassifier getClassifier() {
+		return classifier;
+	}
+
+	public LiveCaseBase getCaseBase() {
+		return caseBase;
+	}
+
+	public RetentionPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return queries solved through {@link #solve(ICase, Object)}
+	 */
+	public long getSolved() {
+		return solved.get();
+	}
+
+	/**
+	 * @return cases added to the case base
+	 */
+	public long getRetained() {
+		return retained.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Retention [" + policy + ", solved=" + solved + ", retained=" + retained + ", " + caseBase + "]";
+	}
+
+}
@@ -0,0 +1,26 @@
+package zx.soft.cbr.classify.classifier;
+
+/**
+ * Which solved cases join the case base, after matlab/src/RetentionPolicies.m
+ *
+ * @author wanggang
+ *
+ */
+public enum RetentionPolicy {
+
+	/**
+	 * Every solved case is retained with its predicted class
+	 */
+	FULL,
+
+	/**
+	 * Only the cases whose predicted class is the real one are retained
+	 */
+	ONLY_CORRECT,
+
+	/**
+	 * The case base is left unchanged
+	 */
+	NONE
+
+}
@@ -0,0 +1,28 @@
+package zx.soft.cbr.classify.classifier;
+
+/**
+ * How the class of a query is derived from its most similar cases, after matlab/src/ReusePolicies.m
+ *
+ * @author wanggang
+ *
+ */
+public enum ReusePolicy {
+
+	/**
+	 * Class of the most similar case
+	 */
+	CLOSEST,
+
+	/**
+	 * Class with the most cases among the k most similar ones, ties going to the class of the more similar
+	 * case
+	 */
+	MOST_POPULAR,
+
+	/**
+	 * Class with the highest sum of similarities among the k most similar cases, ties going to the class of
+	 * the more similar case
+	 */
+	WEIGHTED
+
+}
@@ -0,0 +1,73 @@
+package zx.soft.cbr.classify.classifier;
+
+import java.util.Arrays;
+
+/**
+ * Votes of one thread, indexed by class id. Reset through the list of classes voted for, so reusing the
+ * retrieved cases allocates nothing
+ *
+ * @author wanggang
+ *
+ */
+class Votes {
+
+	private double[] weights = new double[0];
+
+	/**
+	 * Position of each class in touched, valid only while touched holds the class there
+	 */
+	private int[] firstRanks = new int[0];
+
+	/**
+	 * Classes voted for, in order of their first case
+	 */
+	private int[] touched = new int[0];
+
+	private int count;
+
+	void ensureCapacity(int classes) {
+		if (classes > weights.length) {
+			int capacity = Math.max(classes, weights.length * 2);
+			weights = Arrays.copyOf(weights, capacity);
+			firstRanks = Arrays.copyOf(firstRanks, capacity);
+			touched = Arrays.copyOf(touched, capacity);
+		}
+	}
+
+	void add(int id, double weight) {
+		if (!isTouched(id)) {
+			firstRanks[id] = count;
+			touched[count++] = id;
+		}
+		weights[id] += weight;
+	}
+
+	private boolean isTouched(int id) {
+		int rank = firstRanks[id];
+		return rank < count && touched[rank] == id;
+	}
+
+	/**
+	 * @return class with the highest vote, the first one voted for among equals
+	 */
+	int best() {
+		int best = CbrClassifier.NO_CLASS;
+		double bestWeight = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			int id = touched[i];
+			if (weights[id] > bestWeight) {
+				best = id;
+				bestWeight = weights[id];
+			}
+		}
+		return best;
+	}
+
+	void clear() {
+		for (int i = 0; i < count; i++) {
+			weights[touched[i]] = 0;
+		}
+		count = 0;
+	}
+
+}
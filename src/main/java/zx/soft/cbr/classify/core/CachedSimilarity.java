@@ -0,0 +1,382 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded result cache in front of an {@link ISimilarityAlgorithm}. A retrieval is identified by the case
+ * base, the values the query takes on the compared features, the features with their weights and ranges, the
+ * threshold, k and the remaining params, so repeated queries, or distinct query objects with the same feature
+ * values, are answered without a scan.
+ * <p>
+ * Each entry records the version of the case base it was computed on: {@link LiveCaseBase#getVersion()} for a
+ * {@link LiveCaseBase.Snapshot}, the size for any other set. An entry whose version no longer matches is
+ * dropped on lookup, so retained cases invalidate the results they could change. A plain set changed in place
+ * without changing size must be followed by {@link #invalidate()}.
+ * <p>
+ * Entries are evicted least recently used first beyond the maximum size, and expire after the time to live.
+ * Cached results are copied for every caller, with the caller's query as base case.
+ *
+ * @author wanggang
+ *
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class CachedSimilarity implements ISimilarityAlgorithm {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	/**
+	 * k of the entries of {@link #getSimilarity}, which has no k
+	 */
+	private static final int ALL = -1;
+
+	private final ISimilarityAlgorithm algorithm;
+
+	private final int maxEntries;
+
+	private final long ttlNanos;
+
+	private final Map<Key, Entry> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final AtomicLong expirations = new AtomicLong();
+
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Cache of {@link #DEFAULT_MAX_ENTRIES} entries that do not expire
+	 */
+	public CachedSimilarity(ISimilarityAlgorithm algorithm) {
+		this(algorithm, DEFAULT_MAX_ENTRIES, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param algorithm
+	 *            Algorithm computing the results
+	 * @param maxEntries
+	 *            Retrievals kept
+	 * @param ttl
+	 *            Time to live of an entry, 0 or less to keep entries until evicted or invalidated
+	 * @param unit
+	 *            Unit of the time to live
+	 */
+	public CachedSimilarity(ISimilarityAlgorithm algorithm, final int maxEntries, long ttl, TimeUnit unit) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+		}
+		this.algorithm = algorithm;
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttl > 0 ? unit.toNanos(ttl) : 0;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() > maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+
+		};
+	}
+
+	public Set<ICaseSimilarity> getSimilarity(ICase theCase, Set<ICase> similarCases, double threshold,
+			Object... params) {
+		Key key = key(theCase, similarCases, threshold, ALL, params);
+		long version = version(similarCases);
+		Entry entry = lookup(key, version);
+		if (entry == null) {
+			Set<ICaseSimilarity> result = algorithm.getSimilarity(theCase, similarCases, threshold, params);
+			store(key, new Entry(result, version));
+			return result;
+		}
+		if (entry.cases == null) {
+			return null;
+		}
+		Set<ICaseSimilarity> result = new HashSet<ICaseSimilarity>();
+		for (int i = 0; i < entry.cases.length; i++) {
+			result.add(new CaseSimilarityImpl(entry.values[i], theCase, entry.cases[i]));
+		}
+		return result;
+	}
+
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, Set<ICase> similarCases, int k, double threshold,
+			Object... params) {
+		Key key = key(theCase, similarCases, threshold, k, params);
+		long version = version(similarCases);
+		Entry entry = lookup(key, version);
+		if (entry == null) {
+			List<ICaseSimilarity> result = algorithm.getMostSimilar(theCase, similarCases, k, threshold, params);
+			store(key, new Entry(result, version));
+			return result;
+		}
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(entry.cases.length);
+		for (int i = 0; i < entry.cases.length; i++) {
+			result.add(new CaseSimilarityImpl(entry.values[i], theCase, entry.cases[i]));
+		}
+		return result;
+	}
+
+	/**
+	 * @return live entry of the key, null on a miss
+	 */
+	private Entry lookup(Key key, long version) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && entry.version != version) {
+				entries.remove(key);
+				invalidations.incrementAndGet();
+				entry = null;
+			} else if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+				entries.remove(key);
+				expirations.incrementAndGet();
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	private void store(Key key, Entry entry) {
+		synchronized (entries) {
+			Entry current = entries.get(key);
+			// a concurrent miss may have stored the results of a newer case base
+			if (current == null || current.version <= entry.version) {
+				entries.put(key, entry);
+			}
+		}
+	}
+
+	private Key key(ICase theCase, Set<ICase> similarCases, double threshold, int k, Object... params) {
+		Collection<IFeature> features = null;
+		if (params != null && params.length > 0) {
+			features = (Collection<IFeature>) params[0];
+		}
+		if (features == null) {
+			features = FeatureSimilarity.getAllFeatures(theCase);
+		}
+		ScoringPlan plan = ScoringPlan.getPlan(theCase.getClass(), features);
+		Object[] values = new Object[plan.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = plan.getComparator(i) == null ? plan.getExtractor(i).getDouble(theCase)
+					: plan.getExtractor(i).get(theCase);
+		}
+		Object[] others = params == null || params.length <= 1 ? null : Arrays.copyOfRange(params, 1, params.length);
+		return new Key(source(similarCases), plan.getKey(), values, threshold, k, others);
+	}
+
+	/**
+	 * @return object identifying the case base across its versions
+	 */
+	private static Object source(Set<ICase> similarCases) {
+		if (similarCases instanceof LiveCaseBase.Snapshot) {
+			return ((LiveCaseBase.Snapshot) similarCases).getCaseBase();
+		}
+		return similarCases;
+	}
+
+	private static long version(Set<ICase> similarCases) {
+		if (similarCases == null) {
+			return 0;
+		}
+		if (similarCases instanceof LiveCaseBase.Snapshot) {
+			return ((LiveCaseBase.Snapshot) similarCases).getVersion();
+		}
+		return similarCases.size();
+	}
+
+	/**
+	 * Drops every entry
+	 */
+	public void invalidate() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return entries held
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public ISimilarityAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return fraction of the retrievals answered from the cache, 0 before the first one
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return entries evicted to respect the maximum size
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return entries dropped after their time to live
+	 */
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * @return entries dropped because the case base changed
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	public void resetStats() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		expirations.set(0);
+		invalidations.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "CachedSimilarity [" + algorithm.getClass().getSimpleName() + ", size=" + size() + ", hits="
+				+ getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", expirations="
+				+ getExpirations() + ", invalidations=" + getInvalidations() + "]";
+	}
+
+	/**
+	 * Results of one retrieval, without the query they were computed for
+	 */
+	private static final class Entry {
+
+		/**
+		 * Null when the algorithm returned null
+		 */
+		private final ICase[] cases;
+
+		private final double[] values;
+
+		private final long version;
+
+		private final long created = System.nanoTime();
+
+		private Entry(Collection<ICaseSimilarity> result, long version) {
+			this.version = version;
+			if (result == null) {
+				cases = null;
+				values = null;
+				return;
+			}
+			cases = new ICase[result.size()];
+			values = new double[cases.length];
+			int i = 0;
+			for (ICaseSimilarity similarity : result) {
+				cases[i] = similarity.getSimilarCase();
+				values[i] = similarity.getValue();
+				i++;
+			}
+		}
+
+	}
+
+	/**
+	 * Retrieval identity: case base by reference, everything else by value
+	 */
+	private static final class Key {
+
+		private final Object source;
+
+		/**
+		 * Class and features, with their weights and ranges
+		 */
+		private final Object plan;
+
+		private final Object[] values;
+
+		private final double threshold;
+
+		private final int k;
+
+		private final Object[] params;
+
+		private final int hash;
+
+		private Key(Object source, Object plan, Object[] values, double threshold, int k, Object[] params) {
+			this.source = source;
+			this.plan = plan;
+			this.values = values;
+			this.threshold = threshold;
+			this.k = k;
+			this.params = params;
+			int h = System.identityHashCode(source);
+			h = 31 * h + plan.hashCode();
+			h = 31 * h + Arrays.hashCode(values);
+			h = 31 * h + Double.valueOf(threshold).hashCode();
+			h = 31 * h + k;
+			h = 31 * h + Arrays.hashCode(params);
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && source == other.source && k == other.k
+					&& Double.compare(threshold, other.threshold) == 0 && plan.equals(other.plan)
+					&& Arrays.equals(values, other.values) && Arrays.equals(params, other.params);
+		}
+
+	}
+
+}
@@ -0,0 +1,317 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import zx.soft.cbr.classify.utils.ExtractorUtil;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Count, minimum, maximum, mean and variance of the numeric features of a case base, kept with Welford's
+ * streaming update so they never need a second pass. An initial case base is summarised in one parallel pass,
+ * the partial moments of the chunks being merged with Chan's formula; registered as a listener of a
+ * {@link LiveCaseBase}, the statistics follow every case added afterwards.
+ * <p>
+ * The observed ranges replace the ranges a {@link IFeature} leaves undefined (0), and are also exposed as
+ * reciprocals, so a scan multiplies by 1 / range instead of dividing by it. Set on a {@link FeatureSimilarity},
+ * they range the features it compares when a query names none, as read when set or refreshed through
+ * {@link FeatureSimilarity#refreshStatistics()}. Missing values (null boxed numbers, NaN) are ignored.
+ *
+ * @author wanggang
+ *
+ */
+public class CaseBaseStatistics implements ICaseBaseListener {
+
+	private final Class<? extends ICase> caseClass;
+
+	private final String[] attributes;
+
+	private final FeatureExtractor[] extractors;
+
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+	private final Moments moments;
+
+	/**
+	 * Empty statistics, filled by {@link #add(ICase)}
+	 *
+	 * @param caseClass
+	 *            Class of the cases
+	 * @param features
+	 *            Features to summarise, the non-numeric ones are ignored
+	 */
+	public CaseBaseStatistics(Class<? extends ICase> caseClass, Collection<IFeature> features) {
+		List<String> numeric = new ArrayList<String>();
+		List<FeatureExtractor> numericExtractors = new ArrayList<FeatureExtractor>();
+		for (IFeature feature : features) {
+			FeatureExtractor extractor = ExtractorUtil.getExtractor(feature.getAttribute(), caseClass);
+			if (extractor == null) {
+				throw new IllegalArgumentException("No attribute " + feature.getAttribute() + " in "
+						+ caseClass.getName());
+			}
+			if (extractor.isNumeric() && !indexes.containsKey(feature.getAttribute())) {
+				indexes.put(feature.getAttribute(), numeric.size());
+				numeric.add(feature.getAttribute());
+				numericExtractors.add(extractor);
+			}
+		}
+		this.caseClass = caseClass;
+		this.attributes = numeric.toArray(new String[numeric.size()]);
+		this.extractors = numericExtractors.toArray(new FeatureExtractor[numericExtractors.size()]);
+		this.moments = new Moments(attributes.length);
+	}
+
+	/**
+	 * Summarises a case base in one pass, run in parallel on the common pool above
+	 * {@link ParallelRetrieval#DEFAULT_PARALLEL_THRESHOLD} cases
+	 */
+	public static CaseBaseStatistics compute(List<? extends ICase> cases, Collection<IFeature> features) {
+		return compute(cases, features, new ParallelRetrieval());
+	}
+
+	/**
+	 * Summarises a case base in one pass
+	 *
+	 * @param cases
+	 *            Case base, not empty, all cases of the same class
+	 * @param features
+	 *            Features to summarise, the non-numeric ones are ignored
+	 * @param retrieval
+	 *            Splits the pass between workers
+	 * @return statistics
+	 */
+	public static CaseBaseStatistics compute(final List<? extends ICase> cases, Collection<IFeature> features,
+			ParallelRetrieval retrieval) {
+		if (cases.isEmpty()) {
+			throw new IllegalArgumentException("No cases to infer the case class from");
+		}
+		final CaseBaseStatistics statistics = new CaseBaseStatistics(cases.get(0).getClass(), features);
+		Moments total = retrieval.execute(cases.size(), new ParallelRetrieval.ChunkTask<Moments>() {
+
+			public Moments compute(int from, int to) {
+				Moments partial = new Moments(statistics.attributes.length);
+				for (int i = from; i < to; i++) {
+					statistics.accumulate(partial, cases.get(i));
+				}
+				return partial;
+			}
+
+			public Moments merge(Moments left, Moments right) {
+				left.merge(right);
+				return left;
+			}
+
+		});
+		statistics.moments.merge(total);
+		return statistics;
+	}
+
+	/**
+	 * Updates the statistics with one more case
+	 */
+	public synchronized void add(ICase theCase) {
+		accumulate(moments, theCase);
+	}
+
+	/**
+	 * Rejects a case of another class
+	 */
+	public void checkCase(ICase theCase) {
+		if (theCase.getClass() != caseClass) {
+			throw new IllegalArgumentException("Case of class " + theCase.getClass().getName() + " in statistics of "
+					+ caseClass.getName());
+		}
+	}
+
+	public void caseAdded(ICase theCase, int id) {
+		add(theCase);
+	}
+
+	private void accumulate(Moments target, ICase theCase) {
+		checkCase(theCase);
+		for (int f = 0; f < extractors.length; f++) {
+			target.add(f, extractors[f].getDouble(theCase));
+		}
+	}
+
+	/**
+	 * Copies features, replacing every undefined range (0 or less) of a numeric feature by the observed one
+	 *
+	 * @param features
+	 * @return features in the given order
+	 */
+	public List<IFeature> withRanges(Collection<IFeature> features) {
+		List<IFeature> result = new ArrayList<IFeature>(features.size());
+		for (IFeature feature : features) {
+			if (feature.getRange() > 0 || !indexes.containsKey(feature.getAttribute())) {
+				result.add(feature);
+			} else {
+				result.add(new FeatureImpl(feature.getAttribute(), feature.getWeight(),
+						getRange(feature.getAttribute())));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return numeric attributes summarised, in feature order
+	 */
+	public List<String> getAttributes() {
+		return Collections.unmodifiableList(Arrays.asList(attributes));
+	}
+
+	public Class<? extends ICase> getCaseClass() {
+		return caseClass;
+	}
+
+	/**
+	 * @return number of non-missing values of the attribute
+	 */
+	public synchronized long getCount(String attribute) {
+		return moments.count[index(attribute)];
+	}
+
+	/**
+	 * @return smallest value, NaN if no value was seen
+	 */
+	public synchronized double getMinimum(String attribute) {
+		int f = index(attribute);
+		return moments.count[f] == 0 ? Double.NaN : moments.min[f];
+	}
+
+	/**
+	 * @return largest value, NaN if no value was seen
+	 */
+	public synchronized double getMaximum(String attribute) {
+		int f = index(attribute);
+		return moments.count[f] == 0 ? Double.NaN : moments.max[f];
+	}
+
+	/**
+	 * @return mean, NaN if no value was seen
+	 */
+	public synchronized double getMean(String attribute) {
+		int f = index(attribute);
+		return moments.count[f] == 0 ? Double.NaN : moments.mean[f];
+	}
+
+	/**
+	 * @return population variance, NaN if no value was seen
+	 */
+	public synchronized double getVariance(String attribute) {
+		int f = index(attribute);
+		return moments.count[f] == 0 ? Double.NaN : moments.m2[f] / moments.count[f];
+	}
+
+	public double getStandardDeviation(String attribute) {
+		return Math.sqrt(getVariance(attribute));
+	}
+
+	/**
+	 * @return maximum minus minimum, 0 if fewer than two distinct values were seen
+	 */
+	public synchronized double getRange(String attribute) {
+		int f = index(attribute);
+		return moments.count[f] == 0 ? 0 : moments.max[f] - moments.min[f];
+	}
+
+	/**
+	 * @return 1 / {@link #getRange(String)}, 0 when the range is 0
+	 */
+	public double getReciprocalRange(String attribute) {
+		return DefaultFeatureComparator.reciprocal(getRange(attribute));
+	}
+
+	private int index(String attribute) {
+		Integer f = indexes.get(attribute);
+		if (f == null) {
+			throw new IllegalArgumentException("No numeric attribute " + attribute + " in the statistics");
+		}
+		return f;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder("CaseBaseStatistics [" + caseClass.getSimpleName());
+		for (int f = 0; f < attributes.length; f++) {
+			builder.append(", ").append(attributes[f]).append("={n=").append(moments.count[f]).append(", min=")
+					.append(getMinimum(attributes[f])).append(", max=").append(getMaximum(attributes[f]))
+					.append(", mean=").append(getMean(attributes[f])).append(", sd=")
+					.append(getStandardDeviation(attributes[f])).append('}');
+		}
+		return builder.append(']').toString();
+	}
+
+	/**
+	 * Running moments of each feature
+	 */
+	private static class Moments {
+
+		final long[] count;
+
+		final double[] min;
+
+		final double[] max;
+
+		final double[] mean;
+
+		final double[] m2;
+
+		Moments(int features) {
+			count = new long[features];
+			min = new double[features];
+			max = new double[features];
+			mean = new double[features];
+			m2 = new double[features];
+		}
+
+		void add(int f, double value) {
+			if (Double.isNaN(value)) {
+				return;
+			}
+			long n = ++count[f];
+			if (n == 1) {
+				min[f] = value;
+				max[f] = value;
+			} else if (value < min[f]) {
+				min[f] = value;
+			} else if (value > max[f]) {
+				max[f] = value;
+			}
+			double delta = value - mean[f];
+			mean[f] += delta / n;
+			m2[f] += delta * (value - mean[f]);
+		}
+
+		void merge(Moments other) {
+			for (int f = 0; f < count.length; f++) {
+				long n = other.count[f];
+				if (n == 0) {
+					continue;
+				}
+				if (count[f] == 0) {
+					count[f] = n;
+					min[f] = other.min[f];
+					max[f] = other.max[f];
+					mean[f] = other.mean[f];
+					m2[f] = other.m2[f];
+					continue;
+				}
+				long total = count[f] + n;
+				double delta = other.mean[f] - mean[f];
+				mean[f] += delta * n / total;
+				m2[f] += other.m2[f] + delta * delta * count[f] * n / total;
+				count[f] = total;
+				min[f] = Math.min(min[f], other.min[f]);
+				max[f] = Math.max(max[f], other.max[f]);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of the feature evaluations of bounded retrievals, shared by the threads of one
+ * {@link FeatureSimilarity}. Scorers are added once per retrieval or chunk, not once per case.
+ *
+ * @author wanggang
+ *
+ */
+public class EvaluationStats {
+
+	private final AtomicLong scored = new AtomicLong();
+
+	private final AtomicLong abandoned = new AtomicLong();
+
+	private final AtomicLong evaluated = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	public void add(ScoringPlan.BoundedScorer scorer) {
+		scored.addAndGet(scorer.getScored());
+		abandoned.addAndGet(scorer.getAbandoned());
+		evaluated.addAndGet(scorer.getEvaluated());
+		skipped.addAndGet(scorer.getSkipped());
+	}
+
+	/**
+	 * @return cases scored on every feature
+	 */
+	public long getScored() {
+		return scored.get();
+	}
+
+	/**
+	 * @return cases abandoned below the cut-off
+	 */
+	public long getAbandoned() {
+		return abandoned.get();
+	}
+
+	/**
+	 * @return feature evaluations performed
+	 */
+	public long getEvaluated() {
+		return evaluated.get();
+	}
+
+	/**
+	 * @return feature evaluations skipped by abandoning cases
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return fraction of the feature evaluations a full scan would have made that were skipped
+	 */
+	public double getSkippedRatio() {
+		long skipped = getSkipped();
+		long total = getEvaluated() + skipped;
+		return total == 0 ? 0 : (double) skipped / total;
+	}
+
+	public void reset() {
+		scored.set(0);
+		abandoned.set(0);
+		evaluated.set(0);
+		skipped.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "EvaluationStats [scored=" + getScored() + ", abandoned=" + getAbandoned() + ", evaluated="
+				+ getEvaluated() + ", skipped=" + getSkipped() + "]";
+	}
+
+}
@@ -1,12 +1,25 @@
 package zx.soft.cbr.classify.core;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
 /**
  * 
  * @author wanggang
  *
  */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
 public @interface FeatureComparator {
 
 	Class<?> value();
 
+	/**
+	 * True when the similarity only depends on the two values and the domain is small, so the comparator is
+	 * wrapped in a {@link SimilarityTable} and called once per pair of distinct values
+	 */
+	boolean table() default false;
+
 }
@@ -1,87 +1,305 @@
 package zx.soft.cbr.classify.core;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import zx.soft.cbr.classify.utils.Accessor;
 import zx.soft.cbr.classify.utils.AccessorUtil;
 
 /**
- * 
+ * Weighted sum of the feature similarities, as a percentage of the weights the query case defines.
+ * <p>
+ * With early termination enabled, features are evaluated by descending weight and a case is abandoned as soon
+ * as it can no longer reach the threshold (or, in {@link #getMostSimilar}, beat the current k-th result).
+ * Results are the same, the feature evaluations saved are reported by {@link #getStats()}.
+ * <p>
+ * With a {@link IRetrievalListener} registered, every retrieval is timed phase by phase and reported as a
+ * {@link RetrievalTrace}; without one, the instrumentation is a null check per phase.
+ * <p>
+ * A query naming no features compares every attribute of the case; with {@link CaseBaseStatistics} set, the
+ * numeric ones are compared within the ranges observed on the case base rather than by equality only. The
+ * ranges are read when the statistics are set or refreshed, so statistics growing with a live case base neither
+ * change the plan of every query nor are locked by it.
+ *
  * @author wanggang
  *
  */
-@SuppressWarnings({ "unchecked", "rawtypes", "unused" })
+@SuppressWarnings({ "unchecked", "rawtypes" })
 public class FeatureSimilarity implements ISimilarityAlgorithm {
 
+	private final boolean earlyTermination;
+
+	private final EvaluationStats stats = new EvaluationStats();
+
+	private volatile IRetrievalListener listener;
+
+	private volatile CaseBaseStatistics statistics;
+
+	private volatile RangedFeatures rangedFeatures;
+
+	public FeatureSimilarity() {
+		this(false);
+	}
+
+	public FeatureSimilarity(boolean earlyTermination) {
+		this.earlyTermination = earlyTermination;
+	}
+
 	public Set<ICaseSimilarity> getSimilarity(ICase theCase, Set<ICase> similarCases, double threshold,
 			Object... params) {
+		IRetrievalListener listener = this.listener;
+		RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
 		Set<ICaseSimilarity> cases = null;
-		Collection<IFeature> features = null;
-		if (params != null) {
-			features = (Collection<IFeature>) params[0];
+		ScoringPlan plan = getPlan(theCase, params);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
 		}
-		if (features == null) {
-			features = getAllFeatures(theCase);
-		}
-		if (!features.isEmpty()) {
-			double maxScore = 0;
-			for (IFeature feature : features) {
-				if (feature.isSelected()) {
-					try {
-						if (AccessorUtil.invokeGetter(feature.getAttribute(), theCase) != null) {
-							maxScore += feature.getWeight();
-						}
-					} catch (Exception e) {
-						throw new RuntimeException(e);
-					}
+		ScoringPlan.Query query = plan.query(theCase);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		if (similarCases != null && !similarCases.isEmpty()) {
+			cases = new HashSet();
+			ICase[] array = similarCases.toArray(new ICase[similarCases.size()]);
+			scan(plan, query, array, 0, array.length, threshold, cases, trace);
+		}
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.SCAN);
+			trace.addScanned(similarCases == null ? 0 : similarCases.size());
+			trace.finish(cases == null ? 0 : cases.size(), listener);
+		}
+		return cases;
+	}
+
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, Set<ICase> similarCases, int k, double threshold,
+			Object... params) {
+		IRetrievalListener listener = this.listener;
+		RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
+		ScoringPlan plan = getPlan(theCase, params);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
+		}
+		ScoringPlan.Query query = plan.query(theCase);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		TopK topK = new TopK(k);
+		if (similarCases != null) {
+			ICase[] array = similarCases.toArray(new ICase[similarCases.size()]);
+			scan(plan, query, array, 0, array.length, threshold, topK, trace);
+		}
+		if (trace == null) {
+			return toList(theCase, topK);
+		}
+		trace.endPhase(RetrievalPhase.SCAN);
+		trace.addScanned(similarCases == null ? 0 : similarCases.size());
+		List<ICaseSimilarity> result = toList(theCase, topK);
+		trace.endPhase(RetrievalPhase.RESULTS);
+		trace.finish(result.size(), listener);
+		return result;
+	}
+
+	/**
+	 * Scores the cases [from, to) of the array, the scan shared by the sequential and the parallel retrievals
+	 *
+	 * @param results
+	 *            Receives the cases reaching the threshold
+	 * @param trace
+	 *            Counts the feature evaluations, null when not instrumented
+	 */
+	void scan(ScoringPlan plan, ScoringPlan.Query query, ICase[] cases, int from, int to, double threshold,
+			Collection<ICaseSimilarity> results, RetrievalTrace trace) {
+		ICase theCase = query.getCase();
+		if (earlyTermination) {
+			ScoringPlan.BoundedScorer scorer = plan.boundedScorer(query);
+			for (int i = from; i < to; i++) {
+				double similarity = scorer.similarity(cases[i], threshold);
+				if (similarity >= threshold) {
+					results.add(new CaseSimilarityImpl(similarity, theCase, cases[i]));
 				}
 			}
-			if (similarCases != null && !similarCases.isEmpty()) {
-				cases = new HashSet();
-				for (ICase aCase : similarCases) {
-					double caseScore = 0;
-					for (IFeature feature : features) {
-						if (feature.isSelected()) {
-							caseScore += getScore(feature, theCase, aCase);
-						}
-					}
-					double similarity = caseScore * 100 / maxScore;
-					if (similarity >= threshold) {
-						cases.add(new CaseSimilarityImpl(similarity, theCase, aCase));
-					}
+			stats.add(scorer);
+			if (trace != null) {
+				trace.addEvaluated(scorer.getEvaluated());
+			}
+		} else {
+			for (int i = from; i < to; i++) {
+				double similarity = plan.similarity(query, cases[i]);
+				if (similarity >= threshold) {
+					results.add(new CaseSimilarityImpl(similarity, theCase, cases[i]));
+				}
+			}
+			if (trace != null) {
+				trace.addEvaluated((long) (to - from) * plan.size());
+			}
+		}
+	}
+
+	/**
+	 * Scores the cases [from, to) of the array into a heap, identified by their index in the array
+	 *
+	 * @param topK
+	 *            Receives the best cases reaching the threshold, with early termination also against the
+	 *            worst case it holds
+	 * @param trace
+	 *            Counts the feature evaluations, null when not instrumented
+	 */
+	void scan(ScoringPlan plan, ScoringPlan.Query query, ICase[] cases, int from, int to, double threshold,
+			TopK topK, RetrievalTrace trace) {
+		if (earlyTermination) {
+			ScoringPlan.BoundedScorer scorer = plan.boundedScorer(query);
+			for (int i = from; i < to; i++) {
+				double similarity = scorer.similarity(cases[i], Math.max(threshold, topK.threshold()));
+				if (similarity >= threshold) {
+					topK.offer(i, similarity, cases[i]);
+				}
+			}
+			stats.add(scorer);
+			if (trace != null) {
+				trace.addEvaluated(scorer.getEvaluated());
+			}
+		} else {
+			for (int i = from; i < to; i++) {
+				double similarity = plan.similarity(query, cases[i]);
+				if (similarity >= threshold) {
+					topK.offer(i, similarity, cases[i]);
 				}
 			}
+			if (trace != null) {
+				trace.addEvaluated((long) (to - from) * plan.size());
+			}
+		}
+	}
+
+	public boolean isEarlyTermination() {
+		return earlyTermination;
+	}
+
+	/**
+	 * @return listener receiving the trace of every retrieval, null if the algorithm is not instrumented
+	 */
+	public IRetrievalListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @param listener
+	 *            Receives the trace of every retrieval, for instance a
+	 *            {@link zx.soft.cbr.classify.metrics.RetrievalMetrics}; null to disable the instrumentation
+	 */
+	public void setListener(IRetrievalListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return statistics ranging the features of the queries that name none, null if none are set
+	 */
+	public CaseBaseStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @param statistics
+	 *            Statistics of the case base, for instance registered as a listener of a {@link LiveCaseBase};
+	 *            their observed ranges replace the undefined ones of the features compared when params[0] is
+	 *            null. Null to compare such numeric features by equality
+	 * @see #refreshStatistics()
+	 */
+	public synchronized void setStatistics(CaseBaseStatistics statistics) {
+		this.statistics = statistics;
+		refreshStatistics();
+	}
+
+	/**
+	 * Reads again the ranges of the statistics set, which the queries naming no features keep using until then
+	 */
+	public synchronized void refreshStatistics() {
+		CaseBaseStatistics statistics = this.statistics;
+		if (statistics == null) {
+			rangedFeatures = null;
 		} else {
+			Class<? extends ICase> caseClass = statistics.getCaseClass();
+			rangedFeatures = new RangedFeatures(caseClass, Collections.unmodifiableList(statistics
+					.withRanges(getAllFeatures(caseClass))));
+		}
+	}
+
+	/**
+	 * @return feature evaluations made and skipped by the retrievals with early termination
+	 */
+	public EvaluationStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Turns a heap of cases kept as references into results ordered from the most to the least similar
+	 */
+	static List<ICaseSimilarity> toList(ICase theCase, TopK topK) {
+		topK.sort();
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(topK.size());
+		for (int i = 0; i < topK.size(); i++) {
+			result.add(new CaseSimilarityImpl(topK.score(i), theCase, (ICase) topK.ref(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves the scoring plan of a query: params[0] may hold the feature collection, all the attributes of
+	 * the case are compared otherwise, within the ranges last read from the statistics of its class if set
+	 */
+	protected ScoringPlan getPlan(ICase theCase, Object... params) {
+		Collection<IFeature> features = null;
+		if (params != null && params.length > 0) {
+			features = (Collection<IFeature>) params[0];
+		}
+		if (features == null) {
+			RangedFeatures ranged = rangedFeatures;
+			if (ranged != null && ranged.caseClass == theCase.getClass()) {
+				features = ranged.features;
+			} else {
+				features = getAllFeatures(theCase);
+			}
+		}
+		if (features.isEmpty()) {
 			throw new RuntimeException("No foram selecionadas caractersticas a analisar");
 		}
-		return cases;
+		return ScoringPlan.getPlan(theCase.getClass(), features);
+	}
+
+	/**
+	 * @return every attribute of the case, with weight 1 and no range
+	 */
+	static Set<IFeature> getAllFeatures(ICase theCase) {
+		return getAllFeatures(theCase.getClass());
 	}
 
-	private Set<IFeature> getAllFeatures(ICase theCase) {
+	private static Set<IFeature> getAllFeatures(Class<? extends ICase> caseClass) {
 		Set<IFeature> features = new HashSet<IFeature>();
-		for (Accessor accessor : AccessorUtil.getAccessorsList(theCase.getClass())) {
+		for (Accessor accessor : AccessorUtil.getAccessorsList(caseClass)) {
 			features.add(new FeatureImpl(accessor.getName(), 1, 0));
 		}
 		return features;
 	}
 
-	private double getScore(IFeature feature, ICase theCase, ICase aCase) {
-		Accessor acc = AccessorUtil.getAccessor(feature.getAttribute(), theCase.getClass());
-		double value;
-		try {
-			IFeatureComparator fc = null;
-			FeatureComparator annotation = acc.getGetter().getAnnotation(FeatureComparator.class);
-			if (annotation != null) {
-				fc = (IFeatureComparator) annotation.value().newInstance();
-			} else {
-				fc = new DefaultFeatureComparator(feature);
-			}
-			return fc.similar(acc.invokeGetter(theCase), acc.invokeGetter(aCase)) * feature.getWeight();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+	/**
+	 * Attributes of a case class within the ranges read from its statistics, shared by the queries so they
+	 * resolve to the same cached plan
+	 */
+	private static final class RangedFeatures {
+
+		private final Class<? extends ICase> caseClass;
+
+		private final List<IFeature> features;
+
+		RangedFeatures(Class<? extends ICase> caseClass, List<IFeature> features) {
+			this.caseClass = caseClass;
+			this.features = features;
 		}
+
 	}
 
 }
@@ -0,0 +1,33 @@
+package zx.soft.cbr.classify.core;
+
+/**
+ * Receives the cases added to a {@link LiveCaseBase}, e.g. to keep an index or statistics up to date
+ *
+ * @author wanggang
+ *
+ */
+public interface ICaseBaseListener {
+
+	/**
+	 * Called on every listener before any of them sees the case, so a case one listener cannot store is added
+	 * to none. Accepts every case by default
+	 *
+	 * @param theCase
+	 * @throws IllegalArgumentException
+	 *             when the listener cannot store the case
+	 */
+	public default void checkCase(ICase theCase) {
+	}
+
+	/**
+	 * Called once per case, in id order, after the case is stored and before queries can see it. Calls are
+	 * serialized by the case base. Must not fail on a case {@link #checkCase(ICase)} accepted: the listeners
+	 * before the failing one already hold the case, so the case base stops accepting cases
+	 *
+	 * @param theCase
+	 * @param id
+	 *            Position of the case in the case base
+	 */
+	public void caseAdded(ICase theCase, int id);
+
+}
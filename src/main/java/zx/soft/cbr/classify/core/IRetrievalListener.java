@@ -0,0 +1,25 @@
+package zx.soft.cbr.classify.core;
+
+/**
+ * Receives the {@link RetrievalTrace} of every retrieval of an instrumented algorithm, see
+ * {@link FeatureSimilarity#setListener(IRetrievalListener)}. Called on the retrieving thread, possibly by
+ * several threads at the same time.
+ *
+ * @author wanggang
+ *
+ */
+public interface IRetrievalListener {
+
+	/**
+	 * @return true to have the bytes allocated by the retrieving thread measured, which costs two extra calls
+	 *         to the JVM per retrieval
+	 */
+	public boolean isAllocationTracked();
+
+	/**
+	 * @param trace
+	 *            Completed retrieval
+	 */
+	public void retrieved(RetrievalTrace trace);
+
+}
@@ -1,5 +1,7 @@
 package zx.soft.cbr.classify.core;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -11,4 +13,39 @@ public interface ISimilarityAlgorithm {
 
 	Set<ICaseSimilarity> getSimilarity(ICase theCase, Set<ICase> similarCases, double threshold, Object... params);
 
+	/**
+	 * Retrieves the k cases most similar to theCase, keeping only k candidates in memory. By default the
+	 * results of {@link #getSimilarity} are ranked, so an algorithm only needs a scan of its own to avoid
+	 * building the full result set
+	 * 
+	 * @param theCase
+	 * @param similarCases
+	 * @param k
+	 *            Maximum number of results
+	 * @param threshold
+	 *            Minimum similarity, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @param params
+	 * @return results ordered from the most to the least similar
+	 */
+	default List<ICaseSimilarity> getMostSimilar(ICase theCase, Set<ICase> similarCases, int k, double threshold,
+			Object... params) {
+		TopK topK = new TopK(k);
+		Set<ICaseSimilarity> similar = getSimilarity(theCase, similarCases, threshold, params);
+		if (similar != null) {
+			int id = 0;
+			for (ICaseSimilarity similarity : similar) {
+				if (similarity.getValue() >= threshold) {
+					topK.offer(id, similarity.getValue(), similarity);
+				}
+				id++;
+			}
+		}
+		topK.sort();
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(topK.size());
+		for (int i = 0; i < topK.size(); i++) {
+			result.add((ICaseSimilarity) topK.ref(i));
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,219 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Append-only case base that keeps growing while other threads query it. Appends are serialized; queries run
+ * on a {@link #snapshot()}, an immutable view of the cases added so far, so they never lock nor see a case
+ * twice. Cases are identified by their position, which is also their position in the snapshot iteration.
+ * <p>
+ * Listeners see every case, including the ones added before they registered, before any snapshot holds it,
+ * so an index maintained by a listener is never behind the snapshots. A case is first checked by every
+ * listener and added only when all of them accept it; a listener failing once it accepted a case leaves the
+ * listeners out of step, so the case base then rejects further cases.
+ *
+ * @author wanggang
+ *
+ */
+public class LiveCaseBase {
+
+	private final List<ICaseBaseListener> listeners = new CopyOnWriteArrayList<ICaseBaseListener>();
+
+	/**
+	 * Replaced by a larger copy when full, rows below size are never written again
+	 */
+	private volatile ICase[] cases;
+
+	private volatile int size;
+
+	/**
+	 * Failure of a listener on an accepted case, null while the listeners are in step
+	 */
+	private RuntimeException failure;
+
+	public LiveCaseBase() {
+		this.cases = new ICase[16];
+	}
+
+	/**
+	 * @param cases
+	 *            Initial cases, in id order
+	 */
+	public LiveCaseBase(Collection<? extends ICase> cases) {
+		this.cases = new ICase[Math.max(cases.size(), 16)];
+		addAll(cases);
+	}
+
+	/**
+	 * @param theCase
+	 * @return id of the case
+	 * @throws IllegalArgumentException
+	 *             when a listener rejects the case, which is then not added
+	 * @throws IllegalStateException
+	 *             when a listener failed on an earlier case
+	 */
+	public synchronized int add(ICase theCase) {
+		if (theCase == null) {
+			throw new IllegalArgumentException("Null case");
+		}
+		if (failure != null) {
+			throw new IllegalStateException("A listener failed on case " + size + ", no case can be added", failure);
+		}
+		for (ICaseBaseListener listener : listeners) {
+			listener.checkCase(theCase);
+		}
+		int id = size;
+		if (id == cases.length) {
+			cases = Arrays.copyOf(cases, id + (id >> 1) + 1);
+		}
+		cases[id] = theCase;
+		try {
+			for (ICaseBaseListener listener : listeners) {
+				listener.caseAdded(theCase, id);
+			}
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		}
+		size = id + 1;
+		return id;
+	}
+
+	public synchronized void addAll(Collection<? extends ICase> cases) {
+		for (ICase theCase : cases) {
+			add(theCase);
+		}
+	}
+
+	/**
+	 * Registers a listener, first replaying the cases already stored
+	 *
+	 * @param listener
+	 */
+	public synchronized void addListener(ICaseBaseListener listener) {
+		for (int id = 0; id < size; id++) {
+			listener.caseAdded(cases[id], id);
+		}
+		listeners.add(listener);
+	}
+
+	public void removeListener(ICaseBaseListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return read-only set of the cases added so far, in id order, unaffected by later additions
+	 */
+	public Snapshot snapshot() {
+		int n = size;
+		return new Snapshot(this, cases, n);
+	}
+
+	/**
+	 * @param id
+	 * @return case of the id
+	 */
+	public ICase get(int id) {
+		int n = size;
+		if (id < 0 || id >= n) {
+			throw new IndexOutOfBoundsException("Case " + id + " of " + n);
+		}
+		return cases[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return stamp changing whenever cases are added, the number of cases since the base only grows
+	 */
+	public long getVersion() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "LiveCaseBase(" + size + " cases, " + listeners.size() + " listeners)";
+	}
+
+	/**
+	 * Cases of a {@link LiveCaseBase} at one point in time
+	 */
+	public static class Snapshot extends AbstractSet<ICase> {
+
+		private final LiveCaseBase caseBase;
+
+		private final ICase[] cases;
+
+		private final int size;
+
+		Snapshot(LiveCaseBase caseBase, ICase[] cases, int size) {
+			this.caseBase = caseBase;
+			this.cases = cases;
+			this.size = size;
+		}
+
+		/**
+		 * @return case base the snapshot was taken from
+		 */
+		public LiveCaseBase getCaseBase() {
+			return caseBase;
+		}
+
+		/**
+		 * @return {@link LiveCaseBase#getVersion()} when the snapshot was taken
+		 */
+		public long getVersion() {
+			return size;
+		}
+
+		/**
+		 * @param id
+		 * @return case of the id
+		 */
+		public ICase get(int id) {
+			if (id < 0 || id >= size) {
+				throw new IndexOutOfBoundsException("Case " + id + " of " + size);
+			}
+			return cases[id];
+		}
+
+		@Override
+		public Iterator<ICase> iterator() {
+			return new Iterator<ICase>() {
+
+				private int next;
+
+				public boolean hasNext() {
+					return next < size;
+				}
+
+				public ICase next() {
+					if (next >= size) {
+						throw new NoSuchElementException();
+					}
+					return cases[next++];
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+			};
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+	}
+
+}
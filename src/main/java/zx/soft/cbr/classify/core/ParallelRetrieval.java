@@ -0,0 +1,250 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits a scan over a case base into chunks run on a {@link ForkJoinPool} or on a caller-supplied executor
+ * and merges the per-chunk results. Case bases smaller than the parallel threshold are scanned on the calling
+ * thread.
+ * <p>
+ * On an executor, the calling thread scans chunks too: it and the tasks it submits take the chunks in turn,
+ * and it only waits for chunks being scanned. A scan started from a task of the same bounded executor, e.g. a
+ * fold of a cross-validation sharing a fixed pool with the retrieval, therefore completes even when no other
+ * thread of the executor is free, instead of waiting for tasks queued behind its own.
+ *
+ * @author wanggang
+ *
+ */
+public class ParallelRetrieval {
+
+	/**
+	 * Case bases below this size are scanned sequentially by default
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 16384;
+
+	/**
+	 * Smallest chunk handed to a worker
+	 */
+	public static final int MIN_CHUNK_SIZE = 4096;
+
+	private final ForkJoinPool pool;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	private final int parallelThreshold;
+
+	/**
+	 * Runs on the common pool
+	 */
+	public ParallelRetrieval() {
+		this(ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * @param pool
+	 * @param parallelThreshold
+	 *            Case bases below this size are scanned sequentially
+	 */
+	public ParallelRetrieval(ForkJoinPool pool, int parallelThreshold) {
+		this.pool = pool;
+		this.executor = null;
+		this.parallelism = pool.getParallelism();
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * @param executor
+	 *            Executor running the chunks
+	 * @param parallelism
+	 *            Number of threads of the executor available to one scan
+	 * @param parallelThreshold
+	 *            Case bases below this size are scanned sequentially
+	 */
+	public ParallelRetrieval(ExecutorService executor, int parallelism, int parallelThreshold) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		}
+		this.pool = null;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Scans the range [0, size) in chunks
+	 *
+	 * @param size
+	 *            Number of cases
+	 * @param task
+	 *            Chunk scan and merge of partial results
+	 * @return merged result
+	 */
+	public <R> R execute(int size, ChunkTask<R> task) {
+		if (size < parallelThreshold || parallelism <= 1) {
+			return task.compute(0, size);
+		}
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, (size + parallelism * 4 - 1) / (parallelism * 4));
+		if (pool != null) {
+			return pool.invoke(new ForkJoinChunk<R>(task, 0, size, chunkSize));
+		}
+		final ChunkTask<R> chunkTask = task;
+		final Chunks<R> chunks = new Chunks<R>(size, chunkSize);
+		List<Future<?>> helpers = new ArrayList<Future<?>>(parallelism - 1);
+		for (int i = 1; i < Math.min(parallelism, chunks.count); i++) {
+			helpers.add(executor.submit(new Runnable() {
+				public void run() {
+					chunks.scan(chunkTask);
+				}
+			}));
+		}
+		chunks.scan(task);
+		try {
+			chunks.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			// helpers still queued would find no chunk left
+			for (Future<?> helper : helpers) {
+				helper.cancel(false);
+			}
+		}
+		R result = null;
+		for (int c = 0; c < chunks.count; c++) {
+			if (chunks.failures[c] != null) {
+				if (chunks.failures[c] instanceof RuntimeException) {
+					throw (RuntimeException) chunks.failures[c];
+				}
+				if (chunks.failures[c] instanceof Error) {
+					throw (Error) chunks.failures[c];
+				}
+				throw new RuntimeException(chunks.failures[c]);
+			}
+			result = c == 0 ? chunks.result(c) : task.merge(result, chunks.result(c));
+		}
+		return result;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Scan of one chunk of a case base
+	 */
+	public interface ChunkTask<R> {
+
+		/**
+		 * @param from
+		 *            First case, inclusive
+		 * @param to
+		 *            Last case, exclusive
+		 * @return partial result
+		 */
+		R compute(int from, int to);
+
+		/**
+		 * Merges the results of two adjacent chunks, left before right
+		 */
+		R merge(R left, R right);
+
+	}
+
+	/**
+	 * Chunks of one scan on an executor, taken in order by the threads taking part; every chunk counts down
+	 * done once scanned, failed or not
+	 */
+	private static final class Chunks<R> {
+
+		private final int size;
+
+		private final int chunkSize;
+
+		private final int count;
+
+		private final AtomicInteger next = new AtomicInteger();
+
+		private final Object[] results;
+
+		private final Throwable[] failures;
+
+		private final CountDownLatch done;
+
+		Chunks(int size, int chunkSize) {
+			this.size = size;
+			this.chunkSize = chunkSize;
+			this.count = (size + chunkSize - 1) / chunkSize;
+			this.results = new Object[count];
+			this.failures = new Throwable[count];
+			this.done = new CountDownLatch(count);
+		}
+
+		void scan(ChunkTask<R> task) {
+			int c;
+			while ((c = next.getAndIncrement()) < count) {
+				int from = c * chunkSize;
+				try {
+					results[c] = task.compute(from, Math.min(from + chunkSize, size));
+				} catch (Throwable e) {
+					failures[c] = e;
+				} finally {
+					done.countDown();
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		R result(int c) {
+			return (R) results[c];
+		}
+
+	}
+
+	private static final class ForkJoinChunk<R> extends RecursiveTask<R> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ChunkTask<R> task;
+
+		private final int from;
+
+		private final int to;
+
+		private final int chunkSize;
+
+		ForkJoinChunk(ChunkTask<R> task, int from, int to, int chunkSize) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected R compute() {
+			if (to - from <= chunkSize) {
+				return task.compute(from, to);
+			}
+			int middle = (from + to) >>> 1;
+			ForkJoinChunk<R> left = new ForkJoinChunk<R>(task, from, middle, chunkSize);
+			ForkJoinChunk<R> right = new ForkJoinChunk<R>(task, middle, to, chunkSize);
+			left.fork();
+			R rightResult = right.compute();
+			return task.merge(left.join(), rightResult);
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link FeatureSimilarity} scanning large case bases in parallel chunks through a {@link ParallelRetrieval}.
+ * Chunks are scored by the same scan as the sequential algorithm, so scores are the same; case bases below the
+ * parallel threshold are scanned on the calling thread.
+ *
+ * @author wanggang
+ *
+ */
+public class ParallelSimilarity extends FeatureSimilarity {
+
+	private final ParallelRetrieval retrieval;
+
+	public ParallelSimilarity() {
+		this(new ParallelRetrieval());
+	}
+
+	public ParallelSimilarity(ParallelRetrieval retrieval) {
+		this(retrieval, false);
+	}
+
+	public ParallelSimilarity(ParallelRetrieval retrieval, boolean earlyTermination) {
+		super(earlyTermination);
+		this.retrieval = retrieval;
+	}
+
+	@Override
+	public Set<ICaseSimilarity> getSimilarity(ICase theCase, Set<ICase> similarCases, final double threshold,
+			Object... params) {
+		if (similarCases == null || similarCases.size() < retrieval.getParallelThreshold()) {
+			return super.getSimilarity(theCase, similarCases, threshold, params);
+		}
+		IRetrievalListener listener = getListener();
+		final RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
+		final ScoringPlan plan = getPlan(theCase, params);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
+		}
+		final ScoringPlan.Query query = plan.query(theCase);
+		final ICase[] cases = similarCases.toArray(new ICase[similarCases.size()]);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		List<ICaseSimilarity> result = retrieval.execute(cases.length,
+				new ParallelRetrieval.ChunkTask<List<ICaseSimilarity>>() {
+
+					public List<ICaseSimilarity> compute(int from, int to) {
+						List<ICaseSimilarity> partial = new ArrayList<ICaseSimilarity>();
+						scan(plan, query, cases, from, to, threshold, partial, trace);
+						return partial;
+					}
+
+					public List<ICaseSimilarity> merge(List<ICaseSimilarity> left, List<ICaseSimilarity> right) {
+						left.addAll(right);
+						return left;
+					}
+
+				});
+		if (trace == null) {
+			return new HashSet<ICaseSimilarity>(result);
+		}
+		trace.endPhase(RetrievalPhase.SCAN);
+		trace.addScanned(cases.length);
+		Set<ICaseSimilarity> similar = new HashSet<ICaseSimilarity>(result);
+		trace.endPhase(RetrievalPhase.RESULTS);
+		trace.finish(similar.size(), listener);
+		return similar;
+	}
+
+	@Override
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, Set<ICase> similarCases, final int k,
+			final double threshold, Object... params) {
+		if (similarCases == null || similarCases.size() < retrieval.getParallelThreshold()) {
+			return super.getMostSimilar(theCase, similarCases, k, threshold, params);
+		}
+		IRetrievalListener listener = getListener();
+		final RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
+		final ScoringPlan plan = getPlan(theCase, params);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
+		}
+		final ScoringPlan.Query query = plan.query(theCase);
+		final ICase[] cases = similarCases.toArray(new ICase[similarCases.size()]);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		TopK topK = retrieval.execute(cases.length, new ParallelRetrieval.ChunkTask<TopK>() {
+
+			public TopK compute(int from, int to) {
+				TopK partial = new TopK(k);
+				scan(plan, query, cases, from, to, threshold, partial, trace);
+				return partial;
+			}
+
+			public TopK merge(TopK left, TopK right) {
+				left.merge(right);
+				return left;
+			}
+
+		});
+		if (trace == null) {
+			return toList(theCase, topK);
+		}
+		trace.endPhase(RetrievalPhase.SCAN);
+		trace.addScanned(cases.length);
+		List<ICaseSimilarity> result = toList(theCase, topK);
+		trace.endPhase(RetrievalPhase.RESULTS);
+		trace.finish(result.size(), listener);
+		return result;
+	}
+
+	public ParallelRetrieval getRetrieval() {
+		return retrieval;
+	}
+
+}
@@ -0,0 +1,31 @@
+package zx.soft.cbr.classify.core;
+
+/**
+ * Phases of a retrieval timed by a {@link RetrievalTrace}
+ *
+ * @author wanggang
+ *
+ */
+public enum RetrievalPhase {
+
+	/**
+	 * Features resolved and scoring plan looked up
+	 */
+	RESOLVE,
+
+	/**
+	 * Query values extracted and maximum score computed
+	 */
+	PREPARE,
+
+	/**
+	 * Cases of the case base scored
+	 */
+	SCAN,
+
+	/**
+	 * Results sorted and built; in {@link ISimilarityAlgorithm#getSimilarity} they are built while scanning
+	 */
+	RESULTS
+
+}
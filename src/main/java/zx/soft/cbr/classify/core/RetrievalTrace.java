@@ -0,0 +1,170 @@
+package zx.soft.cbr.classify.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Phase timings and counts of one retrieval. Algorithms only create a trace when a listener is registered, so
+ * an uninstrumented retrieval pays a null check per phase and nothing else.
+ * <p>
+ * Phases are timed back to back: {@link #endPhase(RetrievalPhase)} charges the time elapsed since the previous
+ * phase ended. Counts may be added by the workers of a parallel scan; allocated bytes only cover the
+ * retrieving thread.
+ *
+ * @author wanggang
+ *
+ */
+public class RetrievalTrace {
+
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private final String algorithm;
+
+	private final boolean allocationTracked;
+
+	private final long start;
+
+	private final long startBytes;
+
+	private final long[] phaseNanos = new long[RetrievalPhase.values().length];
+
+	private final AtomicLong scanned = new AtomicLong();
+
+	private final AtomicLong evaluated = new AtomicLong();
+
+	private long last;
+
+	private long totalNanos;
+
+	private int results;
+
+	private long allocatedBytes = -1;
+
+	/**
+	 * @param algorithm
+	 *            Name of the algorithm
+	 * @param allocationTracked
+	 *            Measure the bytes allocated by the calling thread, ignored when the JVM cannot
+	 */
+	public RetrievalTrace(String algorithm, boolean allocationTracked) {
+		this.algorithm = algorithm;
+		this.allocationTracked = allocationTracked && THREADS != null;
+		this.startBytes = this.allocationTracked ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId())
+				: 0;
+		this.start = System.nanoTime();
+		this.last = start;
+	}
+
+	/**
+	 * @return a started trace, null when there is no listener
+	 */
+	public static RetrievalTrace start(IRetrievalListener listener, String algorithm) {
+		return listener == null ? null : new RetrievalTrace(algorithm, listener.isAllocationTracked());
+	}
+
+	/**
+	 * Charges the time elapsed since the previous phase ended to a phase
+	 */
+	public void endPhase(RetrievalPhase phase) {
+		long now = System.nanoTime();
+		phaseNanos[phase.ordinal()] += now - last;
+		last = now;
+	}
+
+	public void addScanned(long cases) {
+		scanned.addAndGet(cases);
+	}
+
+	public void addEvaluated(long features) {
+		evaluated.addAndGet(features);
+	}
+
+	/**
+	 * Ends the retrieval and reports it
+	 *
+	 * @param results
+	 *            Number of results returned
+	 * @param listener
+	 */
+	public void finish(int results, IRetrievalListener listener) {
+		this.totalNanos = System.nanoTime() - start;
+		this.results = results;
+		if (allocationTracked) {
+			allocatedBytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+		}
+		listener.retrieved(this);
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+				if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+					return threads;
+				}
+			}
+		} catch (LinkageError e) {
+			// not a HotSpot-compatible JVM
+		}
+		return null;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return nanoseconds spent in the phase, 0 if the algorithm does not go through it
+	 */
+	public long getNanos(RetrievalPhase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	/**
+	 * @return nanoseconds from the start to the end of the retrieval
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * @return cases scored
+	 */
+	public long getScanned() {
+		return scanned.get();
+	}
+
+	/**
+	 * @return feature comparisons performed
+	 */
+	public long getEvaluated() {
+		return evaluated.get();
+	}
+
+	/**
+	 * @return results returned
+	 */
+	public int getResults() {
+		return results;
+	}
+
+	/**
+	 * @return bytes allocated by the retrieving thread, -1 when not measured
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("RetrievalTrace [" + algorithm);
+		for (RetrievalPhase phase : RetrievalPhase.values()) {
+			builder.append(", ").append(phase).append('=').append(phaseNanos[phase.ordinal()]);
+		}
+		return builder.append(", total=").append(totalNanos).append(", scanned=").append(scanned)
+				.append(", evaluated=").append(evaluated).append(", results=").append(results)
+				.append(", allocatedBytes=").append(allocatedBytes).append(']').toString();
+	}
+
+}
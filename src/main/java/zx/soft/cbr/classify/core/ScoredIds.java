@@ -0,0 +1,80 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive (id, score) pairs, for retrievals whose result size is not bounded by k.
+ *
+ * @author wanggang
+ *
+ */
+public class ScoredIds {
+
+	private int[] ids;
+
+	private double[] scores;
+
+	private int size;
+
+	public ScoredIds() {
+		this(16);
+	}
+
+	public ScoredIds(int capacity) {
+		this.ids = new int[Math.max(capacity, 1)];
+		this.scores = new double[ids.length];
+	}
+
+	public void add(int id, double score) {
+		if (size == ids.length) {
+			int capacity = size + (size >> 1) + 1;
+			ids = Arrays.copyOf(ids, capacity);
+			scores = Arrays.copyOf(scores, capacity);
+		}
+		ids[size] = id;
+		scores[size] = score;
+		size++;
+	}
+
+	public void addAll(ScoredIds other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.ids[i], other.scores[i]);
+		}
+	}
+
+	/**
+	 * Orders the pairs from the best to the worst score, equal scores by ascending id
+	 *
+	 * @return this list
+	 */
+	public ScoredIds sort() {
+		TopK heap = new TopK(Math.max(size, 1));
+		for (int i = 0; i < size; i++) {
+			heap.offer(ids[i], scores[i]);
+		}
+		heap.sort();
+		size = heap.size();
+		for (int i = 0; i < size; i++) {
+			ids[i] = heap.id(i);
+			scores[i] = heap.score(i);
+		}
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int id(int i) {
+		return ids[i];
+	}
+
+	public double score(int i) {
+		return scores[i];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+}
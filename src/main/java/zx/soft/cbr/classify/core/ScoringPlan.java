@@ -0,0 +1,451 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import zx.soft.cbr.classify.utils.ExtractorUtil;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Scoring of a feature collection against one {@link ICase} class, resolved once: the selected features,
+ * their extractors, comparator instances, weights and ranges. Plans are cached by class and feature values,
+ * so every retrieval with the same configuration shares one plan and the scoring loop allocates nothing.
+ * <p>
+ * Comparators declared with {@link FeatureComparator} are instantiated once per plan and shared between
+ * threads, so they must be stateless. Table-driven ones are wrapped in a {@link SimilarityTable} of the plan:
+ * the query value is encoded once, and each case costs a lookup of its value.
+ *
+ * @author wanggang
+ *
+ */
+@SuppressWarnings("rawtypes")
+public class ScoringPlan {
+
+	private static final int MAX_CACHED_PLANS = 256;
+
+	private static final ConcurrentMap<Key, ScoringPlan> planCache = new ConcurrentHashMap<Key, ScoringPlan>();
+
+	private static final Comparator<IFeature> BY_ATTRIBUTE = new Comparator<IFeature>() {
+		public int compare(IFeature f1, IFeature f2) {
+			return f1.getAttribute().compareTo(f2.getAttribute());
+		}
+	};
+
+	private final Key key;
+
+	private final Class caseClass;
+
+	private final IFeature[] features;
+
+	private final FeatureExtractor[] extractors;
+
+	/**
+	 * null where the default numeric rule is applied on unboxed values
+	 */
+	private final IFeatureComparator[] comparators;
+
+	/**
+	 * Comparator where it is table-driven, null elsewhere
+	 */
+	private final SimilarityTable[] tables;
+
+	private final double[] weights;
+
+	private final double[] ranges;
+
+	private final double[] reciprocals;
+
+	/**
+	 * Feature indexes by descending weight, the order in which bounded scoring evaluates them
+	 */
+	private final int[] byWeight;
+
+	/**
+	 * remaining[j]: largest score the features byWeight[j..] can still add
+	 */
+	private final double[] remaining;
+
+	private ScoringPlan(Key key, Class caseClass, List<IFeature> selected) {
+		int size = selected.size();
+		this.key = key;
+		this.caseClass = caseClass;
+		this.features = new IFeature[size];
+		this.extractors = new FeatureExtractor[size];
+		this.comparators = new IFeatureComparator[size];
+		this.tables = new SimilarityTable[size];
+		this.weights = new double[size];
+		this.ranges = new double[size];
+		this.reciprocals = new double[size];
+		for (int i = 0; i < size; i++) {
+			IFeature feature = selected.get(i);
+			FeatureExtractor extractor = ExtractorUtil.getExtractor(feature.getAttribute(), caseClass);
+			if (extractor == null) {
+				throw new IllegalArgumentException("Feature has no getter in " + caseClass.getName() + ": "
+						+ feature.getAttribute());
+			}
+			// snapshot, so later changes to the caller's feature cannot leak into a cached plan
+			features[i] = new FeatureImpl(feature.getAttribute(), feature.getWeight(), feature.getRange());
+			extractors[i] = extractor;
+			comparators[i] = resolveComparator(features[i], extractor);
+			if (comparators[i] instanceof SimilarityTable) {
+				tables[i] = (SimilarityTable) comparators[i];
+			}
+			weights[i] = feature.getWeight();
+			ranges[i] = feature.getRange();
+			reciprocals[i] = DefaultFeatureComparator.reciprocal(ranges[i]);
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(weights[i2], weights[i1]);
+			}
+		});
+		this.byWeight = new int[size];
+		this.remaining = new double[size + 1];
+		for (int j = size - 1; j >= 0; j--) {
+			byWeight[j] = order[j];
+			// a negative weight can only lower the score
+			remaining[j] = remaining[j + 1] + Math.max(weights[order[j]], 0);
+		}
+	}
+
+	private static IFeatureComparator resolveComparator(IFeature feature, FeatureExtractor extractor) {
+		FeatureComparator annotation = extractor.getGetter().getAnnotation(FeatureComparator.class);
+		if (annotation != null) {
+			try {
+				IFeatureComparator comparator = (IFeatureComparator) annotation.value().newInstance();
+				return annotation.table() ? new SimilarityTable(comparator) : comparator;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		} else if (extractor.isPrimitive() && extractor.isNumeric()) {
+			return null;
+		}
+		return new DefaultFeatureComparator(feature);
+	}
+
+	/**
+	 * Returns the cached plan for the selected features of the collection, building it on first use
+	 *
+	 * @param caseClass
+	 *            Class of the query case
+	 * @param features
+	 *            Features to be compared, unselected ones are ignored
+	 * @return plan
+	 */
+	public static ScoringPlan getPlan(Class caseClass, Collection<IFeature> features) {
+		List<IFeature> selected = new ArrayList<IFeature>(features.size());
+		for (IFeature feature : features) {
+			if (feature.isSelected()) {
+				selected.add(feature);
+			}
+		}
+		Collections.sort(selected, BY_ATTRIBUTE);
+		Key key = new Key(caseClass, selected);
+		ScoringPlan plan = planCache.get(key);
+		if (plan == null) {
+			plan = new ScoringPlan(key, caseClass, selected);
+			if (planCache.size() >= MAX_CACHED_PLANS) {
+				planCache.clear();
+			}
+			ScoringPlan previous = planCache.putIfAbsent(key, plan);
+			if (previous != null) {
+				plan = previous;
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Extracts the feature values of a query case once, to be scored against many cases
+	 *
+	 * @param theCase
+	 * @return query
+	 */
+	public Query query(ICase theCase) {
+		Object[] values = new Object[extractors.length];
+		double[] numbers = new double[extractors.length];
+		int[] codes = new int[extractors.length];
+		double maxScore = 0;
+		for (int i = 0; i < extractors.length; i++) {
+			if (comparators[i] == null) {
+				numbers[i] = extractors[i].getDouble(theCase);
+				maxScore += weights[i];
+			} else {
+				values[i] = extractors[i].get(theCase);
+				if (values[i] != null) {
+					maxScore += weights[i];
+				}
+				codes[i] = tables[i] == null ? SimilarityTable.UNTABULATED : tables[i].encode(values[i]);
+			}
+		}
+		return new Query(theCase, values, numbers, codes, maxScore);
+	}
+
+	/**
+	 * @param query
+	 * @param aCase
+	 * @return weighted sum of the feature similarities
+	 */
+	public double score(Query query, ICase aCase) {
+		double score = 0;
+		for (int i = 0; i < extractors.length; i++) {
+			IFeatureComparator comparator = comparators[i];
+			if (comparator == null) {
+				score += DefaultFeatureComparator.similar(query.numbers[i], extractors[i].getDouble(aCase), ranges[i],
+						reciprocals[i]) * weights[i];
+			} else if (query.codes[i] != SimilarityTable.UNTABULATED) {
+				score += tables[i].similar(query.codes[i], extractors[i].get(aCase)) * weights[i];
+			} else {
+				score += comparator.similar(query.values[i], extractors[i].get(aCase)) * weights[i];
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * @param query
+	 * @param aCase
+	 * @return score as a percentage of the query's maximum score
+	 */
+	public double similarity(Query query, ICase aCase) {
+		return score(query, aCase) * 100 / query.maxScore;
+	}
+
+	/**
+	 * @param query
+	 * @return scorer abandoning cases that cannot reach a cut-off, to be used by a single thread
+	 */
+	public BoundedScorer boundedScorer(Query query) {
+		return new BoundedScorer(query);
+	}
+
+	/**
+	 * @return value equal for the plans of the same class and feature values, even after the plan cache is
+	 *         cleared, to key the data derived from a plan
+	 */
+	public Object getKey() {
+		return key;
+	}
+
+	public Class getCaseClass() {
+		return caseClass;
+	}
+
+	public int size() {
+		return features.length;
+	}
+
+	public IFeature getFeature(int i) {
+		return features[i];
+	}
+
+	public FeatureExtractor getExtractor(int i) {
+		return extractors[i];
+	}
+
+	public IFeatureComparator getComparator(int i) {
+		return comparators[i];
+	}
+
+	@Override
+	public String toString() {
+		return caseClass.getSimpleName() + Arrays.toString(features);
+	}
+
+	/**
+	 * Feature values of a query case
+	 */
+	public static class Query {
+
+		private final ICase theCase;
+
+		private final Object[] values;
+
+		private final double[] numbers;
+
+		/**
+		 * Codes of the values in the similarity tables, {@link SimilarityTable#UNTABULATED} elsewhere
+		 */
+		private final int[] codes;
+
+		private final double maxScore;
+
+		private Query(ICase theCase, Object[] values, double[] numbers, int[] codes, double maxScore) {
+			this.theCase = theCase;
+			this.values = values;
+			this.numbers = numbers;
+			this.codes = codes;
+			this.maxScore = maxScore;
+		}
+
+		public ICase getCase() {
+			return theCase;
+		}
+
+		public double getMaxScore() {
+			return maxScore;
+		}
+
+	}
+
+	/**
+	 * Branch-and-bound scoring of one query: features are evaluated by descending weight and a case is
+	 * abandoned as soon as its partial score plus the weight of the features left falls below the cut-off.
+	 * Each feature similarity is assumed to lie in [0, 1], as with {@link DefaultFeatureComparator}. Cases that
+	 * are not abandoned get exactly the score of {@link ScoringPlan#similarity(Query, ICase)}.
+	 */
+	public class BoundedScorer {
+
+		/**
+		 * Relative margin keeping rounding differences between evaluation orders from abandoning a case that
+		 * reaches the cut-off exactly
+		 */
+		private static final double SLACK = 1e-9;
+
+		private final Query query;
+
+		private final double[] contributions;
+
+		private long scored;
+
+		private long abandoned;
+
+		private long evaluated;
+
+		private long skipped;
+
+		private BoundedScorer(Query query) {
+			this.query = query;
+			this.contributions = new double[features.length];
+		}
+
+		/**
+		 * @param aCase
+		 * @param cutoff
+		 *            Similarity in percent the case must reach, {@link Double#NEGATIVE_INFINITY} to score every
+		 *            feature
+		 * @return similarity in percent, or NaN when the case was abandoned below the cut-off
+		 */
+		public double similarity(ICase aCase, double cutoff) {
+			double maxScore = query.maxScore;
+			double limit = cutoff * maxScore / 100 - SLACK * maxScore;
+			double partial = 0;
+			for (int j = 0; j < byWeight.length; j++) {
+				if (partial + remaining[j] < limit) {
+					for (int rest = j; rest < byWeight.length; rest++) {
+						contributions[byWeight[rest]] = 0;
+					}
+					evaluated += j;
+					skipped += byWeight.length - j;
+					abandoned++;
+					return Double.NaN;
+				}
+				int i = byWeight[j];
+				IFeatureComparator comparator = comparators[i];
+				double contribution;
+				if (comparator == null) {
+					contribution = DefaultFeatureComparator.similar(query.numbers[i], extractors[i].getDouble(aCase),
+							ranges[i], reciprocals[i]) * weights[i];
+				} else if (query.codes[i] != SimilarityTable.UNTABULATED) {
+					contribution = tables[i].similar(query.codes[i], extractors[i].get(aCase)) * weights[i];
+				} else {
+					contribution = comparator.similar(query.values[i], extractors[i].get(aCase)) * weights[i];
+				}
+				contributions[i] = contribution;
+				partial += contribution;
+			}
+			evaluated += byWeight.length;
+			scored++;
+			// summed again in plan order, so the result does not depend on the evaluation order
+			double score = 0;
+			for (int i = 0; i < contributions.length; i++) {
+				score += contributions[i];
+			}
+			return score * 100 / maxScore;
+		}
+
+		/**
+		 * @return cases scored on every feature
+		 */
+		public long getScored() {
+			return scored;
+		}
+
+		/**
+		 * @return cases abandoned before every feature was evaluated
+		 */
+		public long getAbandoned() {
+			return abandoned;
+		}
+
+		/**
+		 * @return feature evaluations performed
+		 */
+		public long getEvaluated() {
+			return evaluated;
+		}
+
+		/**
+		 * @return feature evaluations saved by abandoning cases
+		 */
+		public long getSkipped() {
+			return skipped;
+		}
+
+	}
+
+	private static final class Key {
+
+		private final Class caseClass;
+
+		private final String[] attributes;
+
+		private final double[] weights;
+
+		private final double[] ranges;
+
+		private final int hash;
+
+		Key(Class caseClass, List<IFeature> selected) {
+			this.caseClass = caseClass;
+			this.attributes = new String[selected.size()];
+			this.weights = new double[selected.size()];
+			this.ranges = new double[selected.size()];
+			for (int i = 0; i < attributes.length; i++) {
+				IFeature feature = selected.get(i);
+				attributes[i] = feature.getAttribute();
+				weights[i] = feature.getWeight();
+				ranges[i] = feature.getRange();
+			}
+			this.hash = ((caseClass.hashCode() * 31 + Arrays.hashCode(attributes)) * 31 + Arrays.hashCode(weights))
+					* 31 + Arrays.hashCode(ranges);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return caseClass.equals(other.caseClass) && Arrays.equals(attributes, other.attributes)
+					&& Arrays.equals(weights, other.weights) && Arrays.equals(ranges, other.ranges);
+		}
+
+	}
+
+}
@@ -0,0 +1,175 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pairwise similarities of a comparator over the domain of a nominal feature. Every distinct value, null
+ * included, gets a code the first time it is seen and its similarities to and from every known value are
+ * computed then, so a comparator is called once per pair of values instead of once per pair of cases; a
+ * similarity is a dictionary lookup and an array read. Comparators are made table-driven with
+ * {@link FeatureComparator#table()}.
+ * <p>
+ * The table stops growing at {@link #MAX_DOMAIN} values, later values being compared by the comparator
+ * itself. Any number of threads may read while values are added.
+ *
+ * @author wanggang
+ *
+ */
+public class SimilarityTable implements IFeatureComparator {
+
+	/**
+	 * Largest domain tabulated, 8 MB of similarities
+	 */
+	public static final int MAX_DOMAIN = 1024;
+
+	/**
+	 * Code of a value beyond {@link #MAX_DOMAIN}
+	 */
+	public static final int UNTABULATED = -1;
+
+	/**
+	 * Stands for null in the code map
+	 */
+	private static final Object NULL = new Object();
+
+	private final IFeatureComparator comparator;
+
+	private final ConcurrentMap<Object, Integer> codes = new ConcurrentHashMap<Object, Integer>();
+
+	private volatile Table table = new Table(new Object[16], new double[16][16], 0);
+
+	public SimilarityTable(IFeatureComparator comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Tabulates a known domain up front
+	 *
+	 * @param comparator
+	 * @param domain
+	 *            Values of the feature
+	 */
+	public SimilarityTable(IFeatureComparator comparator, Collection<?> domain) {
+		this(comparator);
+		for (Object value : domain) {
+			encode(value);
+		}
+	}
+
+	/**
+	 * @param value
+	 *            Value, possibly null
+	 * @return code of the value, tabulated on first sight; {@link #UNTABULATED} when the domain is full
+	 */
+	public int encode(Object value) {
+		Integer code = codes.get(value == null ? NULL : value);
+		if (code != null) {
+			return code;
+		}
+		// a full table never grows again, so unseen values need not wait for the lock
+		return table.size == MAX_DOMAIN ? UNTABULATED : add(value);
+	}
+
+	private synchronized int add(Object value) {
+		Object key = value == null ? NULL : value;
+		Integer code = codes.get(key);
+		if (code != null) {
+			return code;
+		}
+		Table current = table;
+		int n = current.size;
+		if (n == MAX_DOMAIN) {
+			return UNTABULATED;
+		}
+		Object[] values = current.values;
+		double[][] similarities = current.similarities;
+		if (n == values.length) {
+			int capacity = Math.min(n * 2, MAX_DOMAIN);
+			values = Arrays.copyOf(values, capacity);
+			similarities = new double[capacity][];
+			for (int i = 0; i < capacity; i++) {
+				similarities[i] = i < n ? Arrays.copyOf(current.similarities[i], capacity) : new double[capacity];
+			}
+		}
+		values[n] = value;
+		for (int i = 0; i < n; i++) {
+			similarities[i][n] = comparator.similar(values[i], value);
+			similarities[n][i] = comparator.similar(value, values[i]);
+		}
+		similarities[n][n] = comparator.similar(value, value);
+		// published before the code, so a reader holding the code always finds its similarities
+		table = new Table(values, similarities, n + 1);
+		codes.put(key, n);
+		return n;
+	}
+
+	/**
+	 * @param code
+	 *            Code of the first value, not {@link #UNTABULATED}
+	 * @param value
+	 *            Second value
+	 * @return similarity of the two values
+	 */
+	public double similar(int code, Object value) {
+		int other = encode(value);
+		Table current = table;
+		if (other == UNTABULATED) {
+			return comparator.similar(current.values[code], value);
+		}
+		return current.similarities[code][other];
+	}
+
+	public double similar(Object object, Object object2) {
+		int code = encode(object);
+		if (code == UNTABULATED) {
+			return comparator.similar(object, object2);
+		}
+		return similar(code, object2);
+	}
+
+	public IFeature getFeature() {
+		return comparator.getFeature();
+	}
+
+	/**
+	 * @return comparator filling the table
+	 */
+	public IFeatureComparator getComparator() {
+		return comparator;
+	}
+
+	/**
+	 * @return values tabulated
+	 */
+	public int size() {
+		return table.size;
+	}
+
+	@Override
+	public String toString() {
+		return "SimilarityTable [" + comparator.getClass().getSimpleName() + ", " + table.size + " values]";
+	}
+
+	/**
+	 * Values and similarities of the first size codes; cells beyond size may be written by later additions
+	 */
+	private static final class Table {
+
+		private final Object[] values;
+
+		private final double[][] similarities;
+
+		private final int size;
+
+		private Table(Object[] values, double[][] similarities, int size) {
+			this.values = values;
+			this.similarities = similarities;
+			this.size = size;
+		}
+
+	}
+
+}
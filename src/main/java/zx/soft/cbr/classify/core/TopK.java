@@ -0,0 +1,217 @@
+package zx.soft.cbr.classify.core;
+
+import java.util.Arrays;
+
+/**
+ * Bounded min-heap of primitive (id, score) pairs keeping the k best scores. The root is the worst kept
+ * pair, so a candidate costs one comparison unless it beats it. Equal scores prefer the lower id, which
+ * keeps results deterministic. An optional reference can travel with each pair.
+ * <p>
+ * After {@link #sort()} the pairs are ordered from the best to the worst score.
+ *
+ * @author wanggang
+ *
+ */
+public class TopK {
+
+	private final int k;
+
+	private final int[] ids;
+
+	private final double[] scores;
+
+	private Object[] refs;
+
+	private int size;
+
+	private boolean sorted;
+
+	public TopK(int k) {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		this.k = k;
+		this.ids = new int[k];
+		this.scores = new double[k];
+	}
+
+	/**
+	 * @param id
+	 * @param score
+	 * @return true if the pair was kept
+	 */
+	public boolean offer(int id, double score) {
+		return offer(id, score, null);
+	}
+
+	/**
+	 * @param id
+	 * @param score
+	 * @param ref
+	 *            Object kept along with the pair
+	 * @return true if the pair was kept
+	 */
+	public boolean offer(int id, double score, Object ref) {
+		if (score != score) {
+			return false;
+		}
+		if (sorted) {
+			heapify();
+		}
+		if (ref != null && refs == null) {
+			refs = new Object[k];
+		}
+		if (size < k) {
+			set(size, id, score, ref);
+			siftUp(size++);
+			return true;
+		}
+		if (!isWorse(ids[0], scores[0], id, score)) {
+			return false;
+		}
+		set(0, id, score, ref);
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Adds every pair of another heap
+	 *
+	 * @param other
+	 */
+	public void merge(TopK other) {
+		for (int i = 0; i < other.size; i++) {
+			offer(other.ids[i], other.scores[i], other.refs == null ? null : other.refs[i]);
+		}
+	}
+
+	/**
+	 * @return lowest score a new pair has to beat, negative infinity while the heap is not full
+	 */
+	public double threshold() {
+		if (size < k) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return sorted ? scores[size - 1] : scores[0];
+	}
+
+	public boolean isFull() {
+		return size == k;
+	}
+
+	/**
+	 * Orders the pairs from the best to the worst score
+	 *
+	 * @return this heap
+	 */
+	public TopK sort() {
+		if (!sorted) {
+			// heap sort: repeatedly move the worst pair to the end
+			for (int end = size - 1; end > 0; end--) {
+				swap(0, end);
+				siftDown(0, end);
+			}
+			sorted = true;
+		}
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int id(int i) {
+		return ids[i];
+	}
+
+	public double score(int i) {
+		return scores[i];
+	}
+
+	public Object ref(int i) {
+		return refs == null ? null : refs[i];
+	}
+
+	public void clear() {
+		size = 0;
+		sorted = false;
+		if (refs != null) {
+			Arrays.fill(refs, null);
+		}
+	}
+
+	private void heapify() {
+		// a list sorted from best to worst is a max-heap, reverse it into a min-heap
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			swap(i, j);
+		}
+		sorted = false;
+	}
+
+	private static boolean isWorse(int id1, double score1, int id2, double score2) {
+		return score1 < score2 || (score1 == score2 && id1 > id2);
+	}
+
+	private boolean isWorse(int i, int j) {
+		return isWorse(ids[i], scores[i], ids[j], scores[j]);
+	}
+
+	private void set(int i, int id, double score, Object ref) {
+		ids[i] = id;
+		scores[i] = score;
+		if (refs != null) {
+			refs[i] = ref;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+		if (refs != null) {
+			Object ref = refs[i];
+			refs[i] = refs[j];
+			refs[j] = ref;
+		}
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!isWorse(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		siftDown(i, size);
+	}
+
+	private void siftDown(int i, int end) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= end) {
+				break;
+			}
+			if (child + 1 < end && isWorse(child + 1, child)) {
+				child++;
+			}
+			if (!isWorse(child, i)) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+}
@@ -0,0 +1,294 @@
+package zx.soft.cbr.classify.evaluation;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import zx.soft.cbr.classify.classifier.CbrClassifier;
+import zx.soft.cbr.classify.classifier.ReusePolicy;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.ISimilarityAlgorithm;
+
+/**
+ * Cross-validation of a {@link CbrClassifier}, the Java counterpart of the train and test flow of
+ * matlab/src/cbrClassifier.m.
+ * <p>
+ * Folds run concurrently, one task per fold. They share the case objects: the training set of a generated
+ * fold is a view skipping the held-out cases, not a copy, so the classifier's algorithm must only read the
+ * cases and be safe to call from several threads, as {@link zx.soft.cbr.classify.core.FeatureSimilarity} is.
+ *
+ * @author wanggang
+ *
+ */
+public class CrossValidation {
+
+	private final CbrClassifier classifier;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Classifies by the most popular class of the k most similar cases, running the folds on the common pool
+	 */
+	public CrossValidation(ISimilarityAlgorithm algorithm, Collection<IFeature> features, String classAttribute,
+			int k) {
+		this(algorithm, features, classAttribute, k, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Classifies by the most popular class of the k most similar cases
+	 *
+	 * @param algorithm
+	 * @param features
+	 *            Features to be compared, must not include the class attribute
+	 * @param classAttribute
+	 *            Attribute holding the class of a case
+	 * @param k
+	 *            Neighbours voting for the class of a test case
+	 * @param executor
+	 *            Executor running the folds
+	 */
+	public CrossValidation(ISimilarityAlgorithm algorithm, Collection<IFeature> features, String classAttribute,
+			int k, ExecutorService executor) {
+		this(new CbrClassifier(algorithm, features, classAttribute, k, ReusePolicy.MOST_POPULAR), executor);
+	}
+
+	/**
+	 * @param classifier
+	 * @param executor
+	 *            Executor running the folds
+	 */
+	public CrossValidation(CbrClassifier classifier, ExecutorService executor) {
+		this.classifier = classifier;
+		this.executor = executor;
+	}
+
+	/**
+	 * Splits the cases into stratified folds: the cases of each class are shuffled and dealt to the folds in
+	 * turn, so every fold keeps the class proportions
+	 *
+	 * @param cases
+	 * @param folds
+	 *            Number of folds, at least 2
+	 * @param seed
+	 *            Seed of the shuffle
+	 * @return report
+	 */
+	public CrossValidationReport run(List<? extends ICase> cases, int folds, long seed) {
+		if (folds < 2 || folds > cases.size()) {
+			throw new IllegalArgumentException("Cannot split " + cases.size() + " cases into " + folds + " folds");
+		}
+		List<ICase> shared = Collections.unmodifiableList(new ArrayList<ICase>(cases));
+		Object[] labels = new Object[shared.size()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = classifier.getLabel(shared.get(i));
+		}
+		int[] foldOf = stratify(labels, folds, seed);
+		List<Set<ICase>> trainSets = new ArrayList<Set<ICase>>(folds);
+		List<List<ICase>> testSets = new ArrayList<List<ICase>>(folds);
+		for (int fold = 0; fold < folds; fold++) {
+			trainSets.add(new FoldSet(shared, foldOf, fold));
+			testSets.add(new ArrayList<ICase>());
+		}
+		for (int i = 0; i < shared.size(); i++) {
+			testSets.get(foldOf[i]).add(shared.get(i));
+		}
+		return run(trainSets, testSets);
+	}
+
+	/**
+	 * Deals the rows of each class, shuffled, to the folds in turn
+	 *
+	 * @param labels
+	 *            Class of each row
+	 * @return fold of each row
+	 */
+	static int[] stratify(Object[] labels, int folds, long seed) {
+		Map<Object, List<Integer>> byClass = new LinkedHashMap<Object, List<Integer>>();
+		for (int i = 0; i < labels.length; i++) {
+			List<Integer> rows = byClass.get(labels[i]);
+			if (rows == null) {
+				rows = new ArrayList<Integer>();
+				byClass.put(labels[i], rows);
+			}
+			rows.add(i);
+		}
+		int[] foldOf = new int[labels.length];
+		Random random = new Random(seed);
+		int next = 0;
+		for (List<Integer> rows : byClass.values()) {
+			Collections.shuffle(rows, random);
+			for (int row : rows) {
+				foldOf[row] = next;
+				next = (next + 1) % folds;
+			}
+		}
+		return foldOf;
+	}
+
+	/**
+	 * Runs predefined folds, e.g. the splits of matlab/ten_fold
+	 *
+	 * @param trainSets
+	 *            Case base of each fold
+	 * @param testSets
+	 *            Test cases of each fold
+	 * @return report
+	 */
+	public CrossValidationReport run(List<? extends Set<ICase>> trainSets,
+			List<? extends List<? extends ICase>> testSets) {
+		if (trainSets.size() != testSets.size()) {
+			throw new IllegalArgumentException(trainSets.size() + " training sets for " + testSets.size()
+					+ " test sets");
+		}
+		long start = System.nanoTime();
+		List<Future<FoldReport>> futures = new ArrayList<Future<FoldReport>>(trainSets.size());
+		for (int fold = 0; fold < trainSets.size(); fold++) {
+			final int index = fold;
+			final Set<ICase> train = trainSets.get(fold);
+			final List<? extends ICase> test = testSets.get(fold);
+			futures.add(executor.submit(new Callable<FoldReport>() {
+
+				public FoldReport call() {
+					return evaluate(index, train, test);
+				}
+
+			}));
+		}
+		return collect(futures, start);
+	}
+
+	/**
+	 * Waits for the folds, cancelling the others when one fails
+	 *
+	 * @param start
+	 *            {@link System#nanoTime()} when the folds were submitted
+	 */
+	static CrossValidationReport collect(List<Future<FoldReport>> futures, long start) {
+		List<FoldReport> reports = new ArrayList<FoldReport>(futures.size());
+		try {
+			for (Future<FoldReport> future : futures) {
+				reports.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			for (Future<FoldReport> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Cross-validation interrupted", e);
+		} catch (ExecutionException e) {
+			for (Future<FoldReport> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return new CrossValidationReport(reports, System.nanoTime() - start);
+	}
+
+	/**
+	 * Classifies the test cases of one fold, timing each query
+	 */
+	FoldReport evaluate(int fold, Set<ICase> train, List<? extends ICase> test) {
+		long[] latencies = new long[test.size()];
+		int correct = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < latencies.length; i++) {
+			ICase query = test.get(i);
+			long begin = System.nanoTime();
+			Object predicted = classifier.classify(query, train);
+			latencies[i] = System.nanoTime() - begin;
+			Object actual = classifier.getLabel(query);
+			if (actual == null ? predicted == null : actual.equals(predicted)) {
+				correct++;
+			}
+		}
+		return new FoldReport(fold, train.size(), correct, System.nanoTime() - start, latencies);
+	}
+
+	public CbrClassifier getClassifier() {
+		return classifier;
+	}
+
+	/**
+	 * Read-only view of the shared cases outside one fold
+	 */
+	private static class FoldSet extends AbstractSet<ICase> {
+
+		private final List<ICase> cases;
+
+		private final int[] foldOf;
+
+		private final int fold;
+
+		private final int size;
+
+		FoldSet(List<ICase> cases, int[] foldOf, int fold) {
+			this.cases = cases;
+			this.foldOf = foldOf;
+			this.fold = fold;
+			int excluded = 0;
+			for (int f : foldOf) {
+				if (f == fold) {
+					excluded++;
+				}
+			}
+			this.size = cases.size() - excluded;
+		}
+
+		@Override
+		public Iterator<ICase> iterator() {
+			return new Iterator<ICase>() {
+
+				private int next = advance(0);
+
+				private int advance(int from) {
+					while (from < foldOf.length && foldOf[from] == fold) {
+						from++;
+					}
+					return from;
+				}
+
+				public boolean hasNext() {
+					return next < foldOf.length;
+				}
+
+				public ICase next() {
+					if (next >= foldOf.length) {
+						throw new NoSuchElementException();
+					}
+					ICase result = cases.get(next);
+					next = advance(next + 1);
+					return result;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+			};
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+	}
+
+}
@@ -0,0 +1,132 @@
+package zx.soft.cbr.classify.evaluation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-fold reports of a {@link CrossValidation} and their totals. The accuracy is pooled over all the test
+ * cases, as in matlab/src/cbrClassifier.m; the throughput is measured on the wall clock, so it includes the
+ * speedup of running folds concurrently.
+ *
+ * @author wanggang
+ *
+ */
+public class CrossValidationReport {
+
+	private final List<FoldReport> folds;
+
+	private final long wallNanos;
+
+	private final long[] latencies;
+
+	CrossValidationReport(List<FoldReport> folds, long wallNanos) {
+		this.folds = Collections.unmodifiableList(folds);
+		this.wallNanos = wallNanos;
+		int total = 0;
+		for (FoldReport fold : folds) {
+			total += fold.getTestSize();
+		}
+		latencies = new long[total];
+		int offset = 0;
+		for (FoldReport fold : folds) {
+			System.arraycopy(fold.getLatencies(), 0, latencies, offset, fold.getTestSize());
+			offset += fold.getTestSize();
+		}
+		Arrays.sort(latencies);
+	}
+
+	public List<FoldReport> getFolds() {
+		return folds;
+	}
+
+	public int getQueries() {
+		return latencies.length;
+	}
+
+	/**
+	 * @return fraction of all the test cases classified correctly
+	 */
+	public double getAccuracy() {
+		if (latencies.length == 0) {
+			return 0;
+		}
+		int correct = 0;
+		for (FoldReport fold : folds) {
+			correct += fold.getCorrect();
+		}
+		return (double) correct / latencies.length;
+	}
+
+	/**
+	 * @return mean of the fold accuracies
+	 */
+	public double getMeanAccuracy() {
+		double total = 0;
+		for (FoldReport fold : folds) {
+			total += fold.getAccuracy();
+		}
+		return folds.isEmpty() ? 0 : total / folds.size();
+	}
+
+	/**
+	 * @return sample standard deviation of the fold accuracies
+	 */
+	public double getAccuracyDeviation() {
+		if (folds.size() < 2) {
+			return 0;
+		}
+		double mean = getMeanAccuracy();
+		double total = 0;
+		for (FoldReport fold : folds) {
+			total += (fold.getAccuracy() - mean) * (fold.getAccuracy() - mean);
+		}
+		return Math.sqrt(total / (folds.size() - 1));
+	}
+
+	/**
+	 * @return time from the start of the first fold to the end of the last one, in nanoseconds
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	public double getQueriesPerSecond() {
+		return wallNanos == 0 ? 0 : latencies.length * 1e9 / wallNanos;
+	}
+
+	/**
+	 * @param percentile
+	 *            Between 0 and 100
+	 * @return latency over the queries of all the folds, in milliseconds
+	 */
+	public double getLatencyMillis(double percentile) {
+		return FoldReport.percentile(latencies, percentile);
+	}
+
+	/**
+	 * @return one line per fold followed by the totals
+	 */
+	public String format() {
+		StringBuilder builder = new StringBuilder(String.format("%6s %8s %8s %9s %12s %9s %9s %9s %9s%n", "fold",
+				"train", "test", "accuracy", "queries/s", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+		for (FoldReport fold : folds) {
+			builder.append(String.format("%6d %8d %8d %9.4f %12.1f %9.3f %9.3f %9.3f %9.3f%n", fold.getFold(),
+					fold.getTrainSize(), fold.getTestSize(), fold.getAccuracy(), fold.getQueriesPerSecond(),
+					fold.getLatencyMillis(50), fold.getLatencyMillis(90), fold.getLatencyMillis(99),
+					fold.getLatencyMillis(100)));
+		}
+		builder.append(String.format("%6s %8s %8d %9.4f %12.1f %9.3f %9.3f %9.3f %9.3f%n", "all", "",
+				latencies.length, getAccuracy(), getQueriesPerSecond(), getLatencyMillis(50), getLatencyMillis(90),
+				getLatencyMillis(99), getLatencyMillis(100)));
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "CrossValidationReport [folds=" + folds.size() + ", queries=" + latencies.length + ", accuracy="
+				+ getAccuracy() + ", queriesPerSecond=" + getQueriesPerSecond() + ", p50=" + getLatencyMillis(50)
+				+ ", p99=" + getLatencyMillis(99) + "]";
+	}
+
+}
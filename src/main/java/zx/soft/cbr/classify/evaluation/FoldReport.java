@@ -0,0 +1,123 @@
+package zx.soft.cbr.classify.evaluation;
+
+import java.util.Arrays;
+
+/**
+ * Accuracy, throughput and latency of one fold of a {@link CrossValidation}
+ *
+ * @author wanggang
+ *
+ */
+public class FoldReport {
+
+	private final int fold;
+
+	private final int trainSize;
+
+	private final int correct;
+
+	private final long elapsedNanos;
+
+	private final long[] latencies;
+
+	/**
+	 * @param latencies
+	 *            Latency of every query in nanoseconds, sorted in place
+	 */
+	FoldReport(int fold, int trainSize, int correct, long elapsedNanos, long[] latencies) {
+		Arrays.sort(latencies);
+		this.fold = fold;
+		this.trainSize = trainSize;
+		this.correct = correct;
+		this.elapsedNanos = elapsedNanos;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * Nearest-rank percentile of sorted latencies
+	 *
+	 * @param sorted
+	 * @param percentile
+	 *            Between 0 and 100
+	 * @return latency in milliseconds, 0 without queries
+	 */
+	static double percentile(long[] sorted, double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+		}
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.max(rank - 1, 0)] / 1e6;
+	}
+
+	public int getFold() {
+		return fold;
+	}
+
+	public int getTrainSize() {
+		return trainSize;
+	}
+
+	public int getTestSize() {
+		return latencies.length;
+	}
+
+	public int getCorrect() {
+		return correct;
+	}
+
+	/**
+	 * @return fraction of the test cases classified correctly, between 0 and 1
+	 */
+	public double getAccuracy() {
+		return latencies.length == 0 ? 0 : (double) correct / latencies.length;
+	}
+
+	/**
+	 * @return time the fold took from its first to its last query, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public double getQueriesPerSecond() {
+		return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * @param percentile
+	 *            Between 0 and 100
+	 * @return query latency in milliseconds
+	 */
+	public double getLatencyMillis(double percentile) {
+		return percentile(latencies, percentile);
+	}
+
+	public double getMeanLatencyMillis() {
+		if (latencies.length == 0) {
+			return 0;
+		}
+		long total = 0;
+		for (long latency : latencies) {
+			total += latency;
+		}
+		return total / 1e6 / latencies.length;
+	}
+
+	/**
+	 * @return sorted query latencies in nanoseconds, not to be modified
+	 */
+	long[] getLatencies() {
+		return latencies;
+	}
+
+	@Override
+	public String toString() {
+		return "FoldReport [fold=" + fold + ", train=" + trainSize + ", test=" + latencies.length + ", accuracy="
+				+ getAccuracy() + ", queriesPerSecond=" + getQueriesPerSecond() + ", p50=" + getLatencyMillis(50)
+				+ ", p99=" + getLatencyMillis(99) + "]";
+	}
+
+}
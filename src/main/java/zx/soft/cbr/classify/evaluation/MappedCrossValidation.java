@@ -0,0 +1,114 @@
+package zx.soft.cbr.classify.evaluation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import zx.soft.cbr.classify.classifier.MappedCaseBaseClassifier;
+import zx.soft.cbr.classify.classifier.ReusePolicy;
+import zx.soft.cbr.classify.matrix.MappedCaseBase;
+
+/**
+ * {@link CrossValidation} of a {@link MappedCaseBaseClassifier} over the rows of its labelled case base. The
+ * rows are split into the same stratified folds as cases would be; a fold classifies its held-out rows against
+ * the whole case base, the scans skipping the held-out rows, so no fold copies any row.
+ * <p>
+ * Folds run concurrently, one task per fold, on the read-only mapped columns.
+ *
+ * @author wanggang
+ *
+ */
+public class MappedCrossValidation {
+
+	private final MappedCaseBaseClassifier classifier;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Classifies by the most popular class of the k most similar rows, running the folds on the common pool
+	 */
+	public MappedCrossValidation(MappedCaseBase caseBase, int k) {
+		this(new MappedCaseBaseClassifier(caseBase, k, ReusePolicy.MOST_POPULAR), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param classifier
+	 * @param executor
+	 *            Executor running the folds
+	 */
+	public MappedCrossValidation(MappedCaseBaseClassifier classifier, ExecutorService executor) {
+		this.classifier = classifier;
+		this.executor = executor;
+	}
+
+	/**
+	 * Splits the rows into stratified folds: the rows of each class are shuffled and dealt to the folds in turn
+	 *
+	 * @param folds
+	 *            Number of folds, at least 2
+	 * @param seed
+	 *            Seed of the shuffle
+	 * @return report
+	 */
+	public CrossValidationReport run(int folds, long seed) {
+		MappedCaseBase caseBase = classifier.getCaseBase();
+		if (folds < 2 || folds > caseBase.size()) {
+			throw new IllegalArgumentException("Cannot split " + caseBase.size() + " rows into " + folds + " folds");
+		}
+		Object[] labels = new Object[caseBase.size()];
+		for (int row = 0; row < labels.length; row++) {
+			labels[row] = caseBase.getClassLabel(row);
+		}
+		int[] foldOf = CrossValidation.stratify(labels, folds, seed);
+		long start = System.nanoTime();
+		List<Future<FoldReport>> futures = new ArrayList<Future<FoldReport>>(folds);
+		for (int fold = 0; fold < folds; fold++) {
+			final int index = fold;
+			final BitSet test = new BitSet(foldOf.length);
+			for (int row = 0; row < foldOf.length; row++) {
+				if (foldOf[row] == fold) {
+					test.set(row);
+				}
+			}
+			futures.add(executor.submit(new Callable<FoldReport>() {
+
+				public FoldReport call() {
+					return evaluate(index, test);
+				}
+
+			}));
+		}
+		return CrossValidation.collect(futures, start);
+	}
+
+	/**
+	 * Classifies the held-out rows of one fold against the other rows, timing each query
+	 */
+	FoldReport evaluate(int fold, BitSet test) {
+		MappedCaseBase caseBase = classifier.getCaseBase();
+		long[] latencies = new long[test.cardinality()];
+		int correct = 0;
+		long start = System.nanoTime();
+		int i = 0;
+		for (int row = test.nextSetBit(0); row >= 0; row = test.nextSetBit(row + 1)) {
+			long begin = System.nanoTime();
+			Object predicted = classifier.classify(caseBase.query(row), test);
+			latencies[i++] = System.nanoTime() - begin;
+			Object actual = caseBase.getClassLabel(row);
+			if (actual == null ? predicted == null : actual.equals(predicted)) {
+				correct++;
+			}
+		}
+		return new FoldReport(fold, caseBase.size() - latencies.length, correct, System.nanoTime() - start,
+				latencies);
+	}
+
+	public MappedCaseBaseClassifier getClassifier() {
+		return classifier;
+	}
+
+}
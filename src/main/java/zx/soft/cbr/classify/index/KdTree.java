@@ -0,0 +1,344 @@
+package zx.soft.cbr.classify.index;
+
+import java.util.Arrays;
+import java.util.List;
+
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.ScoredIds;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+
+/**
+ * KD-tree over the numeric columns of a {@link CaseMatrix}, answering exact k-NN and radius queries under the
+ * matrix's own weighted similarity. Every node keeps the bounding box of its rows, and the similarity of a
+ * query to the nearest point of a box bounds the similarity of every row inside it, so whole subtrees are
+ * skipped once they cannot reach the threshold or beat the current k-th result. A feature of negative weight
+ * is bounded by the farthest point of the box instead, since the least similar row scores highest on it.
+ * Nominal features are bounded by their weight, or 0 when it is negative, and scored exactly in the leaves,
+ * so results (ties included) are the same as a full scan of the matrix.
+ *
+ * @author wanggang
+ *
+ */
+public class KdTree {
+
+	public static final int DEFAULT_LEAF_SIZE = 32;
+
+	private final CaseMatrix matrix;
+
+	private final int leafSize;
+
+	private final int dims;
+
+	private final double[] ranges;
+
+	private final double[] reciprocals;
+
+	private final double[] weights;
+
+	private final double[] nominalWeights;
+
+	/**
+	 * Rows ordered so each node covers the range [start, end)
+	 */
+	private final int[] rows;
+
+	private int[] starts;
+
+	private int[] ends;
+
+	/**
+	 * Index of the left child, -1 for leaves, the right child follows the left subtree
+	 */
+	private int[] lefts;
+
+	private int[] rights;
+
+	/**
+	 * mins[node * dims + f], NaN values are ignored, +infinity when the node has no value for f
+	 */
+	private double[] mins;
+
+	private double[] maxs;
+
+	/**
+	 * missing[node * dims + f]: some row of the node has no value for f
+	 */
+	private boolean[] missing;
+
+	private int nodes;
+
+	public KdTree(CaseMatrix matrix) {
+		this(matrix, DEFAULT_LEAF_SIZE);
+	}
+
+	public KdTree(CaseMatrix matrix, int leafSize) {
+		this.matrix = matrix;
+		this.leafSize = Math.max(leafSize, 1);
+		this.dims = matrix.getNumericCount();
+		this.ranges = new double[dims];
+		this.reciprocals = new double[dims];
+		this.weights = new double[dims];
+		for (int f = 0; f < dims; f++) {
+			ranges[f] = matrix.getNumericFeature(f).getRange();
+			reciprocals[f] = DefaultFeatureComparator.reciprocal(ranges[f]);
+			weights[f] = matrix.getNumericFeature(f).getWeight();
+		}
+		this.nominalWeights = new double[matrix.getNominalCount()];
+		for (int f = 0; f < nominalWeights.length; f++) {
+			nominalWeights[f] = matrix.getNominalFeature(f).getWeight();
+		}
+		this.rows = new int[matrix.size()];
+		for (int row = 0; row < rows.length; row++) {
+			rows[row] = row;
+		}
+		int capacity = 2 * (rows.length / this.leafSize + 1);
+		this.starts = new int[capacity];
+		this.ends = new int[capacity];
+		this.lefts = new int[capacity];
+		this.rights = new int[capacity];
+		this.mins = new double[capacity * dims];
+		this.maxs = new double[capacity * dims];
+		this.missing = new boolean[capacity * dims];
+		build(0, rows.length);
+	}
+
+	private int build(int start, int end) {
+		int node = newNode(start, end);
+		int split = -1;
+		double widest = 0;
+		for (int f = 0; f < dims; f++) {
+			double spread = maxs[node * dims + f] - mins[node * dims + f];
+			if (ranges[f] > 0) {
+				spread /= ranges[f];
+			}
+			if (spread > widest) {
+				widest = spread;
+				split = f;
+			}
+		}
+		if (end - start > leafSize && split >= 0) {
+			int middle = (start + end) >>> 1;
+			select(matrix.getNumericColumn(split), start, end, middle);
+			// children first: building them may grow the node arrays
+			int left = build(start, middle);
+			int right = build(middle, end);
+			lefts[node] = left;
+			rights[node] = right;
+		}
+		return node;
+	}
+
+	private int newNode(int start, int end) {
+		if (nodes == starts.length) {
+			int capacity = nodes * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			lefts = Arrays.copyOf(lefts, capacity);
+			rights = Arrays.copyOf(rights, capacity);
+			mins = Arrays.copyOf(mins, capacity * dims);
+			maxs = Arrays.copyOf(maxs, capacity * dims);
+			missing = Arrays.copyOf(missing, capacity * dims);
+		}
+		int node = nodes++;
+		starts[node] = start;
+		ends[node] = end;
+		lefts[node] = -1;
+		rights[node] = -1;
+		for (int f = 0; f < dims; f++) {
+			double[] column = matrix.getNumericColumn(f);
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			boolean gap = false;
+			for (int i = start; i < end; i++) {
+				double value = column[rows[i]];
+				if (value < min) {
+					min = value;
+				}
+				if (value > max) {
+					max = value;
+				}
+				gap |= value != value;
+			}
+			mins[node * dims + f] = min;
+			maxs[node * dims + f] = max;
+			missing[node * dims + f] = gap;
+		}
+		return node;
+	}
+
+	/**
+	 * Partial quickselect: moves the row of rank nth by column value (NaN last) to position nth, with smaller
+	 * values before it and larger after
+	 */
+	private void select(double[] column, int lo, int hi, int nth) {
+		while (hi - lo > 1) {
+			double pivot = column[rows[(lo + hi) >>> 1]];
+			int lt = lo;
+			int i = lo;
+			int gt = hi - 1;
+			while (i <= gt) {
+				int c = Double.compare(column[rows[i]], pivot);
+				if (c < 0) {
+					swap(lt++, i++);
+				} else if (c > 0) {
+					swap(i, gt--);
+				} else {
+					i++;
+				}
+			}
+			if (nth < lt) {
+				hi = lt;
+			} else if (nth > gt) {
+				lo = gt + 1;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		int row = rows[i];
+		rows[i] = rows[j];
+		rows[j] = row;
+	}
+
+	/**
+	 * Upper bound of the weighted score of any row of the node, summed in the same order as
+	 * {@link CaseMatrix#score(CaseMatrix.Query, int)} so it can never fall below an actual score
+	 */
+	private double bound(int node, CaseMatrix.Query query) {
+		double bound = 0;
+		int base = node * dims;
+		for (int f = 0; f < dims; f++) {
+			double q = query.getNumber(f);
+			double min = mins[base + f];
+			double max = maxs[base + f];
+			if (q != q || min > max) {
+				continue;
+			}
+			if (weights[f] >= 0) {
+				double nearest = q < min ? min : (q > max ? max : q);
+				bound += DefaultFeatureComparator.similar(q, nearest, ranges[f], reciprocals[f]) * weights[f];
+			} else if (!missing[base + f]) {
+				// a missing value scores 0, the best a negative weight can give
+				double farthest = q - min > max - q ? min : max;
+				bound += DefaultFeatureComparator.similar(q, farthest, ranges[f], reciprocals[f]) * weights[f];
+			}
+		}
+		for (int f = 0; f < nominalWeights.length; f++) {
+			if (query.getCode(f) >= 0) {
+				bound += Math.max(nominalWeights[f], 0);
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * Exact k most similar rows
+	 *
+	 * @param query
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return heap of (row, similarity) pairs, sorted from the most to the least similar
+	 */
+	public TopK topK(CaseMatrix.Query query, int k, double threshold) {
+		TopK heap = new TopK(k);
+		if (nodes > 0 && rows.length > 0) {
+			double scale = 100 / query.getMaxScore();
+			search(0, limit(0, query, scale), query, scale, threshold, heap);
+		}
+		return heap.sort();
+	}
+
+	private void search(int node, double bound, CaseMatrix.Query query, double scale, double threshold, TopK heap) {
+		if (bound < threshold || bound < heap.threshold()) {
+			return;
+		}
+		if (lefts[node] < 0) {
+			for (int i = starts[node]; i < ends[node]; i++) {
+				double similarity = matrix.score(query, rows[i]) * scale;
+				if (similarity >= threshold) {
+					heap.offer(rows[i], similarity);
+				}
+			}
+			return;
+		}
+		int left = lefts[node];
+		int right = rights[node];
+		double leftBound = limit(left, query, scale);
+		double rightBound = limit(right, query, scale);
+		if (leftBound >= rightBound) {
+			search(left, leftBound, query, scale, threshold, heap);
+			search(right, rightBound, query, scale, threshold, heap);
+		} else {
+			search(right, rightBound, query, scale, threshold, heap);
+			search(left, leftBound, query, scale, threshold, heap);
+		}
+	}
+
+	/**
+	 * @return highest similarity in percent of the rows of the node; no limit when the weights sum to 0 or less,
+	 *         the score of a row then growing as its similarity falls
+	 */
+	private double limit(int node, CaseMatrix.Query query, double scale) {
+		return scale > 0 ? bound(node, query) * scale : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Exact radius query: every row whose similarity reaches the threshold
+	 *
+	 * @param query
+	 * @param threshold
+	 *            Minimum similarity, in percent
+	 * @return (row, similarity) pairs sorted from the most to the least similar
+	 */
+	public ScoredIds range(CaseMatrix.Query query, double threshold) {
+		ScoredIds result = new ScoredIds();
+		if (nodes > 0 && rows.length > 0) {
+			double scale = 100 / query.getMaxScore();
+			range(0, query, scale, threshold, result);
+		}
+		return result.sort();
+	}
+
+	private void range(int node, CaseMatrix.Query query, double scale, double threshold, ScoredIds result) {
+		if (limit(node, query, scale) < threshold) {
+			return;
+		}
+		if (lefts[node] < 0) {
+			for (int i = starts[node]; i < ends[node]; i++) {
+				double similarity = matrix.score(query, rows[i]) * scale;
+				if (similarity >= threshold) {
+					result.add(rows[i], similarity);
+				}
+			}
+			return;
+		}
+		range(lefts[node], query, scale, threshold, result);
+		range(rights[node], query, scale, threshold, result);
+	}
+
+	/**
+	 * @param theCase
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return results ordered from the most to the least similar
+	 */
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, int k, double threshold) {
+		return matrix.toList(theCase, topK(matrix.query(theCase), k, threshold));
+	}
+
+	public CaseMatrix getMatrix() {
+		return matrix;
+	}
+
+	public int getNodeCount() {
+		return nodes;
+	}
+
+}
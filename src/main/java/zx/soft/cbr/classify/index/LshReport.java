@@ -0,0 +1,200 @@
+package zx.soft.cbr.classify.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import zx.soft.cbr.classify.core.FeatureSimilarity;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.LiveCaseBase;
+
+/**
+ * Recall and latency of an {@link LshSimilarity} against the exact {@link FeatureSimilarity} on the same
+ * queries. Recall is the fraction of the exact k nearest cases the approximate retrieval also returns. The
+ * case base is queried through a {@link LiveCaseBase} snapshot, so it is indexed once.
+ *
+ * @author wanggang
+ *
+ */
+public class LshReport {
+
+	private final String configuration;
+
+	private final int queries;
+
+	private final int k;
+
+	private final double recall;
+
+	private final double exactMillis;
+
+	private final double approximateMillis;
+
+	private final double candidateRatio;
+
+	private final double buildMillis;
+
+	private LshReport(String configuration, int queries, int k, double recall, double exactMillis,
+			double approximateMillis, double candidateRatio, double buildMillis) {
+		this.configuration = configuration;
+		this.queries = queries;
+		this.k = k;
+		this.recall = recall;
+		this.exactMillis = exactMillis;
+		this.approximateMillis = approximateMillis;
+		this.candidateRatio = candidateRatio;
+		this.buildMillis = buildMillis;
+	}
+
+	/**
+	 * Runs every query through both algorithms
+	 *
+	 * @param lsh
+	 * @param caseBase
+	 *            Case base
+	 * @param queries
+	 * @param k
+	 * @param features
+	 *            Features to be compared
+	 * @return report
+	 */
+	public static LshReport measure(LshSimilarity lsh, Set<ICase> caseBase, Collection<? extends ICase> queries,
+			int k, Collection<IFeature> features) {
+		if (queries.isEmpty()) {
+			throw new IllegalArgumentException("No queries to measure");
+		}
+		Set<ICase> cases = new LiveCaseBase(caseBase).snapshot();
+		FeatureSimilarity exact = new FeatureSimilarity();
+		ICase first = queries.iterator().next();
+		lsh.invalidate();
+		long start = System.nanoTime();
+		lsh.getCandidateCount(first, cases, features);
+		long build = System.nanoTime() - start;
+		long exactNanos = 0;
+		long approximateNanos = 0;
+		long found = 0;
+		long expected = 0;
+		long candidates = 0;
+		for (ICase query : queries) {
+			start = System.nanoTime();
+			List<ICaseSimilarity> reference = exact.getMostSimilar(query, cases, k, Double.NEGATIVE_INFINITY,
+					features);
+			exactNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			List<ICaseSimilarity> approximate = lsh.getMostSimilar(query, cases, k, Double.NEGATIVE_INFINITY,
+					features);
+			approximateNanos += System.nanoTime() - start;
+			Set<ICase> returned = Collections.newSetFromMap(new IdentityHashMap<ICase, Boolean>());
+			for (ICaseSimilarity result : approximate) {
+				returned.add(result.getSimilarCase());
+			}
+			for (ICaseSimilarity result : reference) {
+				if (returned.contains(result.getSimilarCase())) {
+					found++;
+				}
+			}
+			expected += reference.size();
+			candidates += lsh.getCandidateCount(query, cases, features);
+		}
+		int count = queries.size();
+		return new LshReport(lsh.toString(), count, k, expected == 0 ? 1 : (double) found / expected,
+				exactNanos / 1e6 / count, approximateNanos / 1e6 / count, (double) candidates / count / cases.size(),
+				build / 1e6);
+	}
+
+	/**
+	 * Measures one {@link LshSimilarity} per (tables, hashes per table) pair, all with the same width and seed
+	 *
+	 * @return reports in the order of the parameters
+	 */
+	public static List<LshReport> sweep(int[] tables, int[] hashesPerTable, double width, Set<ICase> cases,
+			Collection<? extends ICase> queries, int k, Collection<IFeature> features) {
+		List<LshReport> reports = new ArrayList<LshReport>();
+		for (int t : tables) {
+			for (int h : hashesPerTable) {
+				reports.add(measure(new LshSimilarity(t, h, width, 42), cases, queries, k, features));
+			}
+		}
+		return reports;
+	}
+
+	/**
+	 * @return one line per report, preceded by a header
+	 */
+	public static String format(List<LshReport> reports) {
+		StringBuilder builder = new StringBuilder(
+				String.format("%-60s %8s %10s %10s %8s %10s%n", "configuration", "recall", "exact ms", "lsh ms",
+						"speedup", "scanned"));
+		for (LshReport report : reports) {
+			builder.append(String.format("%-60s %8.3f %10.3f %10.3f %8.1f %9.1f%%%n", report.configuration,
+					report.recall, report.exactMillis, report.approximateMillis, report.getSpeedup(),
+					report.candidateRatio * 100));
+		}
+		return builder.toString();
+	}
+
+	public String getConfiguration() {
+		return configuration;
+	}
+
+	public int getQueries() {
+		return queries;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return fraction of the exact k nearest cases found, between 0 and 1
+	 */
+	public double getRecall() {
+		return recall;
+	}
+
+	/**
+	 * @return mean latency of the exact retrieval, in milliseconds
+	 */
+	public double getExactMillis() {
+		return exactMillis;
+	}
+
+	/**
+	 * @return mean latency of the approximate retrieval, in milliseconds
+	 */
+	public double getApproximateMillis() {
+		return approximateMillis;
+	}
+
+	public double getSpeedup() {
+		return exactMillis / approximateMillis;
+	}
+
+	/**
+	 * @return mean fraction of the case base scored per query
+	 */
+	public double getCandidateRatio() {
+		return candidateRatio;
+	}
+
+	/**
+	 * @return time to build the index, in milliseconds
+	 */
+	public double getBuildMillis() {
+		return buildMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "LshReport [" + configuration + ", k=" + k + ", queries=" + queries + ", recall=" + recall
+				+ ", exactMillis=" + exactMillis + ", approximateMillis=" + approximateMillis + ", candidateRatio="
+				+ candidateRatio + ", buildMillis=" + buildMillis + "]";
+	}
+
+}
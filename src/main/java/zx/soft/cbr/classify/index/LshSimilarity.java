@@ -0,0 +1,571 @@
+package zx.soft.cbr.classify.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import zx.soft.cbr.classify.core.CaseSimilarityImpl;
+import zx.soft.cbr.classify.core.FeatureSimilarity;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseBaseListener;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.IRetrievalListener;
+import zx.soft.cbr.classify.core.LiveCaseBase;
+import zx.soft.cbr.classify.core.RetrievalPhase;
+import zx.soft.cbr.classify.core.RetrievalTrace;
+import zx.soft.cbr.classify.core.ScoringPlan;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+import zx.soft.cbr.classify.matrix.LiveCaseMatrix;
+
+/**
+ * Approximate {@link FeatureSimilarity} through locality-sensitive hashing. The case base is indexed in
+ * {@link #getTables()} hash tables, each keyed by {@link #getHashesPerTable()} hashes of a case: random
+ * projections of the numeric features, scaled by their ranges and cut in buckets of {@link #getWidth()}, and
+ * MinHash signatures of the set of (feature, value) pairs of the nominal features. Only the cases sharing a
+ * bucket with the query in at least one table are scored, exactly, so similarities are right but some
+ * neighbours can be missed. More tables raise recall, more hashes per table make buckets smaller and faster.
+ * {@link LshReport} measures the trade-off against the exact algorithm.
+ * <p>
+ * Only the index of a {@link LiveCaseBase.Snapshot} is kept across retrievals with equal features: it follows
+ * its case base as a listener, hashing cases as they are added, and answers any snapshot of that case base.
+ * Any other set may change in place between retrievals, so it is indexed for one retrieval only; wrap a case
+ * base queried repeatedly in a {@link LiveCaseBase} to index it once.
+ *
+ * @author wanggang
+ *
+ */
+public class LshSimilarity extends FeatureSimilarity {
+
+	public static final int DEFAULT_TABLES = 16;
+
+	public static final int DEFAULT_HASHES_PER_TABLE = 2;
+
+	public static final double DEFAULT_WIDTH = 1.0;
+
+	private final int tables;
+
+	private final int hashesPerTable;
+
+	private final double width;
+
+	private final long seed;
+
+	private volatile Index index;
+
+	public LshSimilarity() {
+		this(DEFAULT_TABLES, DEFAULT_HASHES_PER_TABLE, DEFAULT_WIDTH, 42);
+	}
+
+	/**
+	 * @param tables
+	 *            Hash tables, a case is a candidate when it collides with the query in any of them
+	 * @param hashesPerTable
+	 *            Hashes combined in the key of each table, a case collides only when all of them agree
+	 * @param width
+	 *            Bucket width of the numeric projections, in feature ranges
+	 * @param seed
+	 *            Seed of the random projections and MinHash functions
+	 */
+	public LshSimilarity(int tables, int hashesPerTable, double width, long seed) {
+		if (tables < 1 || hashesPerTable < 1 || !(width > 0)) {
+			throw new IllegalArgumentException("Invalid LSH parameters: tables=" + tables + ", hashesPerTable="
+					+ hashesPerTable + ", width=" + width);
+		}
+		this.tables = tables;
+		this.hashesPerTable = hashesPerTable;
+		this.width = width;
+		this.seed = seed;
+	}
+
+	@Override
+	public Set<ICaseSimilarity> getSimilarity(ICase theCase, Set<ICase> similarCases, double threshold,
+			Object... params) {
+		if (similarCases == null || similarCases.isEmpty()) {
+			return null;
+		}
+		IRetrievalListener listener = getListener();
+		RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
+		Index index = getIndex(getPlan(theCase, params), similarCases);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
+		}
+		LiveCaseMatrix matrix = index.matrix;
+		CaseMatrix.Query query = matrix.query(theCase);
+		int[] candidates = index.candidates(query, similarCases.size());
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		Set<ICaseSimilarity> result = new HashSet<ICaseSimilarity>();
+		for (int row : candidates) {
+			double similarity = matrix.similarity(query, row);
+			if (similarity >= threshold) {
+				result.add(new CaseSimilarityImpl(similarity, theCase, matrix.getCase(row)));
+			}
+		}
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.SCAN);
+			finish(trace, matrix, candidates.length, result.size(), listener);
+		}
+		return result;
+	}
+
+	@Override
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, Set<ICase> similarCases, int k, double threshold,
+			Object... params) {
+		if (similarCases == null || similarCases.isEmpty()) {
+			return new ArrayList<ICaseSimilarity>();
+		}
+		IRetrievalListener listener = getListener();
+		RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
+		Index index = getIndex(getPlan(theCase, params), similarCases);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
+		}
+		LiveCaseMatrix matrix = index.matrix;
+		CaseMatrix.Query query = matrix.query(theCase);
+		int[] candidates = index.candidates(query, similarCases.size());
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		TopK topK = new TopK(k);
+		for (int row : candidates) {
+			double similarity = matrix.similarity(query, row);
+			if (similarity >= threshold) {
+				topK.offer(row, similarity);
+			}
+		}
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.SCAN);
+		}
+		topK.sort();
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(topK.size());
+		for (int i = 0; i < topK.size(); i++) {
+			result.add(new CaseSimilarityImpl(topK.score(i), theCase, matrix.getCase(topK.id(i))));
+		}
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESULTS);
+			finish(trace, matrix, candidates.length, result.size(), listener);
+		}
+		return result;
+	}
+
+	/**
+	 * Reports a retrieval that scored the candidates on every feature of the matrix; building the index is
+	 * charged to {@link RetrievalPhase#RESOLVE}, hashing the query to {@link RetrievalPhase#PREPARE}
+	 */
+	private static void finish(RetrievalTrace trace, LiveCaseMatrix matrix, int candidates, int results,
+			IRetrievalListener listener) {
+		trace.addScanned(candidates);
+		trace.addEvaluated((long) candidates * (matrix.getNumericCount() + matrix.getNominalCount()));
+		trace.finish(results, listener);
+	}
+
+	/**
+	 * @param theCase
+	 * @param similarCases
+	 * @param params
+	 *            Same as {@link #getSimilarity(ICase, Set, double, Object...)}
+	 * @return number of cases the query would score
+	 */
+	public int getCandidateCount(ICase theCase, Set<ICase> similarCases, Object... params) {
+		if (similarCases == null || similarCases.isEmpty()) {
+			return 0;
+		}
+		Index index = getIndex(getPlan(theCase, params), similarCases);
+		return index.candidates(index.matrix.query(theCase), similarCases.size()).length;
+	}
+
+	/**
+	 * Drops the index of a live case base, which stops following it; the next retrieval rebuilds it
+	 */
+	public synchronized void invalidate() {
+		if (index != null) {
+			index.close();
+			index = null;
+		}
+	}
+
+	private Index getIndex(ScoringPlan plan, Set<ICase> similarCases) {
+		if (!(similarCases instanceof LiveCaseBase.Snapshot)) {
+			Index scratch = new Index(plan, null);
+			for (ICase theCase : similarCases) {
+				scratch.add(theCase);
+			}
+			return scratch;
+		}
+		LiveCaseBase caseBase = ((LiveCaseBase.Snapshot) similarCases).getCaseBase();
+		Index current = index;
+		if (current != null && current.matches(plan, caseBase)) {
+			return current;
+		}
+		synchronized (this) {
+			current = index;
+			if (current == null || !current.matches(plan, caseBase)) {
+				if (current != null) {
+					current.close();
+				}
+				current = new Index(plan, caseBase);
+				// replays the cases already stored
+				caseBase.addListener(current);
+				index = current;
+			}
+			return current;
+		}
+	}
+
+	public int getTables() {
+		return tables;
+	}
+
+	public int getHashesPerTable() {
+		return hashesPerTable;
+	}
+
+	public double getWidth() {
+		return width;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public String toString() {
+		return "LshSimilarity [tables=" + tables + ", hashesPerTable=" + hashesPerTable + ", width=" + width + "]";
+	}
+
+	/**
+	 * Hash tables of one case set, growing with the case base of a {@link LiveCaseBase.Snapshot}: registered
+	 * as a listener of the case base, the index hashes every case added before any snapshot can hold it, so a
+	 * snapshot is answered from the rows below its size. Each table chains the rows of a slot in ascending
+	 * order; rows are appended under the lock of the case base and become visible by publishing the row count,
+	 * so queries never lock.
+	 */
+	private final class Index implements ICaseBaseListener {
+
+		/**
+		 * {@link ScoringPlan#getKey()} of the features
+		 */
+		private final Object plan;
+
+		/**
+		 * Case base of the snapshots, null for the index of a single retrieval
+		 */
+		private final LiveCaseBase source;
+
+		private final LiveCaseMatrix matrix;
+
+		/**
+		 * projections[t][h][f]: Gaussian coefficient of numeric feature f, already divided by its range
+		 */
+		private final double[][][] projections;
+
+		private final double[][] offsets;
+
+		/**
+		 * MinHash functions hash(x) = mix(x * multipliers[t][h] + increments[t][h])
+		 */
+		private final long[][] multipliers;
+
+		private final long[][] increments;
+
+		private volatile Tables current;
+
+		private volatile int size;
+
+		private final ThreadLocal<Marks> marks = new ThreadLocal<Marks>();
+
+		@SuppressWarnings("unchecked")
+		Index(ScoringPlan plan, LiveCaseBase source) {
+			this.plan = plan.getKey();
+			this.source = source;
+			List<IFeature> features = new ArrayList<IFeature>(plan.size());
+			for (int i = 0; i < plan.size(); i++) {
+				features.add(plan.getFeature(i));
+			}
+			this.matrix = new LiveCaseMatrix(plan.getCaseClass(), features);
+			Random random = new Random(seed);
+			int numericCount = matrix.getNumericCount();
+			this.projections = new double[tables][hashesPerTable][numericCount];
+			this.offsets = new double[tables][hashesPerTable];
+			this.multipliers = new long[tables][hashesPerTable];
+			this.increments = new long[tables][hashesPerTable];
+			for (int t = 0; t < tables; t++) {
+				for (int h = 0; h < hashesPerTable; h++) {
+					for (int f = 0; f < numericCount; f++) {
+						double range = matrix.getNumericFeature(f).getRange();
+						projections[t][h][f] = random.nextGaussian() / (range > 0 ? range : 1);
+					}
+					offsets[t][h] = random.nextDouble() * width;
+					multipliers[t][h] = random.nextLong() | 1;
+					increments[t][h] = random.nextLong();
+				}
+			}
+			this.current = new Tables(tables, 16);
+		}
+
+		void close() {
+			if (source != null) {
+				source.removeListener(this);
+			}
+		}
+
+		/**
+		 * @return true when the rows follow the case base with the features of the plan
+		 */
+		boolean matches(ScoringPlan plan, LiveCaseBase caseBase) {
+			return source == caseBase && this.plan.equals(plan.getKey());
+		}
+
+		public void checkCase(ICase theCase) {
+			matrix.checkCase(theCase);
+		}
+
+		public void caseAdded(ICase theCase, int id) {
+			int row = add(theCase);
+			if (row != id) {
+				throw new IllegalStateException("Case " + id + " stored as row " + row);
+			}
+		}
+
+		/**
+		 * Appends and hashes a case, calls being serialized
+		 */
+		private int add(ICase theCase) {
+			int row = matrix.add(theCase);
+			double[] numbers = new double[matrix.getNumericCount()];
+			for (int f = 0; f < numbers.length; f++) {
+				numbers[f] = matrix.getNumber(f, row);
+			}
+			int[] codes = new int[matrix.getNominalCount()];
+			for (int f = 0; f < codes.length; f++) {
+				codes[f] = matrix.getCode(f, row);
+			}
+			long[] rowKeys = new long[tables];
+			keys(numbers, codes, rowKeys);
+			Tables next = current;
+			if (row == next.capacity) {
+				next = next.grow(row + (row >> 1) + 1, row);
+				current = next;
+			}
+			next.add(rowKeys, row);
+			size = row + 1;
+			return row;
+		}
+
+		/**
+		 * Computes the key of every table for one row or query
+		 */
+		private void keys(double[] numbers, int[] codes, long[] out) {
+			for (int t = 0; t < tables; t++) {
+				long key = t;
+				for (int h = 0; h < hashesPerTable; h++) {
+					if (numbers.length > 0) {
+						double projection = offsets[t][h];
+						double[] coefficients = projections[t][h];
+						for (int f = 0; f < numbers.length; f++) {
+							if (!Double.isNaN(numbers[f])) {
+								projection += coefficients[f] * numbers[f];
+							}
+						}
+						key = combine(key, (long) Math.floor(projection / width));
+					}
+					if (codes.length > 0) {
+						long min = Long.MAX_VALUE;
+						for (int f = 0; f < codes.length; f++) {
+							if (codes[f] >= 0) {
+								long token = ((long) f << 32) | codes[f];
+								long hash = mix(token * multipliers[t][h] + increments[t][h]);
+								if (hash < min) {
+									min = hash;
+								}
+							}
+						}
+						key = combine(key, min);
+					}
+				}
+				out[t] = key;
+			}
+		}
+
+		/**
+		 * @param query
+		 * @param rowCount
+		 *            Rows of the case set, not more than the rows hashed
+		 * @return rows below rowCount sharing a bucket with the query in at least one table, each once
+		 */
+		int[] candidates(CaseMatrix.Query query, int rowCount) {
+			int n = Math.min(rowCount, size);
+			Tables tablesNow = current;
+			double[] numbers = new double[matrix.getNumericCount()];
+			for (int f = 0; f < numbers.length; f++) {
+				numbers[f] = query.getNumber(f);
+			}
+			int[] codes = new int[matrix.getNominalCount()];
+			for (int f = 0; f < codes.length; f++) {
+				codes[f] = query.getCode(f);
+			}
+			long[] queryKeys = new long[tables];
+			keys(numbers, codes, queryKeys);
+			Marks seen = marks.get();
+			if (seen == null || seen.capacity() < n) {
+				seen = new Marks(n + (n >> 1));
+				marks.set(seen);
+			}
+			seen.reset();
+			int[] result = new int[16];
+			int count = 0;
+			for (int t = 0; t < tables; t++) {
+				long key = queryKeys[t];
+				long[] tableKeys = tablesNow.keys[t];
+				int[] next = tablesNow.next[t];
+				// entries are rows + 1, one not yet written reads as the end of the chain
+				int entry = tablesNow.heads[t][tablesNow.slot(key)];
+				for (; entry != 0 && entry <= n; entry = next[entry - 1]) {
+					int row = entry - 1;
+					if (tableKeys[row] == key && seen.mark(row)) {
+						if (count == result.length) {
+							result = Arrays.copyOf(result, count * 2);
+						}
+						result[count++] = row;
+					}
+				}
+			}
+			return Arrays.copyOf(result, count);
+		}
+
+	}
+
+	/**
+	 * Chained hash tables of one row capacity, replaced by a larger copy when full. A slot chains its rows from
+	 * the oldest, so a reader stops at the first row beyond the rows it may see.
+	 */
+	private static final class Tables {
+
+		/**
+		 * keys[t][row]
+		 */
+		final long[][] keys;
+
+		/**
+		 * heads[t][slot]: first row + 1 of the slot, 0 when empty
+		 */
+		final int[][] heads;
+
+		/**
+		 * next[t][row]: next row + 1 of the same slot, 0 at the end
+		 */
+		final int[][] next;
+
+		/**
+		 * tails[t][slot]: last row of the slot, read by the writer only
+		 */
+		final int[][] tails;
+
+		final int capacity;
+
+		final int slotMask;
+
+		Tables(int tables, int capacity) {
+			int slots = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+			this.keys = new long[tables][capacity];
+			this.heads = new int[tables][slots];
+			this.next = new int[tables][capacity];
+			this.tails = new int[tables][slots];
+			this.capacity = capacity;
+			this.slotMask = slots - 1;
+		}
+
+		int slot(long key) {
+			return (int) (key ^ (key >>> 32)) & slotMask;
+		}
+
+		void add(long[] rowKeys, int row) {
+			for (int t = 0; t < keys.length; t++) {
+				keys[t][row] = rowKeys[t];
+				int slot = slot(rowKeys[t]);
+				if (heads[t][slot] == 0) {
+					heads[t][slot] = row + 1;
+				} else {
+					next[t][tails[t][slot]] = row + 1;
+				}
+				tails[t][slot] = row;
+			}
+		}
+
+		/**
+		 * @return tables of a larger capacity holding the first rows, rehashed into more slots
+		 */
+		Tables grow(int capacity, int rows) {
+			Tables grown = new Tables(keys.length, capacity);
+			long[] rowKeys = new long[keys.length];
+			for (int row = 0; row < rows; row++) {
+				for (int t = 0; t < keys.length; t++) {
+					rowKeys[t] = keys[t][row];
+				}
+				grown.add(rowKeys, row);
+			}
+			return grown;
+		}
+
+	}
+
+	/**
+	 * Per-thread set of rows already collected, cleared lazily through a generation stamp
+	 */
+	private static final class Marks {
+
+		private final int[] stamps;
+
+		private int generation;
+
+		Marks(int size) {
+			this.stamps = new int[size];
+		}
+
+		int capacity() {
+			return stamps.length;
+		}
+
+		void reset() {
+			if (++generation == 0) {
+				Arrays.fill(stamps, 0);
+				generation = 1;
+			}
+		}
+
+		/**
+		 * @return true the first time the row is marked since the last reset
+		 */
+		boolean mark(int row) {
+			if (stamps[row] == generation) {
+				return false;
+			}
+			stamps[row] = generation;
+			return true;
+		}
+
+	}
+
+	private static long combine(long key, long value) {
+		return mix(key * 0x9E3779B97F4A7C15L + value);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, spreads every input bit over the whole word
+	 */
+	private static long mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+
+}
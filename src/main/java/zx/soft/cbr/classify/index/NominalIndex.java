@@ -0,0 +1,534 @@
+package zx.soft.cbr.classify.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import zx.soft.cbr.classify.core.CaseSimilarityImpl;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseBaseListener;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.ScoredIds;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+import zx.soft.cbr.classify.matrix.LiveCaseMatrix;
+
+/**
+ * Inverted index over the nominal columns of a {@link CaseMatrix}: for every feature and value, the rows
+ * holding that value. A nominal feature only scores on an exact match, so a query accumulates nominal scores
+ * through the posting lists of its own values and only the rows it touches become candidates. Numeric
+ * features are bounded by their weight: rows the query does not touch are scanned only when their numeric
+ * score alone could still reach the cut-off. Candidates are scored by {@link CaseMatrix#score}, so results are
+ * the same as a full scan.
+ * <p>
+ * An index created for a case class instead of a matrix stores its rows in a {@link LiveCaseMatrix} and grows
+ * with {@link #add(ICase)}; registered on a {@link zx.soft.cbr.classify.core.LiveCaseBase}, it follows the ids
+ * of the case base. Posting lists are appended in place and replaced by larger copies when full, and rows
+ * become visible by publishing the row count, so queries never lock and only see the rows below the count.
+ *
+ * @author wanggang
+ *
+ */
+public class NominalIndex implements ICaseBaseListener {
+
+	/**
+	 * Relative margin keeping rounding differences from discarding a row that reaches the cut-off exactly
+	 */
+	private static final double SLACK = 1e-9;
+
+	/**
+	 * Static rows, null for a growing index
+	 */
+	private final CaseMatrix matrix;
+
+	/**
+	 * Growing rows, null for a static index
+	 */
+	private final LiveCaseMatrix live;
+
+	private final double[] numericWeights;
+
+	private final double[] nominalWeights;
+
+	/**
+	 * postings[f]: rows holding each code of nominal feature f
+	 */
+	private final Postings[] postings;
+
+	/**
+	 * false when a negative weight makes the nominal sum no lower bound of the score
+	 */
+	private final boolean nonNegative;
+
+	private volatile int size;
+
+	private final ThreadLocal<Accumulator> accumulators = new ThreadLocal<Accumulator>();
+
+	public NominalIndex(CaseMatrix matrix) {
+		this(matrix, null, matrix.getNumericCount(), matrix.getNominalCount());
+		for (int row = 0; row < matrix.size(); row++) {
+			for (int f = 0; f < postings.length; f++) {
+				int code = matrix.getNominalColumn(f)[row];
+				if (code >= 0) {
+					postings[f].add(code, row);
+				}
+			}
+		}
+		size = matrix.size();
+	}
+
+	/**
+	 * Empty index, filled by {@link #add(ICase)}. Numeric attributes (primitive numbers or {@link Number})
+	 * become numeric columns, any other attribute a nominal column
+	 *
+	 * @param caseClass
+	 *            Class of the cases to be indexed
+	 * @param features
+	 *            Features to be stored
+	 */
+	public NominalIndex(Class<? extends ICase> caseClass, Collection<IFeature> features) {
+		this(null, new LiveCaseMatrix(caseClass, features));
+	}
+
+	private NominalIndex(CaseMatrix matrix, LiveCaseMatrix live) {
+		this(matrix, live, live.getNumericCount(), live.getNominalCount());
+	}
+
+	private NominalIndex(CaseMatrix matrix, LiveCaseMatrix live, int numericCount, int nominalCount) {
+		this.matrix = matrix;
+		this.live = live;
+		this.numericWeights = new double[numericCount];
+		this.nominalWeights = new double[nominalCount];
+		this.postings = new Postings[nominalCount];
+		boolean nonNegative = true;
+		for (int f = 0; f < numericCount; f++) {
+			numericWeights[f] = (matrix != null ? matrix.getNumericFeature(f) : live.getNumericFeature(f)).getWeight();
+			nonNegative &= numericWeights[f] >= 0;
+		}
+		for (int f = 0; f < nominalCount; f++) {
+			nominalWeights[f] = (matrix != null ? matrix.getNominalFeature(f) : live.getNominalFeature(f)).getWeight();
+			nonNegative &= nominalWeights[f] >= 0;
+			postings[f] = new Postings();
+		}
+		this.nonNegative = nonNegative;
+	}
+
+	/**
+	 * Appends a case to a growing index
+	 *
+	 * @param theCase
+	 * @return row of the case
+	 */
+	public synchronized int add(ICase theCase) {
+		if (live == null) {
+			throw new UnsupportedOperationException("Index over a static matrix");
+		}
+		int row = live.add(theCase);
+		for (int f = 0; f < postings.length; f++) {
+			int code = live.getCode(f, row);
+			if (code >= 0) {
+				postings[f].add(code, row);
+			}
+		}
+		size = row + 1;
+		return row;
+	}
+
+	/**
+	 * Rejects a case the rows of a growing index cannot hold
+	 */
+	public void checkCase(ICase theCase) {
+		if (live == null) {
+			throw new UnsupportedOperationException("Index over a static matrix");
+		}
+		live.checkCase(theCase);
+	}
+
+	/**
+	 * Appends the case of a {@link zx.soft.cbr.classify.core.LiveCaseBase}
+	 *
+	 * @throws IllegalStateException
+	 *             when the index was registered on a case base after other rows were added
+	 */
+	public void caseAdded(ICase theCase, int id) {
+		int row = add(theCase);
+		if (row != id) {
+			throw new IllegalStateException("Case " + id + " stored as row " + row);
+		}
+	}
+
+	/**
+	 * Exact k most similar rows
+	 *
+	 * @param query
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return heap of (row, similarity) pairs, sorted from the most to the least similar
+	 */
+	public TopK topK(CaseMatrix.Query query, int k, double threshold) {
+		TopK heap = new TopK(k);
+		int n = size;
+		Accumulator accumulator = accumulate(query, n);
+		double maxScore = query.getMaxScore();
+		double scale = 100 / maxScore;
+		double numericBound = numericBound(query);
+		// the nominal sum is a lower bound of a row's score, so the k-th largest one bounds the k-th result
+		double floor = Double.NEGATIVE_INFINITY;
+		if (nonNegative && k > 0 && accumulator.count >= k) {
+			floor = accumulator.kthLargest(k) - SLACK * maxScore;
+		}
+		for (int i = 0; i < accumulator.count; i++) {
+			int row = accumulator.touched[i];
+			double bound = accumulator.scores[row] + numericBound;
+			if (bound >= floor && bound >= limit(Math.max(threshold, heap.threshold()), maxScore)) {
+				offer(heap, row, score(accumulator, query, row) * scale, threshold);
+			}
+		}
+		if (numericBound >= floor && numericBound >= limit(Math.max(threshold, heap.threshold()), maxScore)) {
+			for (int row = 0; row < n; row++) {
+				if (!accumulator.isTouched(row)) {
+					offer(heap, row, score(query, row) * scale, threshold);
+				}
+			}
+		}
+		return heap.sort();
+	}
+
+	/**
+	 * Without numeric features the nominal sum, accumulated in feature order, already is the row's score
+	 */
+	private double score(Accumulator accumulator, CaseMatrix.Query query, int row) {
+		if (numericWeights.length == 0 && nonNegative) {
+			return accumulator.scores[row];
+		}
+		return score(query, row);
+	}
+
+	private double score(CaseMatrix.Query query, int row) {
+		return matrix != null ? matrix.score(query, row) : live.score(query, row);
+	}
+
+	private static void offer(TopK heap, int row, double similarity, double threshold) {
+		if (similarity >= threshold) {
+			heap.offer(row, similarity);
+		}
+	}
+
+	/**
+	 * Exact radius query: every row whose similarity reaches the threshold
+	 *
+	 * @param query
+	 * @param threshold
+	 *            Minimum similarity, in percent
+	 * @return (row, similarity) pairs sorted from the most to the least similar
+	 */
+	public ScoredIds range(CaseMatrix.Query query, double threshold) {
+		ScoredIds result = new ScoredIds();
+		int n = size;
+		Accumulator accumulator = accumulate(query, n);
+		double maxScore = query.getMaxScore();
+		double scale = 100 / maxScore;
+		double numericBound = numericBound(query);
+		double limit = limit(threshold, maxScore);
+		for (int i = 0; i < accumulator.count; i++) {
+			int row = accumulator.touched[i];
+			if (accumulator.scores[row] + numericBound >= limit) {
+				double similarity = score(accumulator, query, row) * scale;
+				if (similarity >= threshold) {
+					result.add(row, similarity);
+				}
+			}
+		}
+		if (numericBound >= limit) {
+			for (int row = 0; row < n; row++) {
+				if (!accumulator.isTouched(row)) {
+					double similarity = score(query, row) * scale;
+					if (similarity >= threshold) {
+						result.add(row, similarity);
+					}
+				}
+			}
+		}
+		return result.sort();
+	}
+
+	/**
+	 * @param theCase
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return results ordered from the most to the least similar
+	 */
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, int k, double threshold) {
+		TopK topK = topK(query(theCase), k, threshold);
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(topK.size());
+		for (int i = 0; i < topK.size(); i++) {
+			result.add(new CaseSimilarityImpl(topK.score(i), theCase, getCase(topK.id(i))));
+		}
+		return result;
+	}
+
+	/**
+	 * @param theCase
+	 * @param threshold
+	 *            Minimum similarity, in percent
+	 * @return cases at or above the threshold
+	 */
+	public Set<ICaseSimilarity> getSimilarity(ICase theCase, double threshold) {
+		ScoredIds rows = range(query(theCase), threshold);
+		Set<ICaseSimilarity> result = new HashSet<ICaseSimilarity>();
+		for (int i = 0; i < rows.size(); i++) {
+			result.add(new CaseSimilarityImpl(rows.score(i), theCase, getCase(rows.id(i))));
+		}
+		return result;
+	}
+
+	/**
+	 * Extracts and encodes the feature values of a query case
+	 */
+	public CaseMatrix.Query query(ICase theCase) {
+		return matrix != null ? matrix.query(theCase) : live.query(theCase);
+	}
+
+	private ICase getCase(int row) {
+		ICase aCase = matrix != null ? matrix.getCase(row) : live.getCase(row);
+		if (aCase == null) {
+			throw new UnsupportedOperationException("Matrix was not built from ICase instances");
+		}
+		return aCase;
+	}
+
+	/**
+	 * Sums the nominal weights of the query's matches over the posting lists of its values
+	 */
+	private Accumulator accumulate(CaseMatrix.Query query, int n) {
+		Accumulator accumulator = accumulators.get();
+		if (accumulator == null || accumulator.scores.length < n) {
+			accumulator = new Accumulator(n + (n >> 1));
+			accumulators.set(accumulator);
+		}
+		accumulator.reset();
+		for (int f = 0; f < postings.length; f++) {
+			int code = query.getCode(f);
+			if (code < 0) {
+				continue;
+			}
+			double weight = Math.max(nominalWeights[f], 0);
+			int[] entries = postings[f].entries(code);
+			for (int i = 0; i < entries.length; i++) {
+				int entry = entries[i];
+				if (entry == 0 || entry > n) {
+					break;
+				}
+				accumulator.add(entry - 1, weight);
+			}
+		}
+		return accumulator;
+	}
+
+	/**
+	 * @return largest score the numeric features can add to any row
+	 */
+	private double numericBound(CaseMatrix.Query query) {
+		double bound = 0;
+		for (int f = 0; f < numericWeights.length; f++) {
+			if (!Double.isNaN(query.getNumber(f))) {
+				bound += Math.max(numericWeights[f], 0);
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * @return score a row must be able to reach for the similarity cut-off
+	 */
+	private static double limit(double cutoff, double maxScore) {
+		return cutoff * maxScore / 100 - SLACK * maxScore;
+	}
+
+	/**
+	 * @param f
+	 * @param code
+	 * @return number of rows holding the value
+	 */
+	public int getPostingSize(int f, int code) {
+		int n = size;
+		int[] entries = postings[f].entries(code);
+		int count = 0;
+		while (count < entries.length && entries[count] != 0 && entries[count] <= n) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return rows of a static index, null for a growing one
+	 */
+	public CaseMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return rows of a growing index, null for a static one
+	 */
+	public LiveCaseMatrix getLiveMatrix() {
+		return live;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Posting lists of one nominal feature, by code. The list array and the entries of a list are replaced by
+	 * larger copies through volatile writes, so a reader holding the row count sees every entry below it.
+	 */
+	private static final class Postings {
+
+		private static final int[] EMPTY = new int[0];
+
+		private volatile PostingList[] lists = new PostingList[16];
+
+		/**
+		 * Appends a row, rows arrive in ascending order under the lock of the index
+		 */
+		void add(int code, int row) {
+			PostingList[] current = lists;
+			if (code >= current.length) {
+				current = Arrays.copyOf(current, Math.max(code + 1, current.length * 2));
+				lists = current;
+			}
+			PostingList list = current[code];
+			if (list == null) {
+				list = new PostingList();
+				current[code] = list;
+			}
+			list.add(row);
+		}
+
+		/**
+		 * @return rows + 1 of the code in ascending order, 0 past the last one
+		 */
+		int[] entries(int code) {
+			PostingList[] current = lists;
+			PostingList list = code < current.length ? current[code] : null;
+			int[] entries = list == null ? null : list.entries;
+			return entries == null ? EMPTY : entries;
+		}
+
+	}
+
+	private static final class PostingList {
+
+		/**
+		 * rows + 1, so an entry not yet written reads as the end of the list
+		 */
+		private volatile int[] entries = new int[4];
+
+		private int size;
+
+		void add(int row) {
+			int[] current = entries;
+			if (size == current.length) {
+				current = Arrays.copyOf(current, size * 2);
+				entries = current;
+			}
+			current[size++] = row + 1;
+		}
+
+	}
+
+	/**
+	 * Dense per-thread score buffer, rows are reset lazily through a generation stamp
+	 */
+	private static final class Accumulator {
+
+		private final double[] scores;
+
+		private final int[] stamps;
+
+		private final int[] touched;
+
+		private final double[] buffer;
+
+		private int count;
+
+		private int generation;
+
+		Accumulator(int size) {
+			this.scores = new double[size];
+			this.stamps = new int[size];
+			this.touched = new int[size];
+			this.buffer = new double[size];
+		}
+
+		void reset() {
+			count = 0;
+			if (++generation == 0) {
+				Arrays.fill(stamps, 0);
+				generation = 1;
+			}
+		}
+
+		void add(int row, double weight) {
+			if (stamps[row] != generation) {
+				stamps[row] = generation;
+				scores[row] = 0;
+				touched[count++] = row;
+			}
+			scores[row] += weight;
+		}
+
+		boolean isTouched(int row) {
+			return stamps[row] == generation;
+		}
+
+		/**
+		 * @return k-th largest accumulated score, k between 1 and the number of touched rows
+		 */
+		double kthLargest(int k) {
+			for (int i = 0; i < count; i++) {
+				buffer[i] = scores[touched[i]];
+			}
+			int nth = k - 1;
+			int lo = 0;
+			int hi = count;
+			while (hi - lo > 1) {
+				double pivot = buffer[(lo + hi) >>> 1];
+				int gt = lo;
+				int i = lo;
+				int lt = hi - 1;
+				while (i <= lt) {
+					if (buffer[i] > pivot) {
+						swap(gt++, i++);
+					} else if (buffer[i] < pivot) {
+						swap(i, lt--);
+					} else {
+						i++;
+					}
+				}
+				if (nth < gt) {
+					hi = gt;
+				} else if (nth > lt) {
+					lo = lt + 1;
+				} else {
+					return pivot;
+				}
+			}
+			return buffer[nth];
+		}
+
+		private void swap(int i, int j) {
+			double value = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = value;
+		}
+
+	}
+
+}
@@ -0,0 +1,428 @@
+package zx.soft.cbr.classify.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import zx.soft.cbr.classify.core.FeatureImpl;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+import zx.soft.cbr.classify.matrix.NominalDictionary;
+
+/**
+ * Streaming reader of Weka ARFF files into a {@link CaseMatrix}. Data lines are parsed one at a time straight
+ * into the columns of a {@link CaseMatrix.Builder}, so no per-row object is kept and memory grows only with
+ * the primitive columns.
+ * <p>
+ * Numeric attributes (numeric, real, integer) become numeric features whose range is the spread of the
+ * values read, nominal attributes become nominal features with their declared values encoded in order, and
+ * string and date attributes become nominal features whose dictionary grows with the values read. '?' is a
+ * missing value. Sparse rows ({index value, ...}) are read too, omitted values being 0 or the first declared
+ * value. Every feature gets weight 1. The class attribute is stored as the row labels instead of a feature.
+ *
+ * @author wanggang
+ *
+ */
+public class ArffReader implements Closeable {
+
+	public enum Type {
+		NUMERIC, NOMINAL, STRING, DATE
+	}
+
+	private final BufferedReader reader;
+
+	private String relation;
+
+	private final List<Attribute> attributes = new ArrayList<Attribute>();
+
+	private boolean headerRead;
+
+	private int lineNumber;
+
+	/**
+	 * Position of the tokenizer in the current line
+	 */
+	private int position;
+
+	private final StringBuilder token = new StringBuilder();
+
+	public ArffReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+	}
+
+	public ArffReader(File file) throws IOException {
+		this(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+	}
+
+	/**
+	 * Reads a whole file, the last attribute being the class when it is nominal
+	 *
+	 * @param file
+	 * @return matrix with the derived features
+	 * @throws IOException
+	 */
+	public static CaseMatrix read(File file) throws IOException {
+		ArffReader reader = new ArffReader(file);
+		try {
+			reader.readHeader();
+			Attribute last = reader.attributes.get(reader.attributes.size() - 1);
+			return reader.read(last.getType() == Type.NOMINAL ? last.getName() : null);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the header up to the @data line, once
+	 *
+	 * @return attributes, in file order
+	 * @throws IOException
+	 */
+	public List<Attribute> readHeader() throws IOException {
+		if (headerRead) {
+			return getAttributes();
+		}
+		String line;
+		while ((line = nextLine()) != null) {
+			position = 0;
+			String keyword = nextWord(line).toLowerCase();
+			if (keyword.equals("@relation")) {
+				relation = nextValue(line);
+			} else if (keyword.equals("@attribute")) {
+				attributes.add(readAttribute(line));
+			} else if (keyword.equals("@data")) {
+				if (attributes.isEmpty()) {
+					throw error("No attribute declared");
+				}
+				headerRead = true;
+				return getAttributes();
+			} else {
+				throw error("Unexpected header line: " + line);
+			}
+		}
+		throw error("Missing @data section");
+	}
+
+	private Attribute readAttribute(String line) throws IOException {
+		String name = nextValue(line);
+		skipSpaces(line);
+		if (position < line.length() && line.charAt(position) == '{') {
+			position++;
+			List<String> values = new ArrayList<String>();
+			while (true) {
+				skipSpaces(line);
+				if (position >= line.length()) {
+					throw error("Unterminated nominal declaration: " + line);
+				}
+				if (line.charAt(position) == '}') {
+					break;
+				}
+				values.add(readToken(line, "},"));
+				skipSpaces(line);
+				if (position < line.length() && line.charAt(position) == ',') {
+					position++;
+				}
+			}
+			return new Attribute(name, Type.NOMINAL, values);
+		}
+		String type = nextWord(line).toLowerCase();
+		if (type.equals("numeric") || type.equals("real") || type.equals("integer")) {
+			return new Attribute(name, Type.NUMERIC, Collections.<String> emptyList());
+		} else if (type.equals("string")) {
+			return new Attribute(name, Type.STRING, Collections.<String> emptyList());
+		} else if (type.equals("date")) {
+			return new Attribute(name, Type.DATE, Collections.<String> emptyList());
+		}
+		throw error("Unsupported attribute type: " + type);
+	}
+
+	/**
+	 * Streams the data section into a matrix
+	 *
+	 * @param classAttribute
+	 *            Attribute stored as the row labels, null for none
+	 * @return matrix without source cases
+	 * @throws IOException
+	 */
+	public CaseMatrix read(String classAttribute) throws IOException {
+		readHeader();
+		int attributeCount = attributes.size();
+		CaseMatrix.Builder builder = new CaseMatrix.Builder(1024);
+		// column of each attribute in its kind, -1 for the class
+		int[] columns = new int[attributeCount];
+		int classIndex = -1;
+		for (int a = 0; a < attributeCount; a++) {
+			Attribute attribute = attributes.get(a);
+			if (attribute.getName().equals(classAttribute)) {
+				classIndex = a;
+				columns[a] = -1;
+				builder.setClass(attribute.getName(), attribute.newDictionary());
+			} else if (attribute.getType() == Type.NUMERIC) {
+				columns[a] = builder.addNumericFeature(new FeatureImpl(attribute.getName(), 1, 0));
+			} else {
+				columns[a] = builder.addNominalFeature(new FeatureImpl(attribute.getName(), 1, 0),
+						attribute.newDictionary());
+			}
+		}
+		if (classAttribute != null && classIndex < 0) {
+			throw new IllegalArgumentException("Class attribute not declared: " + classAttribute);
+		}
+		int numericCount = 0;
+		for (Attribute attribute : attributes) {
+			if (attribute.getType() == Type.NUMERIC && !attribute.getName().equals(classAttribute)) {
+				numericCount++;
+			}
+		}
+		double[] numbers = new double[numericCount];
+		int[] codes = new int[attributeCount - numericCount - (classIndex < 0 ? 0 : 1)];
+		double[] min = new double[numericCount];
+		double[] max = new double[numericCount];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		NominalDictionary classDictionary = builder.getClassDictionary();
+		String line;
+		while ((line = nextLine()) != null) {
+			position = 0;
+			int label = NominalDictionary.MISSING;
+			boolean sparse = line.charAt(0) == '{';
+			if (sparse) {
+				position = 1;
+				clearRow(columns, classIndex, numbers, codes);
+				label = classIndex < 0 ? label : defaultCode(classIndex);
+			}
+			for (int a = 0; a < attributeCount; a++) {
+				int attributeIndex = a;
+				skipSpaces(line);
+				if (sparse) {
+					if (position >= line.length() || line.charAt(position) == '}') {
+						break;
+					}
+					attributeIndex = Integer.parseInt(nextWord(line));
+					if (attributeIndex < 0 || attributeIndex >= attributeCount) {
+						throw error("Attribute index out of range: " + attributeIndex);
+					}
+					skipSpaces(line);
+				}
+				if (position >= line.length()) {
+					throw error("Expected " + attributeCount + " values: " + line);
+				}
+				boolean quoted = line.charAt(position) == '\'' || line.charAt(position) == '"';
+				String value = readToken(line, sparse ? ",}" : ",");
+				skipSpaces(line);
+				if (position < line.length() && line.charAt(position) == ',') {
+					position++;
+				}
+				boolean missing = !quoted && value.equals("?");
+				Attribute attribute = attributes.get(attributeIndex);
+				int column = columns[attributeIndex];
+				if (attributeIndex == classIndex) {
+					label = missing ? NominalDictionary.MISSING : encode(attribute, classDictionary, value);
+				} else if (attribute.getType() == Type.NUMERIC) {
+					numbers[column] = missing ? Double.NaN : parseNumber(value);
+				} else {
+					codes[column] = missing ? NominalDictionary.MISSING
+							: encode(attribute, builder.getDictionary(column), value);
+				}
+			}
+			// from the assembled row, so the implicit zeros of a sparse row count too
+			for (int f = 0; f < numericCount; f++) {
+				if (numbers[f] < min[f]) {
+					min[f] = numbers[f];
+				}
+				if (numbers[f] > max[f]) {
+					max[f] = numbers[f];
+				}
+			}
+			builder.addRow(numbers, codes, label, null);
+		}
+		for (int f = 0; f < numericCount; f++) {
+			builder.setNumericRange(f, max[f] >= min[f] ? max[f] - min[f] : 0);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Resets a sparse row to the implicit values: 0 for numbers, the first declared value for nominals
+	 */
+	private void clearRow(int[] columns, int classIndex, double[] numbers, int[] codes) {
+		for (int a = 0; a < columns.length; a++) {
+			if (a == classIndex) {
+				continue;
+			}
+			if (attributes.get(a).getType() == Type.NUMERIC) {
+				numbers[columns[a]] = 0;
+			} else {
+				codes[columns[a]] = defaultCode(a);
+			}
+		}
+	}
+
+	private int defaultCode(int attribute) {
+		return attributes.get(attribute).getValues().isEmpty() ? NominalDictionary.MISSING : 0;
+	}
+
+	private int encode(Attribute attribute, NominalDictionary dictionary, String value) throws IOException {
+		if (attribute.getType() != Type.NOMINAL) {
+			return dictionary.encode(value);
+		}
+		int code = dictionary.lookup(value);
+		if (code < 0) {
+			throw error("Undeclared value of " + attribute.getName() + ": " + value);
+		}
+		return code;
+	}
+
+	private double parseNumber(String value) throws IOException {
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw error("Invalid number: " + value);
+		}
+	}
+
+	/**
+	 * @return next line holding data, null at the end of the file
+	 */
+	private String nextLine() throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (!line.isEmpty() && line.charAt(0) != '%') {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	private void skipSpaces(String line) {
+		while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+	}
+
+	/**
+	 * @return next run of non blank characters
+	 */
+	private String nextWord(String line) {
+		skipSpaces(line);
+		int start = position;
+		while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+		return line.substring(start, position);
+	}
+
+	/**
+	 * @return next word, or quoted string without its quotes
+	 */
+	private String nextValue(String line) throws IOException {
+		skipSpaces(line);
+		if (position < line.length() && (line.charAt(position) == '\'' || line.charAt(position) == '"')) {
+			return readToken(line, "");
+		}
+		return nextWord(line);
+	}
+
+	/**
+	 * Reads a quoted string, or unquoted text up to one of the delimiters with surrounding blanks removed
+	 */
+	private String readToken(String line, String delimiters) throws IOException {
+		skipSpaces(line);
+		token.setLength(0);
+		char quote = line.charAt(position);
+		if (quote == '\'' || quote == '"') {
+			position++;
+			while (true) {
+				if (position >= line.length()) {
+					throw error("Unterminated quoted value: " + line);
+				}
+				char c = line.charAt(position++);
+				if (c == quote) {
+					return token.toString();
+				}
+				if (c == '\\' && position < line.length()) {
+					c = line.charAt(position++);
+				}
+				token.append(c);
+			}
+		}
+		int start = position;
+		while (position < line.length() && delimiters.indexOf(line.charAt(position)) < 0) {
+			position++;
+		}
+		return line.substring(start, position).trim();
+	}
+
+	private IOException error(String message) {
+		return new IOException(message + " (line " + lineNumber + ")");
+	}
+
+	public String getRelation() {
+		return relation;
+	}
+
+	public List<Attribute> getAttributes() {
+		return Collections.unmodifiableList(attributes);
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Attribute declaration of the header
+	 */
+	public static class Attribute {
+
+		private final String name;
+
+		private final Type type;
+
+		private final List<String> values;
+
+		Attribute(String name, Type type, List<String> values) {
+			this.name = name;
+			this.type = type;
+			this.values = Collections.unmodifiableList(values);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * @return declared values of a nominal attribute, empty otherwise
+		 */
+		public List<String> getValues() {
+			return values;
+		}
+
+		NominalDictionary newDictionary() {
+			NominalDictionary dictionary = new NominalDictionary();
+			for (String value : values) {
+				dictionary.encode(value);
+			}
+			return dictionary;
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + (type == Type.NOMINAL ? values.toString() : type.toString());
+		}
+
+	}
+
+}
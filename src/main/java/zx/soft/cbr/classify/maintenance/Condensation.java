@@ -0,0 +1,383 @@
+package zx.soft.cbr.classify.maintenance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import zx.soft.cbr.classify.classifier.CbrClassifier;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.LiveCaseBase;
+
+/**
+ * Case base maintenance: keeps the cases a {@link CbrClassifier} needs to classify the others and drops the
+ * redundant or noisy ones, so retrieval scans fewer cases.
+ * <ul>
+ * <li>{@link Method#CNN}: Hart's condensed nearest neighbour, cases misclassified by the kept ones are kept,
+ * passes repeat until none is added</li>
+ * <li>{@link Method#IB2}: a single such pass</li>
+ * <li>{@link Method#IB3}: Aha's IB3, IB2 with a classification record per kept case; cases whose accuracy is
+ * significantly below the frequency of their class are dropped and only the significantly good ones kept</li>
+ * </ul>
+ * A CNN or IB2 pass is run speculatively in parallel: the next cases are classified concurrently against the
+ * current kept cases until the first misclassified one, which is kept before the pass goes on after it. The
+ * result is the same as a sequential pass. IB3 is sequential, its retrievals can be parallel through the
+ * classifier's algorithm. IB3 drops kept cases as well as adding them, so each of its retrievals gets a copy
+ * of the kept cases rather than a set changing between retrievals.
+ *
+ * @author wanggang
+ *
+ */
+public class Condensation {
+
+	public enum Method {
+		CNN, IB2, IB3
+	}
+
+	/**
+	 * Confidence of the IB3 acceptance test
+	 */
+	public static final double ACCEPT_CONFIDENCE = 0.9;
+
+	/**
+	 * Confidence of the IB3 drop test
+	 */
+	public static final double DROP_CONFIDENCE = 0.7;
+
+	/**
+	 * Cases classified by one worker before the speculative pass checks for a misclassified case
+	 */
+	private static final int SLICE_SIZE = 8;
+
+	private final CbrClassifier classifier;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	private long seed = 42;
+
+	/**
+	 * Runs on the common pool
+	 */
+	public Condensation(CbrClassifier classifier) {
+		this(classifier, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism());
+	}
+
+	/**
+	 * @param classifier
+	 *            Classifier whose retrievals decide which cases are kept, usually with k = 1
+	 * @param executor
+	 * @param parallelism
+	 *            Number of threads of the executor available to one run
+	 */
+	public Condensation(CbrClassifier classifier, ExecutorService executor, int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		}
+		this.classifier = classifier;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param method
+	 * @param cases
+	 *            Case base, visited in list order
+	 * @return kept cases, in the order they were kept
+	 */
+	public List<ICase> condense(Method method, List<? extends ICase> cases) {
+		if (cases.isEmpty()) {
+			return new ArrayList<ICase>();
+		}
+		if (method == Method.IB3) {
+			return ib3(cases);
+		}
+		LiveCaseBase kept = new LiveCaseBase();
+		kept.add(cases.get(0));
+		List<ICase> remaining = new ArrayList<ICase>(cases.subList(1, cases.size()));
+		boolean added = true;
+		while (added && !remaining.isEmpty()) {
+			added = false;
+			List<ICase> correct = new ArrayList<ICase>(remaining.size());
+			int next = 0;
+			while (next < remaining.size()) {
+				int miss = firstMisclassified(remaining, next, kept.snapshot());
+				correct.addAll(remaining.subList(next, miss));
+				if (miss < remaining.size()) {
+					kept.add(remaining.get(miss));
+					added = true;
+				}
+				next = miss + 1;
+			}
+			remaining = correct;
+			if (method == Method.IB2) {
+				break;
+			}
+		}
+		return new ArrayList<ICase>(kept.snapshot());
+	}
+
+	/**
+	 * Reduces the case base and compares both case bases on the test cases
+	 *
+	 * @param method
+	 * @param cases
+	 *            Case base
+	 * @param test
+	 *            Cases classified by both case bases
+	 * @return report
+	 */
+	public CondensationReport run(Method method, List<? extends ICase> cases, List<? extends ICase> test) {
+		long start = System.nanoTime();
+		List<ICase> reduced = condense(method, cases);
+		double condenseMillis = (System.nanoTime() - start) / 1e6;
+		// snapshots, so an algorithm indexing the case base does it once for all the test cases
+		long[] original = evaluate(new LiveCaseBase(new LinkedHashSet<ICase>(cases)).snapshot(), test);
+		long[] after = evaluate(new LiveCaseBase(reduced).snapshot(), test);
+		int queries = Math.max(test.size(), 1);
+		return new CondensationReport(method, reduced, cases.size(), (double) original[0] / queries,
+				(double) after[0] / queries, original[1] / 1e6 / queries, after[1] / 1e6 / queries, condenseMillis);
+	}
+
+	/**
+	 * Classifies cases [from, ...) against the kept ones, slices of {@link #SLICE_SIZE} cases at a time in
+	 * parallel
+	 *
+	 * @return index of the first misclassified case, the size of the list if there is none
+	 */
+	private int firstMisclassified(final List<ICase> cases, int from, final Set<ICase> kept) {
+		if (parallelism == 1) {
+			for (int i = from; i < cases.size(); i++) {
+				if (!isCorrect(cases.get(i), kept)) {
+					return i;
+				}
+			}
+			return cases.size();
+		}
+		final AtomicInteger miss = new AtomicInteger(cases.size());
+		int window = SLICE_SIZE * parallelism;
+		for (int start = from; start < cases.size(); start += window) {
+			int end = Math.min(start + window, cases.size());
+			List<Callable<Void>> slices = new ArrayList<Callable<Void>>(parallelism);
+			for (int slice = start; slice < end; slice += SLICE_SIZE) {
+				final int sliceStart = slice;
+				final int sliceEnd = Math.min(slice + SLICE_SIZE, end);
+				slices.add(new Callable<Void>() {
+
+					public Void call() {
+						for (int i = sliceStart; i < sliceEnd && i < miss.get(); i++) {
+							if (!isCorrect(cases.get(i), kept)) {
+								lower(miss, i);
+								break;
+							}
+						}
+						return null;
+					}
+
+				});
+			}
+			invokeAll(slices);
+			if (miss.get() < cases.size()) {
+				return miss.get();
+			}
+		}
+		return cases.size();
+	}
+
+	private static void lower(AtomicInteger value, int candidate) {
+		int current = value.get();
+		while (candidate < current && !value.compareAndSet(current, candidate)) {
+			current = value.get();
+		}
+	}
+
+	private boolean isCorrect(ICase theCase, Set<ICase> kept) {
+		Object actual = classifier.getLabel(theCase);
+		Object predicted = classifier.classify(theCase, kept);
+		return actual == null ? predicted == null : actual.equals(predicted);
+	}
+
+	/**
+	 * @return number of correctly classified test cases and total classification time in nanoseconds
+	 */
+	private long[] evaluate(final Set<ICase> caseBase, final List<? extends ICase> test) {
+		int sliceSize = Math.max(1, (test.size() + parallelism - 1) / parallelism);
+		List<Callable<long[]>> slices = new ArrayList<Callable<long[]>>(parallelism);
+		for (int slice = 0; slice < test.size(); slice += sliceSize) {
+			final int sliceStart = slice;
+			final int sliceEnd = Math.min(slice + sliceSize, test.size());
+			slices.add(new Callable<long[]>() {
+
+				public long[] call() {
+					long[] result = new long[2];
+					for (int i = sliceStart; i < sliceEnd; i++) {
+						long start = System.nanoTime();
+						boolean correct = isCorrect(test.get(i), caseBase);
+						result[1] += System.nanoTime() - start;
+						if (correct) {
+							result[0]++;
+						}
+					}
+					return result;
+				}
+
+			});
+		}
+		long[] total = new long[2];
+		for (long[] partial : invokeAll(slices)) {
+			total[0] += partial[0];
+			total[1] += partial[1];
+		}
+		return total;
+	}
+
+	private <R> List<R> invokeAll(List<Callable<R>> tasks) {
+		List<R> results = new ArrayList<R>(tasks.size());
+		try {
+			for (Future<R> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Condensation interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	private List<ICase> ib3(List<? extends ICase> cases) {
+		Random random = new Random(seed);
+		Set<ICase> kept = new LinkedHashSet<ICase>();
+		Map<ICase, int[]> records = new IdentityHashMap<ICase, int[]>();
+		Map<Object, int[]> classCounts = new HashMap<Object, int[]>();
+		int processed = 0;
+		for (ICase theCase : cases) {
+			Object label = classifier.getLabel(theCase);
+			processed++;
+			int[] classCount = classCounts.get(label);
+			if (classCount == null) {
+				classCount = new int[1];
+				classCounts.put(label, classCount);
+			}
+			classCount[0]++;
+			if (kept.isEmpty()) {
+				kept.add(theCase);
+				records.put(theCase, new int[2]);
+				continue;
+			}
+			List<ICaseSimilarity> ranked = rank(theCase, kept);
+			ICaseSimilarity nearest = null;
+			for (ICaseSimilarity result : ranked) {
+				if (isAcceptable(result.getSimilarCase(), records, classCounts, processed)) {
+					nearest = result;
+					break;
+				}
+			}
+			if (nearest == null) {
+				nearest = ranked.get(random.nextInt(ranked.size()));
+			}
+			boolean correct = label == null ? classifier.getLabel(nearest.getSimilarCase()) == null
+					: label.equals(classifier.getLabel(nearest.getSimilarCase()));
+			// records of the kept cases at least as similar as the one that classified the case
+			for (ICaseSimilarity result : ranked) {
+				if (result.getValue() < nearest.getValue()) {
+					break;
+				}
+				ICase other = result.getSimilarCase();
+				int[] record = records.get(other);
+				Object otherLabel = classifier.getLabel(other);
+				record[1]++;
+				if (label == null ? otherLabel == null : label.equals(otherLabel)) {
+					record[0]++;
+				}
+				if (isPoor(other, records, classCounts, processed)) {
+					kept.remove(other);
+					records.remove(other);
+				}
+			}
+			if (!correct) {
+				kept.add(theCase);
+				records.put(theCase, new int[2]);
+			}
+		}
+		List<ICase> acceptable = new ArrayList<ICase>();
+		for (ICase theCase : kept) {
+			if (isAcceptable(theCase, records, classCounts, processed)) {
+				acceptable.add(theCase);
+			}
+		}
+		return acceptable.isEmpty() ? new ArrayList<ICase>(kept) : acceptable;
+	}
+
+	/**
+	 * @return every kept case, from the most to the least similar, equals in the order they were kept
+	 */
+	private List<ICaseSimilarity> rank(ICase theCase, Set<ICase> kept) {
+		Set<ICase> copy = Collections.unmodifiableSet(new LinkedHashSet<ICase>(kept));
+		return classifier.getAlgorithm().getMostSimilar(theCase, copy, copy.size(), Double.NEGATIVE_INFINITY,
+				classifier.getFeatures());
+	}
+
+	private boolean isAcceptable(ICase theCase, Map<ICase, int[]> records, Map<Object, int[]> classCounts,
+			int processed) {
+		int[] record = records.get(theCase);
+		double frequency = (double) classCounts.get(classifier.getLabel(theCase))[0] / processed;
+		return record[1] > 0
+				&& lowerBound((double) record[0] / record[1], record[1], ACCEPT_CONFIDENCE) > upperBound(frequency,
+						processed, ACCEPT_CONFIDENCE);
+	}
+
+	private boolean isPoor(ICase theCase, Map<ICase, int[]> records, Map<Object, int[]> classCounts,
+			int processed) {
+		int[] record = records.get(theCase);
+		double frequency = (double) classCounts.get(classifier.getLabel(theCase))[0] / processed;
+		return record[1] > 0
+				&& upperBound((double) record[0] / record[1], record[1], DROP_CONFIDENCE) < lowerBound(frequency,
+						processed, DROP_CONFIDENCE);
+	}
+
+	/**
+	 * Bounds of the confidence interval of a proportion used by IB3
+	 */
+	static double lowerBound(double p, int n, double z) {
+		return (p + z * z / (2 * n) - z * Math.sqrt(p * (1 - p) / n + z * z / (4.0 * n * n))) / (1 + z * z / n);
+	}
+
+	static double upperBound(double p, int n, double z) {
+		return (p + z * z / (2 * n) + z * Math.sqrt(p * (1 - p) / n + z * z / (4.0 * n * n))) / (1 + z * z / n);
+	}
+
+	public CbrClassifier getClassifier() {
+		return classifier;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @param seed
+	 *            Seed of the random choices of IB3
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+}
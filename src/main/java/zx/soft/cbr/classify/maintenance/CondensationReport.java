@@ -0,0 +1,135 @@
+package zx.soft.cbr.classify.maintenance;
+
+import java.util.Collections;
+import java.util.List;
+
+import zx.soft.cbr.classify.core.ICase;
+
+/**
+ * Reduced case base of a {@link Condensation} run, with the classification accuracy and mean query latency
+ * of the original and reduced case bases on the same test cases
+ *
+ * @author wanggang
+ *
+ */
+public class CondensationReport {
+
+	private final Condensation.Method method;
+
+	private final List<ICase> cases;
+
+	private final int originalSize;
+
+	private final double originalAccuracy;
+
+	private final double reducedAccuracy;
+
+	private final double originalMillis;
+
+	private final double reducedMillis;
+
+	private final double condenseMillis;
+
+	CondensationReport(Condensation.Method method, List<ICase> cases, int originalSize, double originalAccuracy,
+			double reducedAccuracy, double originalMillis, double reducedMillis, double condenseMillis) {
+		this.method = method;
+		this.cases = Collections.unmodifiableList(cases);
+		this.originalSize = originalSize;
+		this.originalAccuracy = originalAccuracy;
+		this.reducedAccuracy = reducedAccuracy;
+		this.originalMillis = originalMillis;
+		this.reducedMillis = reducedMillis;
+		this.condenseMillis = condenseMillis;
+	}
+
+	/**
+	 * @return one line per report, preceded by a header
+	 */
+	public static String format(List<CondensationReport> reports) {
+		StringBuilder builder = new StringBuilder(String.format("%-6s %9s %9s %9s %10s %10s %9s %8s %12s%n",
+				"method", "original", "reduced", "removed", "accuracy", "delta", "query ms", "speedup",
+				"condense ms"));
+		for (CondensationReport report : reports) {
+			builder.append(String.format("%-6s %9d %9d %8.1f%% %10.4f %+10.4f %9.3f %8.1f %12.1f%n",
+					report.method, report.originalSize, report.getReducedSize(), report.getReduction() * 100,
+					report.reducedAccuracy, report.getAccuracyDelta(), report.reducedMillis, report.getSpeedup(),
+					report.condenseMillis));
+		}
+		return builder.toString();
+	}
+
+	public Condensation.Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return reduced case base
+	 */
+	public List<ICase> getCases() {
+		return cases;
+	}
+
+	public int getOriginalSize() {
+		return originalSize;
+	}
+
+	public int getReducedSize() {
+		return cases.size();
+	}
+
+	/**
+	 * @return fraction of the cases removed, between 0 and 1
+	 */
+	public double getReduction() {
+		return originalSize == 0 ? 0 : 1 - (double) cases.size() / originalSize;
+	}
+
+	public double getOriginalAccuracy() {
+		return originalAccuracy;
+	}
+
+	public double getReducedAccuracy() {
+		return reducedAccuracy;
+	}
+
+	/**
+	 * @return reduced accuracy minus original accuracy
+	 */
+	public double getAccuracyDelta() {
+		return reducedAccuracy - originalAccuracy;
+	}
+
+	/**
+	 * @return mean latency of a query on the original case base, in milliseconds
+	 */
+	public double getOriginalMillis() {
+		return originalMillis;
+	}
+
+	/**
+	 * @return mean latency of a query on the reduced case base, in milliseconds
+	 */
+	public double getReducedMillis() {
+		return reducedMillis;
+	}
+
+	public double getSpeedup() {
+		return originalMillis / reducedMillis;
+	}
+
+	/**
+	 * @return time to reduce the case base, in milliseconds
+	 */
+	public double getCondenseMillis() {
+		return condenseMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "CondensationReport [" + method + ", originalSize=" + originalSize + ", reducedSize=" + cases.size()
+				+ ", originalAccuracy=" + originalAccuracy + ", reducedAccuracy=" + reducedAccuracy
+				+ ", originalMillis=" + originalMillis + ", reducedMillis=" + reducedMillis + ", condenseMillis="
+				+ condenseMillis + "]";
+	}
+
+}
@@ -0,0 +1,180 @@
+package zx.soft.cbr.classify.matrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.ParallelRetrieval;
+import zx.soft.cbr.classify.core.TopK;
+
+/**
+ * Top-k retrieval of many queries against one {@link CaseMatrix}. Queries are scored in tiles of
+ * {@link #QUERY_TILE} queries by {@link CaseMatrix#BLOCK_SIZE} rows: each block of a column is loaded once
+ * and scored for the whole query tile while it is still in cache, instead of being streamed from memory once
+ * per query.
+ *
+ * @author wanggang
+ *
+ */
+public class BatchRetrieval {
+
+	/**
+	 * Queries scored together against a block of rows
+	 */
+	public static final int QUERY_TILE = 16;
+
+	private final CaseMatrix matrix;
+
+	private final double[] numericWeights;
+
+	private final double[] numericRanges;
+
+	private final double[] nominalWeights;
+
+	public BatchRetrieval(CaseMatrix matrix) {
+		this.matrix = matrix;
+		this.numericWeights = new double[matrix.getNumericCount()];
+		this.numericRanges = new double[matrix.getNumericCount()];
+		this.nominalWeights = new double[matrix.getNominalCount()];
+		for (int f = 0; f < numericWeights.length; f++) {
+			numericWeights[f] = matrix.getNumericFeature(f).getWeight();
+			numericRanges[f] = matrix.getNumericFeature(f).getRange();
+		}
+		for (int f = 0; f < nominalWeights.length; f++) {
+			nominalWeights[f] = matrix.getNominalFeature(f).getWeight();
+		}
+	}
+
+	/**
+	 * @param queries
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return one heap of (row, similarity) pairs per query, sorted from the most to the least similar
+	 */
+	public TopK[] topK(CaseMatrix.Query[] queries, int k, double threshold) {
+		return sort(topK(queries, k, threshold, 0, matrix.size()));
+	}
+
+	/**
+	 * Parallel {@link #topK(CaseMatrix.Query[], int, double)}: chunks of rows are scored for every query by
+	 * the retrieval's workers and the heaps of each query merged
+	 */
+	public TopK[] topK(final CaseMatrix.Query[] queries, final int k, final double threshold,
+			ParallelRetrieval retrieval) {
+		return sort(retrieval.execute(matrix.size(), new ParallelRetrieval.ChunkTask<TopK[]>() {
+
+			public TopK[] compute(int from, int to) {
+				return topK(queries, k, threshold, from, to);
+			}
+
+			public TopK[] merge(TopK[] left, TopK[] right) {
+				for (int q = 0; q < left.length; q++) {
+					left[q].merge(right[q]);
+				}
+				return left;
+			}
+
+		}));
+	}
+
+	/**
+	 * @param queries
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return results of each query, ordered from the most to the least similar
+	 */
+	public List<List<ICaseSimilarity>> getMostSimilar(List<? extends ICase> queries, int k, double threshold) {
+		CaseMatrix.Query[] encoded = new CaseMatrix.Query[queries.size()];
+		for (int q = 0; q < encoded.length; q++) {
+			encoded[q] = matrix.query(queries.get(q));
+		}
+		TopK[] heaps = topK(encoded, k, threshold);
+		List<List<ICaseSimilarity>> result = new ArrayList<List<ICaseSimilarity>>(heaps.length);
+		for (int q = 0; q < heaps.length; q++) {
+			result.add(matrix.toList(queries.get(q), heaps[q]));
+		}
+		return result;
+	}
+
+	private TopK[] topK(CaseMatrix.Query[] queries, int k, double threshold, int from, int to) {
+		TopK[] heaps = new TopK[queries.length];
+		for (int q = 0; q < heaps.length; q++) {
+			heaps[q] = new TopK(k);
+		}
+		double[][] scores = new double[QUERY_TILE][CaseMatrix.BLOCK_SIZE];
+		for (int start = from; start < to; start += CaseMatrix.BLOCK_SIZE) {
+			int end = Math.min(start + CaseMatrix.BLOCK_SIZE, to);
+			for (int qFrom = 0; qFrom < queries.length; qFrom += QUERY_TILE) {
+				int qTo = Math.min(qFrom + QUERY_TILE, queries.length);
+				scoreTile(queries, qFrom, qTo, start, end, scores);
+				for (int q = qFrom; q < qTo; q++) {
+					double[] tile = scores[q - qFrom];
+					double scale = 100 / queries[q].getMaxScore();
+					for (int i = 0; i < end - start; i++) {
+						double similarity = tile[i] * scale;
+						if (similarity >= threshold) {
+							heaps[q].offer(start + i, similarity);
+						}
+					}
+				}
+			}
+		}
+		return heaps;
+	}
+
+	/**
+	 * Scores the rows [from, to) for the queries [qFrom, qTo), feature by feature so each column block is
+	 * read once per tile
+	 */
+	private void scoreTile(CaseMatrix.Query[] queries, int qFrom, int qTo, int from, int to, double[][] scores) {
+		int length = to - from;
+		for (int q = qFrom; q < qTo; q++) {
+			double[] tile = scores[q - qFrom];
+			for (int i = 0; i < length; i++) {
+				tile[i] = 0;
+			}
+		}
+		SimilarityKernel kernel = matrix.getKernel();
+		for (int f = 0; f < numericWeights.length; f++) {
+			double[] column = matrix.getNumericColumn(f);
+			for (int q = qFrom; q < qTo; q++) {
+				double value = queries[q].getNumber(f);
+				if (!Double.isNaN(value)) {
+					kernel.accumulateRangeSimilarity(value, column, from, numericRanges[f], numericWeights[f],
+							scores[q - qFrom], length);
+				}
+			}
+		}
+		for (int f = 0; f < nominalWeights.length; f++) {
+			int[] column = matrix.getNominalColumn(f);
+			double weight = nominalWeights[f];
+			for (int q = qFrom; q < qTo; q++) {
+				int code = queries[q].getCode(f);
+				if (code < 0) {
+					continue;
+				}
+				double[] tile = scores[q - qFrom];
+				for (int i = 0; i < length; i++) {
+					if (column[from + i] == code) {
+						tile[i] += weight;
+					}
+				}
+			}
+		}
+	}
+
+	private static TopK[] sort(TopK[] heaps) {
+		for (TopK heap : heaps) {
+			heap.sort();
+		}
+		return heaps;
+	}
+
+	public CaseMatrix getMatrix() {
+		return matrix;
+	}
+
+}
@@ -0,0 +1,320 @@
+package zx.soft.cbr.classify.matrix;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import zx.soft.cbr.classify.core.FeatureImpl;
+import zx.soft.cbr.classify.core.IFeature;
+
+/**
+ * Binary file format of a columnar case base, opened through {@link FileChannel#map} so a case base is
+ * available without rebuilding it from its cases.
+ * <p>
+ * Layout: a header written with {@link DataOutputStream} (magic, version, offset of the first column, row
+ * count, feature counts), the feature schema (attribute, weight and range of each feature, followed for
+ * nominal features by the dictionary values in code order), the class attribute of a labelled matrix with its
+ * dictionary, padding to 8 bytes, then one block per column in little-endian order: the numeric columns as
+ * doubles (NaN when missing), then the nominal columns as int codes ({@link NominalDictionary#MISSING} when
+ * missing), then the class codes of the rows. Every column is mapped on its own, so a column may hold up to
+ * 2GB. Files of version 1, without class, are still read.
+ * <p>
+ * Dictionary values may be strings, boxed primitives or enum constants.
+ *
+ * @author wanggang
+ *
+ */
+public class CaseBaseFile {
+
+	/**
+	 * "CBRM"
+	 */
+	public static final int MAGIC = 0x4342524D;
+
+	public static final int VERSION = 2;
+
+	/**
+	 * Version without class attribute
+	 */
+	private static final int VERSION_UNLABELLED = 1;
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private CaseBaseFile() {
+	}
+
+	/**
+	 * Writes the rows, class codes and schema of a matrix, source cases are not stored
+	 *
+	 * @param matrix
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(CaseMatrix matrix, File file) throws IOException {
+		ByteArrayOutputStream schema = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(schema);
+		out.writeInt(matrix.size());
+		out.writeInt(matrix.getNumericCount());
+		out.writeInt(matrix.getNominalCount());
+		for (int f = 0; f < matrix.getNumericCount(); f++) {
+			writeFeature(out, matrix.getNumericFeature(f));
+		}
+		for (int f = 0; f < matrix.getNominalCount(); f++) {
+			writeFeature(out, matrix.getNominalFeature(f));
+			writeDictionary(out, matrix.getDictionary(f));
+		}
+		out.writeBoolean(matrix.hasLabels());
+		if (matrix.hasLabels()) {
+			out.writeUTF(matrix.getClassAttribute());
+			writeDictionary(out, matrix.getClassDictionary());
+		}
+		out.flush();
+		// magic, version and the data offset itself
+		long headerLength = 4 + 4 + 8 + schema.size();
+		long dataOffset = (headerLength + 7) & ~7L;
+		FileOutputStream stream = new FileOutputStream(file);
+		try {
+			DataOutputStream header = new DataOutputStream(stream);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(dataOffset);
+			schema.writeTo(header);
+			for (long i = headerLength; i < dataOffset; i++) {
+				header.writeByte(0);
+			}
+			header.flush();
+			FileChannel channel = stream.getChannel();
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (int f = 0; f < matrix.getNumericCount(); f++) {
+				double[] column = matrix.getNumericColumn(f);
+				for (int row = 0; row < matrix.size(); row++) {
+					if (chunk.remaining() < 8) {
+						flush(chunk, channel);
+					}
+					chunk.putDouble(column[row]);
+				}
+			}
+			for (int f = 0; f < matrix.getNominalCount(); f++) {
+				int[] column = matrix.getNominalColumn(f);
+				for (int row = 0; row < matrix.size(); row++) {
+					if (chunk.remaining() < 4) {
+						flush(chunk, channel);
+					}
+					chunk.putInt(column[row]);
+				}
+			}
+			if (matrix.hasLabels()) {
+				int[] labels = matrix.getLabels();
+				for (int row = 0; row < matrix.size(); row++) {
+					if (chunk.remaining() < 4) {
+						flush(chunk, channel);
+					}
+					chunk.putInt(labels[row]);
+				}
+			}
+			flush(chunk, channel);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static void flush(ByteBuffer chunk, FileChannel channel) throws IOException {
+		chunk.flip();
+		while (chunk.hasRemaining()) {
+			channel.write(chunk);
+		}
+		chunk.clear();
+	}
+
+	/**
+	 * Maps a case base file, reading only its header and schema
+	 *
+	 * @param file
+	 * @return case base over the mapped columns
+	 * @throws IOException
+	 *             when the file cannot be read or is not a case base file
+	 */
+	public static MappedCaseBase open(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long dataOffset;
+		int rows;
+		IFeature[] numericFeatures;
+		IFeature[] nominalFeatures;
+		NominalDictionary[] dictionaries;
+		String classAttribute = null;
+		NominalDictionary classDictionary = null;
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a case base file: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION && version != VERSION_UNLABELLED) {
+				throw new IOException("Unsupported case base file version " + version + ": " + file);
+			}
+			dataOffset = in.readLong();
+			rows = in.readInt();
+			numericFeatures = new IFeature[in.readInt()];
+			nominalFeatures = new IFeature[in.readInt()];
+			dictionaries = new NominalDictionary[nominalFeatures.length];
+			for (int f = 0; f < numericFeatures.length; f++) {
+				numericFeatures[f] = readFeature(in);
+			}
+			for (int f = 0; f < nominalFeatures.length; f++) {
+				nominalFeatures[f] = readFeature(in);
+				dictionaries[f] = readDictionary(in);
+			}
+			if (version != VERSION_UNLABELLED && in.readBoolean()) {
+				classAttribute = in.readUTF();
+				classDictionary = readDictionary(in);
+			}
+		} finally {
+			in.close();
+		}
+		DoubleBuffer[] numeric = new DoubleBuffer[numericFeatures.length];
+		IntBuffer[] nominal = new IntBuffer[nominalFeatures.length];
+		IntBuffer labels = null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			int intColumns = nominal.length + (classAttribute == null ? 0 : 1);
+			long expected = dataOffset + (long) rows * (8L * numeric.length + 4L * intColumns);
+			if (channel.size() < expected) {
+				throw new IOException("Truncated case base file, " + channel.size() + " bytes instead of "
+						+ expected + ": " + file);
+			}
+			long position = dataOffset;
+			for (int f = 0; f < numeric.length; f++) {
+				numeric[f] = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * rows)
+						.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+				position += 8L * rows;
+			}
+			for (int f = 0; f < nominal.length; f++) {
+				nominal[f] = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * rows)
+						.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+				position += 4L * rows;
+			}
+			if (classAttribute != null) {
+				labels = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * rows)
+						.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			}
+		} finally {
+			// mappings stay valid once the channel is closed
+			raf.close();
+		}
+		return new MappedCaseBase(numericFeatures, nominalFeatures, dictionaries, numeric, nominal, rows,
+				classAttribute, classDictionary, labels);
+	}
+
+	private static void writeFeature(DataOutputStream out, IFeature feature) throws IOException {
+		out.writeUTF(feature.getAttribute());
+		out.writeDouble(feature.getWeight());
+		out.writeDouble(feature.getRange());
+	}
+
+	private static IFeature readFeature(DataInputStream in) throws IOException {
+		return new FeatureImpl(in.readUTF(), in.readDouble(), in.readDouble());
+	}
+
+	private static void writeDictionary(DataOutputStream out, NominalDictionary dictionary) throws IOException {
+		out.writeInt(dictionary.size());
+		for (int code = 0; code < dictionary.size(); code++) {
+			writeValue(out, dictionary.decode(code));
+		}
+	}
+
+	private static NominalDictionary readDictionary(DataInputStream in) throws IOException {
+		NominalDictionary dictionary = new NominalDictionary();
+		int values = in.readInt();
+		for (int code = 0; code < values; code++) {
+			dictionary.encode(readValue(in));
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Writes a dictionary value with a one byte type tag
+	 */
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte('L');
+			out.writeUTF((String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte('I');
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte('J');
+			out.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte('D');
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte('F');
+			out.writeFloat((Float) value);
+		} else if (value instanceof Short) {
+			out.writeByte('S');
+			out.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte('B');
+			out.writeByte((Byte) value);
+		} else if (value instanceof Character) {
+			out.writeByte('C');
+			out.writeChar((Character) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte('Z');
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Enum) {
+			out.writeByte('E');
+			out.writeUTF(((Enum<?>) value).getDeclaringClass().getName());
+			out.writeUTF(((Enum<?>) value).name());
+		} else {
+			throw new IllegalArgumentException("Nominal value cannot be stored: " + value.getClass().getName());
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object readValue(DataInputStream in) throws IOException {
+		int tag = in.readByte();
+		switch (tag) {
+		case 'L':
+			return in.readUTF();
+		case 'I':
+			return in.readInt();
+		case 'J':
+			return in.readLong();
+		case 'D':
+			return in.readDouble();
+		case 'F':
+			return in.readFloat();
+		case 'S':
+			return in.readShort();
+		case 'B':
+			return in.readByte();
+		case 'C':
+			return in.readChar();
+		case 'Z':
+			return in.readBoolean();
+		case 'E':
+			String className = in.readUTF();
+			String name = in.readUTF();
+			try {
+				return Enum.valueOf((Class) Class.forName(className), name);
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Enum class of a nominal value not found: " + className, e);
+			}
+		default:
+			throw new IOException("Unknown nominal value tag: " + tag);
+		}
+	}
+
+}
@@ -0,0 +1,796 @@
+package zx.soft.cbr.classify.matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import zx.soft.cbr.classify.core.CaseSimilarityImpl;
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+import zx.soft.cbr.classify.core.FeatureImpl;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.IFeatureComparator;
+import zx.soft.cbr.classify.core.ParallelRetrieval;
+import zx.soft.cbr.classify.core.ScoringPlan;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.utils.ExtractorUtil;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Columnar case base. Cases are ingested once: numeric features go to double[] columns (NaN when missing)
+ * and nominal features to dictionary-encoded int[] columns, so scoring runs in tight loops over primitive
+ * arrays. Scores follow {@link zx.soft.cbr.classify.core.FeatureSimilarity} with the default comparator.
+ *
+ * @author wanggang
+ *
+ */
+@SuppressWarnings("rawtypes")
+public class CaseMatrix {
+
+	/**
+	 * Rows scored together by the blocked scans, small enough for the scores to stay in L1 cache
+	 */
+	public static final int BLOCK_SIZE = 1024;
+
+	private final IFeature[] numericFeatures;
+
+	private final IFeature[] nominalFeatures;
+
+	private final double[] numericWeights;
+
+	private final double[] numericRanges;
+
+	private final double[] numericReciprocals;
+
+	private final double[] nominalWeights;
+
+	private final NominalDictionary[] dictionaries;
+
+	/**
+	 * numeric[feature][row]
+	 */
+	private final double[][] numeric;
+
+	/**
+	 * nominal[feature][row]
+	 */
+	private final int[][] nominal;
+
+	private final ICase[] cases;
+
+	/**
+	 * Class code of each row, null when the matrix has no class attribute
+	 */
+	private final int[] labels;
+
+	private final String classAttribute;
+
+	private final NominalDictionary classDictionary;
+
+	private final int size;
+
+	private SimilarityKernel kernel = SimilarityKernel.getDefault();
+
+	private CaseMatrix(Builder builder) {
+		this.size = builder.size;
+		this.numericFeatures = builder.numericFeatures.toArray(new IFeature[builder.numericFeatures.size()]);
+		this.nominalFeatures = builder.nominalFeatures.toArray(new IFeature[builder.nominalFeatures.size()]);
+		this.dictionaries = builder.dictionaries.toArray(new NominalDictionary[builder.dictionaries.size()]);
+		this.numericWeights = new double[numericFeatures.length];
+		this.numericRanges = new double[numericFeatures.length];
+		this.numericReciprocals = new double[numericFeatures.length];
+		this.nominalWeights = new double[nominalFeatures.length];
+		for (int f = 0; f < numericFeatures.length; f++) {
+			numericWeights[f] = numericFeatures[f].getWeight();
+			numericRanges[f] = numericFeatures[f].getRange();
+			numericReciprocals[f] = DefaultFeatureComparator.reciprocal(numericRanges[f]);
+		}
+		for (int f = 0; f < nominalFeatures.length; f++) {
+			nominalWeights[f] = nominalFeatures[f].getWeight();
+		}
+		this.numeric = new double[numericFeatures.length][];
+		this.nominal = new int[nominalFeatures.length][];
+		for (int f = 0; f < numeric.length; f++) {
+			numeric[f] = Arrays.copyOf(builder.numeric[f], size);
+		}
+		for (int f = 0; f < nominal.length; f++) {
+			nominal[f] = Arrays.copyOf(builder.nominal[f], size);
+		}
+		this.cases = builder.hasCases ? Arrays.copyOf(builder.cases, size) : null;
+		this.classAttribute = builder.classAttribute;
+		this.classDictionary = builder.classDictionary;
+		this.labels = builder.classDictionary == null ? null : Arrays.copyOf(builder.labels, size);
+	}
+
+	/**
+	 * Ingests the cases into columns. Numeric attributes (primitive numbers or {@link Number}) become
+	 * numeric columns, any other attribute a nominal column
+	 *
+	 * @param cases
+	 *            Case base
+	 * @param features
+	 *            Features to be stored, unselected ones are ignored
+	 * @return matrix
+	 */
+	public static CaseMatrix build(Collection<? extends ICase> cases, Collection<IFeature> features) {
+		if (cases.isEmpty()) {
+			throw new IllegalArgumentException("Empty case base");
+		}
+		ScoringPlan plan = ScoringPlan.getPlan(cases.iterator().next().getClass(), features);
+		Builder builder = new Builder(cases.size());
+		List<FeatureExtractor> numericExtractors = new ArrayList<FeatureExtractor>();
+		List<FeatureExtractor> nominalExtractors = new ArrayList<FeatureExtractor>();
+		for (int i = 0; i < plan.size(); i++) {
+			IFeatureComparator comparator = plan.getComparator(i);
+			if (comparator != null && !(comparator instanceof DefaultFeatureComparator)) {
+				throw new UnsupportedOperationException("Columnar scoring only applies the default comparator: "
+						+ plan.getFeature(i));
+			}
+			if (plan.getExtractor(i).isNumeric()) {
+				builder.addNumericFeature(plan.getFeature(i));
+				numericExtractors.add(plan.getExtractor(i));
+			} else {
+				builder.addNominalFeature(plan.getFeature(i));
+				nominalExtractors.add(plan.getExtractor(i));
+			}
+		}
+		double[] numbers = new double[numericExtractors.size()];
+		int[] codes = new int[nominalExtractors.size()];
+		for (ICase aCase : cases) {
+			for (int f = 0; f < numbers.length; f++) {
+				numbers[f] = numericExtractors.get(f).getDouble(aCase);
+			}
+			for (int f = 0; f < codes.length; f++) {
+				codes[f] = builder.getDictionary(f).encode(nominalExtractors.get(f).get(aCase));
+			}
+			builder.addRow(numbers, codes, aCase);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Extracts and encodes the feature values of a query case
+	 *
+	 * @param theCase
+	 * @return query
+	 */
+	public Query query(ICase theCase) {
+		return query(theCase, numericFeatures, nominalFeatures, dictionaries);
+	}
+
+	/**
+	 * Query encoding shared by the columnar case bases
+	 */
+	static Query query(ICase theCase, IFeature[] numericFeatures, IFeature[] nominalFeatures,
+			NominalDictionary[] dictionaries) {
+		double[] numbers = new double[numericFeatures.length];
+		int[] codes = new int[nominalFeatures.length];
+		double maxScore = 0;
+		for (int f = 0; f < numbers.length; f++) {
+			FeatureExtractor extractor = getExtractor(numericFeatures[f], theCase);
+			if (extractor.isPrimitive()) {
+				numbers[f] = extractor.getDouble(theCase);
+				maxScore += numericFeatures[f].getWeight();
+			} else {
+				Object value = extractor.get(theCase);
+				numbers[f] = value == null ? Double.NaN : ((Number) value).doubleValue();
+				if (value != null) {
+					maxScore += numericFeatures[f].getWeight();
+				}
+			}
+		}
+		for (int f = 0; f < codes.length; f++) {
+			codes[f] = dictionaries[f].lookup(getExtractor(nominalFeatures[f], theCase).get(theCase));
+			if (codes[f] != NominalDictionary.MISSING) {
+				maxScore += nominalFeatures[f].getWeight();
+			}
+		}
+		return new Query(theCase, numbers, codes, maxScore);
+	}
+
+	private static FeatureExtractor getExtractor(IFeature feature, ICase theCase) {
+		FeatureExtractor extractor = ExtractorUtil.getExtractor(feature.getAttribute(), theCase.getClass());
+		if (extractor == null) {
+			throw new IllegalArgumentException("Feature has no getter in " + theCase.getClass().getName() + ": "
+					+ feature.getAttribute());
+		}
+		return extractor;
+	}
+
+	/**
+	 * @param query
+	 * @param row
+	 * @return weighted sum of the feature similarities of one row
+	 */
+	public double score(Query query, int row) {
+		double score = 0;
+		for (int f = 0; f < numeric.length; f++) {
+			score += DefaultFeatureComparator.similar(query.numbers[f], numeric[f][row], numericRanges[f],
+					numericReciprocals[f]) * numericWeights[f];
+		}
+		for (int f = 0; f < nominal.length; f++) {
+			int code = query.codes[f];
+			if (code >= 0 && nominal[f][row] == code) {
+				score += nominalWeights[f];
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Scores every row column by column
+	 *
+	 * @param query
+	 * @param scores
+	 *            Receives the weighted sum of each row, at least {@link #size()} long
+	 */
+	public void scoreAll(Query query, double[] scores) {
+		scoreRange(query, 0, size, scores);
+	}
+
+	/**
+	 * Scores a range of rows column by column
+	 *
+	 * @param query
+	 * @param from
+	 *            First row, inclusive
+	 * @param to
+	 *            Last row, exclusive
+	 * @param scores
+	 *            Receives the weighted sum of row from + i at index i
+	 */
+	public void scoreRange(Query query, int from, int to, double[] scores) {
+		int length = to - from;
+		Arrays.fill(scores, 0, length, 0);
+		for (int f = 0; f < numeric.length; f++) {
+			double q = query.numbers[f];
+			if (Double.isNaN(q)) {
+				continue;
+			}
+			kernel.accumulateRangeSimilarity(q, numeric[f], from, numericRanges[f], numericWeights[f], scores, length);
+		}
+		for (int f = 0; f < nominal.length; f++) {
+			int code = query.codes[f];
+			if (code < 0) {
+				continue;
+			}
+			int[] column = nominal[f];
+			double weight = nominalWeights[f];
+			for (int i = 0; i < length; i++) {
+				if (column[from + i] == code) {
+					scores[i] += weight;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the k most similar rows, scoring blocks of {@link #BLOCK_SIZE} rows so memory stays O(k)
+	 *
+	 * @param query
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return heap of (row, similarity) pairs, sorted from the most to the least similar
+	 */
+	public TopK topK(Query query, int k, double threshold) {
+		return topK(query, 0, size, new TopK(k), threshold).sort();
+	}
+
+	/**
+	 * Offers the rows of a range to a heap, without sorting it
+	 *
+	 * @param query
+	 * @param from
+	 *            First row, inclusive
+	 * @param to
+	 *            Last row, exclusive
+	 * @param topK
+	 * @param threshold
+	 *            Minimum similarity in percent
+	 * @return the heap
+	 */
+	public TopK topK(Query query, int from, int to, TopK topK, double threshold) {
+		double[] scores = new double[Math.min(BLOCK_SIZE, Math.max(to - from, 0))];
+		double scale = 100 / query.maxScore;
+		for (int start = from; start < to; start += BLOCK_SIZE) {
+			int end = Math.min(start + BLOCK_SIZE, to);
+			scoreRange(query, start, end, scores);
+			for (int i = 0; i < end - start; i++) {
+				double similarity = scores[i] * scale;
+				if (similarity >= threshold) {
+					topK.offer(start + i, similarity);
+				}
+			}
+		}
+		return topK;
+	}
+
+	/**
+	 * Parallel {@link #topK(Query, int, double)}: chunks of rows are scanned by the retrieval's workers and
+	 * their heaps merged
+	 *
+	 * @param query
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @param retrieval
+	 * @return heap of (row, similarity) pairs, sorted from the most to the least similar
+	 */
+	public TopK topK(final Query query, final int k, final double threshold, ParallelRetrieval retrieval) {
+		return retrieval.execute(size, new ParallelRetrieval.ChunkTask<TopK>() {
+
+			public TopK compute(int from, int to) {
+				return topK(query, from, to, new TopK(k), threshold);
+			}
+
+			public TopK merge(TopK left, TopK right) {
+				left.merge(right);
+				return left;
+			}
+
+		}).sort();
+	}
+
+	/**
+	 * Parallel {@link #getSimilarity(ICase, double)}
+	 *
+	 * @param theCase
+	 * @param threshold
+	 *            Minimum similarity, in percent
+	 * @param retrieval
+	 * @return cases at or above the threshold
+	 */
+	public Set<ICaseSimilarity> getSimilarity(final ICase theCase, final double threshold,
+			ParallelRetrieval retrieval) {
+		checkCases();
+		final Query query = query(theCase);
+		List<ICaseSimilarity> result = retrieval.execute(size,
+				new ParallelRetrieval.ChunkTask<List<ICaseSimilarity>>() {
+
+			public List<ICaseSimilarity> compute(int from, int to) {
+				List<ICaseSimilarity> partial = new ArrayList<ICaseSimilarity>();
+				double[] scores = new double[Math.min(BLOCK_SIZE, to - from)];
+				for (int start = from; start < to; start += BLOCK_SIZE) {
+					int end = Math.min(start + BLOCK_SIZE, to);
+					scoreRange(query, start, end, scores);
+					for (int i = 0; i < end - start; i++) {
+						double similarity = scores[i] * 100 / query.maxScore;
+						if (similarity >= threshold) {
+							partial.add(new CaseSimilarityImpl(similarity, theCase, cases[start + i]));
+						}
+					}
+				}
+				return partial;
+			}
+
+			public List<ICaseSimilarity> merge(List<ICaseSimilarity> left, List<ICaseSimilarity> right) {
+				left.addAll(right);
+				return left;
+			}
+
+		});
+		return new HashSet<ICaseSimilarity>(result);
+	}
+
+	/**
+	 * Parallel {@link #getMostSimilar(ICase, int, double)}
+	 *
+	 * @param theCase
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @param retrieval
+	 * @return results ordered from the most to the least similar
+	 */
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, int k, double threshold, ParallelRetrieval retrieval) {
+		checkCases();
+		return toList(theCase, topK(query(theCase), k, threshold, retrieval));
+	}
+
+	/**
+	 * Same contract as {@link zx.soft.cbr.classify.core.ISimilarityAlgorithm#getMostSimilar}, over the stored
+	 * cases
+	 *
+	 * @param theCase
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return results ordered from the most to the least similar
+	 */
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, int k, double threshold) {
+		checkCases();
+		return toList(theCase, topK(query(theCase), k, threshold));
+	}
+
+	/**
+	 * @param theCase
+	 * @param topK
+	 *            Sorted heap of rows
+	 * @return results of the rows, in heap order
+	 */
+	public List<ICaseSimilarity> toList(ICase theCase, TopK topK) {
+		checkCases();
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(topK.size());
+		for (int i = 0; i < topK.size(); i++) {
+			result.add(new CaseSimilarityImpl(topK.score(i), theCase, cases[topK.id(i)]));
+		}
+		return result;
+	}
+
+	private void checkCases() {
+		if (cases == null) {
+			throw new UnsupportedOperationException("Matrix was not built from ICase instances");
+		}
+	}
+
+	/**
+	 * @param query
+	 * @param row
+	 * @return score of the row as a percentage of the query's maximum score
+	 */
+	public double similarity(Query query, int row) {
+		return score(query, row) * 100 / query.maxScore;
+	}
+
+	/**
+	 * Same contract as {@link zx.soft.cbr.classify.core.ISimilarityAlgorithm#getSimilarity}, over the stored
+	 * cases
+	 *
+	 * @param theCase
+	 * @param threshold
+	 *            Minimum similarity, in percent
+	 * @return cases at or above the threshold
+	 */
+	public Set<ICaseSimilarity> getSimilarity(ICase theCase, double threshold) {
+		checkCases();
+		Query query = query(theCase);
+		double[] scores = new double[size];
+		scoreAll(query, scores);
+		Set<ICaseSimilarity> result = new HashSet<ICaseSimilarity>();
+		for (int row = 0; row < size; row++) {
+			double similarity = scores[row] * 100 / query.maxScore;
+			if (similarity >= threshold) {
+				result.add(new CaseSimilarityImpl(similarity, theCase, cases[row]));
+			}
+		}
+		return result;
+	}
+
+	public SimilarityKernel getKernel() {
+		return kernel;
+	}
+
+	/**
+	 * Replaces the kernel of the column scans, e.g. by {@link SimilarityKernel#scalar()}
+	 *
+	 * @param kernel
+	 */
+	public void setKernel(SimilarityKernel kernel) {
+		this.kernel = kernel;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getNumericCount() {
+		return numeric.length;
+	}
+
+	public int getNominalCount() {
+		return nominal.length;
+	}
+
+	public IFeature getNumericFeature(int f) {
+		return numericFeatures[f];
+	}
+
+	public IFeature getNominalFeature(int f) {
+		return nominalFeatures[f];
+	}
+
+	/**
+	 * @return numeric features followed by nominal features
+	 */
+	public List<IFeature> getFeatures() {
+		List<IFeature> features = new ArrayList<IFeature>(numericFeatures.length + nominalFeatures.length);
+		features.addAll(Arrays.asList(numericFeatures));
+		features.addAll(Arrays.asList(nominalFeatures));
+		return features;
+	}
+
+	public NominalDictionary getDictionary(int f) {
+		return dictionaries[f];
+	}
+
+	/**
+	 * @param f
+	 * @return column of a numeric feature, not to be modified
+	 */
+	public double[] getNumericColumn(int f) {
+		return numeric[f];
+	}
+
+	/**
+	 * @param f
+	 * @return column of a nominal feature, not to be modified
+	 */
+	public int[] getNominalColumn(int f) {
+		return nominal[f];
+	}
+
+	/**
+	 * @param row
+	 * @return source case of the row, null when the matrix was not built from ICase instances
+	 */
+	public ICase getCase(int row) {
+		return cases == null ? null : cases[row];
+	}
+
+	/**
+	 * @return true when the rows carry the codes of a class attribute
+	 */
+	public boolean hasLabels() {
+		return labels != null;
+	}
+
+	/**
+	 * @param row
+	 * @return class code of the row in {@link #getClassDictionary()}, {@link NominalDictionary#MISSING} when
+	 *         unknown
+	 */
+	public int getLabel(int row) {
+		return labels[row];
+	}
+
+	/**
+	 * @return class codes of the rows, not to be modified, null without class attribute
+	 */
+	public int[] getLabels() {
+		return labels;
+	}
+
+	public String getClassAttribute() {
+		return classAttribute;
+	}
+
+	public NominalDictionary getClassDictionary() {
+		return classDictionary;
+	}
+
+	@Override
+	public String toString() {
+		return "CaseMatrix(" + size + " x " + getFeatures() + ")";
+	}
+
+	/**
+	 * Encoded feature values of a query case
+	 */
+	public static class Query {
+
+		private final ICase theCase;
+
+		private final double[] numbers;
+
+		private final int[] codes;
+
+		private final double maxScore;
+
+		Query(ICase theCase, double[] numbers, int[] codes, double maxScore) {
+			this.theCase = theCase;
+			this.numbers = numbers;
+			this.codes = codes;
+			this.maxScore = maxScore;
+		}
+
+		public ICase getCase() {
+			return theCase;
+		}
+
+		public double getNumber(int f) {
+			return numbers[f];
+		}
+
+		public int getCode(int f) {
+			return codes[f];
+		}
+
+		public double getMaxScore() {
+			return maxScore;
+		}
+
+	}
+
+	/**
+	 * Row by row construction of a {@link CaseMatrix}. Features are declared first, then rows are appended
+	 * into growing columns
+	 */
+	public static class Builder {
+
+		private final List<IFeature> numericFeatures = new ArrayList<IFeature>();
+
+		private final List<IFeature> nominalFeatures = new ArrayList<IFeature>();
+
+		private final List<NominalDictionary> dictionaries = new ArrayList<NominalDictionary>();
+
+		private double[][] numeric;
+
+		private int[][] nominal;
+
+		private ICase[] cases;
+
+		private int[] labels;
+
+		private String classAttribute;
+
+		private NominalDictionary classDictionary;
+
+		private boolean hasCases;
+
+		private int capacity;
+
+		private int size;
+
+		public Builder() {
+			this(16);
+		}
+
+		public Builder(int capacity) {
+			this.capacity = Math.max(capacity, 1);
+		}
+
+		/**
+		 * @param feature
+		 * @return index of the numeric column
+		 */
+		public int addNumericFeature(IFeature feature) {
+			checkSchema();
+			numericFeatures.add(new FeatureImpl(feature.getAttribute(), feature.getWeight(), feature.getRange()));
+			return numericFeatures.size() - 1;
+		}
+
+		/**
+		 * @param feature
+		 * @return index of the nominal column
+		 */
+		public int addNominalFeature(IFeature feature) {
+			return addNominalFeature(feature, new NominalDictionary());
+		}
+
+		/**
+		 * @param feature
+		 * @param dictionary
+		 *            Dictionary already holding the declared values of the feature
+		 * @return index of the nominal column
+		 */
+		public int addNominalFeature(IFeature feature, NominalDictionary dictionary) {
+			checkSchema();
+			nominalFeatures.add(new FeatureImpl(feature.getAttribute(), feature.getWeight(), feature.getRange()));
+			dictionaries.add(dictionary);
+			return nominalFeatures.size() - 1;
+		}
+
+		/**
+		 * Declares the class attribute, whose codes are passed to
+		 * {@link #addRow(double[], int[], int, ICase)}
+		 *
+		 * @param attribute
+		 * @param dictionary
+		 *            Dictionary of the class values
+		 * @return this builder
+		 */
+		public Builder setClass(String attribute, NominalDictionary dictionary) {
+			checkSchema();
+			this.classAttribute = attribute;
+			this.classDictionary = dictionary;
+			return this;
+		}
+
+		public NominalDictionary getClassDictionary() {
+			return classDictionary;
+		}
+
+		/**
+		 * Replaces the range of a numeric feature, e.g. once it is known from the rows
+		 *
+		 * @param f
+		 * @param range
+		 * @return this builder
+		 */
+		public Builder setNumericRange(int f, double range) {
+			IFeature feature = numericFeatures.get(f);
+			numericFeatures.set(f, new FeatureImpl(feature.getAttribute(), feature.getWeight(), range));
+			return this;
+		}
+
+		private void checkSchema() {
+			if (numeric != null) {
+				throw new IllegalStateException("Features must be declared before the first row");
+			}
+		}
+
+		public NominalDictionary getDictionary(int f) {
+			return dictionaries.get(f);
+		}
+
+		/**
+		 * Appends a row, copying the values
+		 *
+		 * @param numbers
+		 *            Numeric values, NaN when missing
+		 * @param codes
+		 *            Codes from {@link #getDictionary(int)}, {@link NominalDictionary#MISSING} when missing
+		 * @param theCase
+		 *            Source case, may be null
+		 * @return this builder
+		 */
+		public Builder addRow(double[] numbers, int[] codes, ICase theCase) {
+			return addRow(numbers, codes, NominalDictionary.MISSING, theCase);
+		}
+
+		/**
+		 * Appends a row with its class, copying the values
+		 *
+		 * @param numbers
+		 *            Numeric values, NaN when missing
+		 * @param codes
+		 *            Codes from {@link #getDictionary(int)}, {@link NominalDictionary#MISSING} when missing
+		 * @param label
+		 *            Code from {@link #getClassDictionary()}, {@link NominalDictionary#MISSING} when unknown
+		 * @param theCase
+		 *            Source case, may be null
+		 * @return this builder
+		 */
+		public Builder addRow(double[] numbers, int[] codes, int label, ICase theCase) {
+			if (numeric == null) {
+				numeric = new double[numericFeatures.size()][capacity];
+				nominal = new int[nominalFeatures.size()][capacity];
+				cases = new ICase[capacity];
+				labels = new int[capacity];
+			}
+			if (size == capacity) {
+				capacity = capacity + (capacity >> 1) + 1;
+				for (int f = 0; f < numeric.length; f++) {
+					numeric[f] = Arrays.copyOf(numeric[f], capacity);
+				}
+				for (int f = 0; f < nominal.length; f++) {
+					nominal[f] = Arrays.copyOf(nominal[f], capacity);
+				}
+				cases = Arrays.copyOf(cases, capacity);
+				labels = Arrays.copyOf(labels, capacity);
+			}
+			for (int f = 0; f < numeric.length; f++) {
+				numeric[f][size] = numbers[f];
+			}
+			for (int f = 0; f < nominal.length; f++) {
+				nominal[f][size] = codes[f];
+			}
+			cases[size] = theCase;
+			labels[size] = label;
+			hasCases |= theCase != null;
+			size++;
+			return this;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public CaseMatrix build() {
+			if (numeric == null) {
+				numeric = new double[numericFeatures.size()][0];
+				nominal = new int[nominalFeatures.size()][0];
+				cases = new ICase[0];
+				labels = new int[0];
+			}
+			return new CaseMatrix(this);
+		}
+
+	}
+
+}
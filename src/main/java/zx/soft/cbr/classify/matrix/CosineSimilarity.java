@@ -0,0 +1,29 @@
+package zx.soft.cbr.classify.matrix;
+
+/**
+ * cosine measure of matlab/src/SimilarityMeasures.m: 100 times the cosine of the angle between the weighted
+ * vectors of the query and a case, from their dot product and precomputed norms. A case or query without any
+ * value scores 0
+ *
+ * @author wanggang
+ *
+ */
+public class CosineSimilarity extends VectorSimilarity {
+
+	public CosineSimilarity() {
+		super();
+	}
+
+	public CosineSimilarity(SimilarityKernel kernel) {
+		super(kernel);
+	}
+
+	@Override
+	protected double similarity(double dot, double queryNorm, double caseNorm) {
+		if (queryNorm == 0 || caseNorm == 0) {
+			return 0;
+		}
+		return dot * 100 / (queryNorm * caseNorm);
+	}
+
+}
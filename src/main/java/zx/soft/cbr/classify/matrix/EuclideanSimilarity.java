@@ -0,0 +1,32 @@
+package zx.soft.cbr.classify.matrix;
+
+/**
+ * eucledean measure of matlab/src/SimilarityMeasures.m: the weighted Euclidean distance d between the query
+ * and a case, accumulated as the sum of the squared coordinate differences, is turned into the similarity
+ * 100 / (1 + d), so identical vectors score 100 and the threshold and top-k contract of
+ * {@link zx.soft.cbr.classify.core.ISimilarityAlgorithm} applies unchanged
+ *
+ * @author wanggang
+ *
+ */
+public class EuclideanSimilarity extends VectorSimilarity {
+
+	public EuclideanSimilarity() {
+		super();
+	}
+
+	public EuclideanSimilarity(SimilarityKernel kernel) {
+		super(kernel);
+	}
+
+	@Override
+	protected boolean isDistance() {
+		return true;
+	}
+
+	@Override
+	protected double similarity(double squaredDistance, double queryNorm, double caseNorm) {
+		return 100 / (1 + Math.sqrt(squaredDistance));
+	}
+
+}
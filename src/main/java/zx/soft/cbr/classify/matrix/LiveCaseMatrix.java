@@ -0,0 +1,491 @@
+package zx.soft.cbr.classify.matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import zx.soft.cbr.classify.core.CaseSimilarityImpl;
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseBaseListener;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.IFeatureComparator;
+import zx.soft.cbr.classify.core.ParallelRetrieval;
+import zx.soft.cbr.classify.core.ScoringPlan;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Columnar case base growing one row at a time, for case bases that retain cases while serving queries.
+ * Scores are the same as {@link CaseMatrix}. Rows are appended under a lock into columns with spare capacity,
+ * replaced by larger copies when full, and become visible by publishing the new row count, so scans never
+ * lock: a scan reads the row count once and only the rows below it, which are never written again.
+ * <p>
+ * Registered on a {@link zx.soft.cbr.classify.core.LiveCaseBase}, rows follow the ids of the case base. The
+ * minimum and maximum of every numeric column are kept up to date with the rows.
+ *
+ * @author wanggang
+ *
+ */
+public class LiveCaseMatrix implements ICaseBaseListener {
+
+	private final Class<? extends ICase> caseClass;
+
+	private final IFeature[] numericFeatures;
+
+	private final IFeature[] nominalFeatures;
+
+	private final FeatureExtractor[] numericExtractors;
+
+	private final FeatureExtractor[] nominalExtractors;
+
+	private final double[] numericWeights;
+
+	private final double[] numericRanges;
+
+	private final double[] numericReciprocals;
+
+	private final double[] nominalWeights;
+
+	private final NominalDictionary[] dictionaries;
+
+	private final double[] minimums;
+
+	private final double[] maximums;
+
+	private volatile Columns columns;
+
+	private volatile int size;
+
+	private SimilarityKernel kernel = SimilarityKernel.getDefault();
+
+	/**
+	 * Numeric attributes (primitive numbers or {@link Number}) become numeric columns, any other attribute a
+	 * nominal column
+	 *
+	 * @param caseClass
+	 *            Class of the cases to be stored
+	 * @param features
+	 *            Features to be stored
+	 */
+	public LiveCaseMatrix(Class<? extends ICase> caseClass, Collection<IFeature> features) {
+		ScoringPlan plan = ScoringPlan.getPlan(caseClass, features);
+		this.caseClass = caseClass;
+		List<IFeature> numericList = new ArrayList<IFeature>();
+		List<IFeature> nominalList = new ArrayList<IFeature>();
+		List<FeatureExtractor> numericExtractorList = new ArrayList<FeatureExtractor>();
+		List<FeatureExtractor> nominalExtractorList = new ArrayList<FeatureExtractor>();
+		for (int i = 0; i < plan.size(); i++) {
+			IFeatureComparator comparator = plan.getComparator(i);
+			if (comparator != null && !(comparator instanceof DefaultFeatureComparator)) {
+				throw new UnsupportedOperationException("Columnar scoring only applies the default comparator: "
+						+ plan.getFeature(i));
+			}
+			if (plan.getExtractor(i).isNumeric()) {
+				numericList.add(plan.getFeature(i));
+				numericExtractorList.add(plan.getExtractor(i));
+			} else {
+				nominalList.add(plan.getFeature(i));
+				nominalExtractorList.add(plan.getExtractor(i));
+			}
+		}
+		this.numericFeatures = numericList.toArray(new IFeature[numericList.size()]);
+		this.nominalFeatures = nominalList.toArray(new IFeature[nominalList.size()]);
+		this.numericExtractors = numericExtractorList.toArray(new FeatureExtractor[numericExtractorList.size()]);
+		this.nominalExtractors = nominalExtractorList.toArray(new FeatureExtractor[nominalExtractorList.size()]);
+		this.numericWeights = new double[numericFeatures.length];
+		this.numericRanges = new double[numericFeatures.length];
+		this.numericReciprocals = new double[numericFeatures.length];
+		this.nominalWeights = new double[nominalFeatures.length];
+		this.dictionaries = new NominalDictionary[nominalFeatures.length];
+		for (int f = 0; f < numericFeatures.length; f++) {
+			numericWeights[f] = numericFeatures[f].getWeight();
+			numericRanges[f] = numericFeatures[f].getRange();
+			numericReciprocals[f] = DefaultFeatureComparator.reciprocal(numericRanges[f]);
+		}
+		for (int f = 0; f < nominalFeatures.length; f++) {
+			nominalWeights[f] = nominalFeatures[f].getWeight();
+			dictionaries[f] = new NominalDictionary();
+		}
+		this.minimums = new double[numericFeatures.length];
+		this.maximums = new double[numericFeatures.length];
+		Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+		Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+		this.columns = new Columns(numericFeatures.length, nominalFeatures.length, 16);
+	}
+
+	/**
+	 * Appends a case
+	 *
+	 * @param theCase
+	 * @return row of the case
+	 */
+	public synchronized int add(ICase theCase) {
+		int row = size;
+		Columns current = columns;
+		if (row == current.capacity) {
+			current = current.grow(row + (row >> 1) + 1);
+			columns = current;
+		}
+		for (int f = 0; f < numericExtractors.length; f++) {
+			double value = numericExtractors[f].getDouble(theCase);
+			current.numeric[f][row] = value;
+			if (value < minimums[f]) {
+				minimums[f] = value;
+			}
+			if (value > maximums[f]) {
+				maximums[f] = value;
+			}
+		}
+		for (int f = 0; f < nominalExtractors.length; f++) {
+			current.nominal[f][row] = dictionaries[f].encode(nominalExtractors[f].get(theCase));
+		}
+		current.cases[row] = theCase;
+		size = row + 1;
+		return row;
+	}
+
+	/**
+	 * Rejects a case that is not an instance of the case class
+	 */
+	public void checkCase(ICase theCase) {
+		if (!caseClass.isInstance(theCase)) {
+			throw new IllegalArgumentException("Case of class " + theCase.getClass().getName() + " in a matrix of "
+					+ caseClass.getName());
+		}
+	}
+
+	/**
+	 * Appends the case of a {@link zx.soft.cbr.classify.core.LiveCaseBase}
+	 *
+	 * @throws IllegalStateException
+	 *             when the matrix was registered on a case base after other rows were added
+	 */
+	public void caseAdded(ICase theCase, int id) {
+		int row = add(theCase);
+		if (row != id) {
+			throw new IllegalStateException("Case " + id + " stored as row " + row);
+		}
+	}
+
+	/**
+	 * Extracts and encodes the feature values of a query case
+	 *
+	 * @param theCase
+	 * @return query
+	 */
+	public CaseMatrix.Query query(ICase theCase) {
+		return CaseMatrix.query(theCase, numericFeatures, nominalFeatures, dictionaries);
+	}
+
+	/**
+	 * @param query
+	 * @param row
+	 * @return weighted sum of the feature similarities of one row
+	 */
+	public double score(CaseMatrix.Query query, int row) {
+		checkRow(row);
+		Columns current = columns;
+		double score = 0;
+		for (int f = 0; f < numericWeights.length; f++) {
+			score += DefaultFeatureComparator.similar(query.getNumber(f), current.numeric[f][row], numericRanges[f],
+					numericReciprocals[f]) * numericWeights[f];
+		}
+		for (int f = 0; f < nominalWeights.length; f++) {
+			int code = query.getCode(f);
+			if (code >= 0 && current.nominal[f][row] == code) {
+				score += nominalWeights[f];
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * @param query
+	 * @param row
+	 * @return score of the row as a percentage of the query's maximum score
+	 */
+	public double similarity(CaseMatrix.Query query, int row) {
+		return score(query, row) * 100 / query.getMaxScore();
+	}
+
+	/**
+	 * Finds the k most similar of the rows added so far
+	 *
+	 * @param query
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return heap of (row, similarity) pairs, sorted from the most to the least similar
+	 */
+	public TopK topK(CaseMatrix.Query query, int k, double threshold) {
+		int n = size;
+		return topK(columns, query, 0, n, new TopK(k), threshold).sort();
+	}
+
+	/**
+	 * Parallel {@link #topK(CaseMatrix.Query, int, double)}
+	 */
+	public TopK topK(final CaseMatrix.Query query, final int k, final double threshold,
+			ParallelRetrieval retrieval) {
+		int n = size;
+		final Columns current = columns;
+		return retrieval.execute(n, new ParallelRetrieval.ChunkTask<TopK>() {
+
+			public TopK compute(int from, int to) {
+				return topK(current, query, from, to, new TopK(k), threshold);
+			}
+
+			public TopK merge(TopK left, TopK right) {
+				left.merge(right);
+				return left;
+			}
+
+		}).sort();
+	}
+
+	private TopK topK(Columns current, CaseMatrix.Query query, int from, int to, TopK topK, double threshold) {
+		double[] scores = new double[Math.min(CaseMatrix.BLOCK_SIZE, Math.max(to - from, 0))];
+		double scale = 100 / query.getMaxScore();
+		for (int start = from; start < to; start += CaseMatrix.BLOCK_SIZE) {
+			int end = Math.min(start + CaseMatrix.BLOCK_SIZE, to);
+			scoreRange(current, query, start, end, scores);
+			for (int i = 0; i < end - start; i++) {
+				double similarity = scores[i] * scale;
+				if (similarity >= threshold) {
+					topK.offer(start + i, similarity);
+				}
+			}
+		}
+		return topK;
+	}
+
+	private void scoreRange(Columns current, CaseMatrix.Query query, int from, int to, double[] scores) {
+		int length = to - from;
+		Arrays.fill(scores, 0, length, 0);
+		for (int f = 0; f < numericWeights.length; f++) {
+			double q = query.getNumber(f);
+			if (Double.isNaN(q)) {
+				continue;
+			}
+			kernel.accumulateRangeSimilarity(q, current.numeric[f], from, numericRanges[f], numericWeights[f],
+					scores, length);
+		}
+		for (int f = 0; f < nominalWeights.length; f++) {
+			int code = query.getCode(f);
+			if (code < 0) {
+				continue;
+			}
+			int[] column = current.nominal[f];
+			double weight = nominalWeights[f];
+			for (int i = 0; i < length; i++) {
+				if (column[from + i] == code) {
+					scores[i] += weight;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Same contract as {@link zx.soft.cbr.classify.core.ISimilarityAlgorithm#getMostSimilar}, over the rows
+	 * added so far
+	 *
+	 * @param theCase
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return results ordered from the most to the least similar
+	 */
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, int k, double threshold) {
+		int n = size;
+		Columns current = columns;
+		TopK topK = topK(current, query(theCase), 0, n, new TopK(k), threshold).sort();
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(topK.size());
+		for (int i = 0; i < topK.size(); i++) {
+			result.add(new CaseSimilarityImpl(topK.score(i), theCase, current.cases[topK.id(i)]));
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the rows added so far, e.g. to build a static index over them
+	 *
+	 * @return matrix sharing the dictionaries of this one
+	 */
+	public CaseMatrix toMatrix() {
+		int n = size;
+		Columns current = columns;
+		CaseMatrix.Builder builder = new CaseMatrix.Builder(n);
+		for (IFeature feature : numericFeatures) {
+			builder.addNumericFeature(feature);
+		}
+		for (int f = 0; f < nominalFeatures.length; f++) {
+			builder.addNominalFeature(nominalFeatures[f], dictionaries[f]);
+		}
+		double[] numbers = new double[numericFeatures.length];
+		int[] codes = new int[nominalFeatures.length];
+		for (int row = 0; row < n; row++) {
+			for (int f = 0; f < numbers.length; f++) {
+				numbers[f] = current.numeric[f][row];
+			}
+			for (int f = 0; f < codes.length; f++) {
+				codes[f] = current.nominal[f][row];
+			}
+			builder.addRow(numbers, codes, current.cases[row]);
+		}
+		CaseMatrix matrix = builder.build();
+		matrix.setKernel(kernel);
+		return matrix;
+	}
+
+	private void checkRow(int row) {
+		int n = size;
+		if (row < 0 || row >= n) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + n);
+		}
+	}
+
+	/**
+	 * @param row
+	 * @return case stored at the row
+	 */
+	public ICase getCase(int row) {
+		checkRow(row);
+		return columns.cases[row];
+	}
+
+	/**
+	 * @param f
+	 * @param row
+	 * @return value of a numeric feature, NaN when missing
+	 */
+	public double getNumber(int f, int row) {
+		checkRow(row);
+		return columns.numeric[f][row];
+	}
+
+	/**
+	 * @param f
+	 * @param row
+	 * @return code of a nominal feature, {@link NominalDictionary#MISSING} when missing
+	 */
+	public int getCode(int f, int row) {
+		checkRow(row);
+		return columns.nominal[f][row];
+	}
+
+	/**
+	 * @param f
+	 * @return smallest value of a numeric feature, positive infinity while no row has one
+	 */
+	public synchronized double getMinimum(int f) {
+		return minimums[f];
+	}
+
+	/**
+	 * @param f
+	 * @return largest value of a numeric feature, negative infinity while no row has one
+	 */
+	public synchronized double getMaximum(int f) {
+		return maximums[f];
+	}
+
+	/**
+	 * @param f
+	 * @return spread of the values of a numeric feature, 0 while fewer than two distinct values were added
+	 */
+	public synchronized double getObservedRange(int f) {
+		return maximums[f] > minimums[f] ? maximums[f] - minimums[f] : 0;
+	}
+
+	public SimilarityKernel getKernel() {
+		return kernel;
+	}
+
+	public void setKernel(SimilarityKernel kernel) {
+		this.kernel = kernel;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getNumericCount() {
+		return numericFeatures.length;
+	}
+
+	public int getNominalCount() {
+		return nominalFeatures.length;
+	}
+
+	public IFeature getNumericFeature(int f) {
+		return numericFeatures[f];
+	}
+
+	public IFeature getNominalFeature(int f) {
+		return nominalFeatures[f];
+	}
+
+	/**
+	 * @return numeric features followed by nominal features
+	 */
+	public List<IFeature> getFeatures() {
+		List<IFeature> features = new ArrayList<IFeature>(numericFeatures.length + nominalFeatures.length);
+		features.addAll(Arrays.asList(numericFeatures));
+		features.addAll(Arrays.asList(nominalFeatures));
+		return features;
+	}
+
+	public NominalDictionary getDictionary(int f) {
+		return dictionaries[f];
+	}
+
+	@Override
+	public String toString() {
+		return "LiveCaseMatrix(" + size + " x " + getFeatures() + ")";
+	}
+
+	/**
+	 * Column arrays of one capacity
+	 */
+	private static class Columns {
+
+		final double[][] numeric;
+
+		final int[][] nominal;
+
+		final ICase[] cases;
+
+		final int capacity;
+
+		Columns(int numericCount, int nominalCount, int capacity) {
+			this.numeric = new double[numericCount][capacity];
+			this.nominal = new int[nominalCount][capacity];
+			this.cases = new ICase[capacity];
+			this.capacity = capacity;
+		}
+
+		private Columns(double[][] numeric, int[][] nominal, ICase[] cases, int capacity) {
+			this.numeric = numeric;
+			this.nominal = nominal;
+			this.cases = cases;
+			this.capacity = capacity;
+		}
+
+		Columns grow(int capacity) {
+			double[][] grownNumeric = new double[numeric.length][];
+			int[][] grownNominal = new int[nominal.length][];
+			for (int f = 0; f < numeric.length; f++) {
+				grownNumeric[f] = Arrays.copyOf(numeric[f], capacity);
+			}
+			for (int f = 0; f < nominal.length; f++) {
+				grownNominal[f] = Arrays.copyOf(nominal[f], capacity);
+			}
+			return new Columns(grownNumeric, grownNominal, Arrays.copyOf(cases, capacity), capacity);
+		}
+
+	}
+
+}
@@ -0,0 +1,389 @@
+package zx.soft.cbr.classify.matrix;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.ParallelRetrieval;
+import zx.soft.cbr.classify.core.TopK;
+
+/**
+ * Case base opened from a {@link CaseBaseFile}: the columns are memory-mapped buffers, read in place by the
+ * scans, so opening costs only the schema and the rows stay off the heap, shared with every process mapping
+ * the same file through the page cache. Scoring is the same as {@link CaseMatrix}: each block of a column is
+ * copied to a small scratch array and run through the same {@link SimilarityKernel}, so scores are
+ * bit-identical. Rows are identified by their position in the file.
+ * <p>
+ * A file written from a labelled matrix, e.g. one read by {@link zx.soft.cbr.classify.io.ArffReader}, keeps
+ * the class codes of its rows in a mapped column too, so the rows keep their classes without their cases.
+ *
+ * @author wanggang
+ *
+ */
+public class MappedCaseBase {
+
+	private final IFeature[] numericFeatures;
+
+	private final IFeature[] nominalFeatures;
+
+	private final double[] numericWeights;
+
+	private final double[] numericRanges;
+
+	private final double[] numericReciprocals;
+
+	private final double[] nominalWeights;
+
+	private final NominalDictionary[] dictionaries;
+
+	private final DoubleBuffer[] numeric;
+
+	private final IntBuffer[] nominal;
+
+	private final int size;
+
+	/**
+	 * Class codes of the rows, null without class attribute
+	 */
+	private final IntBuffer labels;
+
+	private final String classAttribute;
+
+	private final NominalDictionary classDictionary;
+
+	private SimilarityKernel kernel = SimilarityKernel.getDefault();
+
+	MappedCaseBase(IFeature[] numericFeatures, IFeature[] nominalFeatures, NominalDictionary[] dictionaries,
+			DoubleBuffer[] numeric, IntBuffer[] nominal, int size, String classAttribute,
+			NominalDictionary classDictionary, IntBuffer labels) {
+		this.numericFeatures = numericFeatures;
+		this.nominalFeatures = nominalFeatures;
+		this.dictionaries = dictionaries;
+		this.numeric = numeric;
+		this.nominal = nominal;
+		this.size = size;
+		this.classAttribute = classAttribute;
+		this.classDictionary = classDictionary;
+		this.labels = labels;
+		this.numericWeights = new double[numericFeatures.length];
+		this.numericRanges = new double[numericFeatures.length];
+		this.numericReciprocals = new double[numericFeatures.length];
+		this.nominalWeights = new double[nominalFeatures.length];
+		for (int f = 0; f < numericFeatures.length; f++) {
+			numericWeights[f] = numericFeatures[f].getWeight();
+			numericRanges[f] = numericFeatures[f].getRange();
+			numericReciprocals[f] = DefaultFeatureComparator.reciprocal(numericRanges[f]);
+		}
+		for (int f = 0; f < nominalFeatures.length; f++) {
+			nominalWeights[f] = nominalFeatures[f].getWeight();
+		}
+	}
+
+	/**
+	 * Extracts and encodes the feature values of a query case
+	 *
+	 * @param theCase
+	 * @return query
+	 */
+	public CaseMatrix.Query query(ICase theCase) {
+		return CaseMatrix.query(theCase, numericFeatures, nominalFeatures, dictionaries);
+	}
+
+	/**
+	 * Takes a row as query, e.g. to classify the rows held out of a fold
+	 *
+	 * @param row
+	 * @return query without case
+	 */
+	public CaseMatrix.Query query(int row) {
+		double[] numbers = new double[numeric.length];
+		int[] codes = new int[nominal.length];
+		double maxScore = 0;
+		for (int f = 0; f < numbers.length; f++) {
+			numbers[f] = numeric[f].get(row);
+			if (!Double.isNaN(numbers[f])) {
+				maxScore += numericWeights[f];
+			}
+		}
+		for (int f = 0; f < codes.length; f++) {
+			codes[f] = nominal[f].get(row);
+			if (codes[f] != NominalDictionary.MISSING) {
+				maxScore += nominalWeights[f];
+			}
+		}
+		return new CaseMatrix.Query(null, numbers, codes, maxScore);
+	}
+
+	/**
+	 * @param query
+	 * @param row
+	 * @return weighted sum of the feature similarities of one row
+	 */
+	public double score(CaseMatrix.Query query, int row) {
+		double score = 0;
+		for (int f = 0; f < numeric.length; f++) {
+			score += DefaultFeatureComparator.similar(query.getNumber(f), numeric[f].get(row), numericRanges[f],
+					numericReciprocals[f]) * numericWeights[f];
+		}
+		for (int f = 0; f < nominal.length; f++) {
+			int code = query.getCode(f);
+			if (code >= 0 && nominal[f].get(row) == code) {
+				score += nominalWeights[f];
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * @param query
+	 * @param row
+	 * @return score of the row as a percentage of the query's maximum score
+	 */
+	public double similarity(CaseMatrix.Query query, int row) {
+		return score(query, row) * 100 / query.getMaxScore();
+	}
+
+	/**
+	 * Finds the k most similar rows, scanning blocks of {@link CaseMatrix#BLOCK_SIZE} rows
+	 *
+	 * @param query
+	 * @param k
+	 * @param threshold
+	 *            Minimum similarity in percent, {@link Double#NEGATIVE_INFINITY} to disable the filter
+	 * @return heap of (row, similarity) pairs, sorted from the most to the least similar
+	 */
+	public TopK topK(CaseMatrix.Query query, int k, double threshold) {
+		return topK(query, 0, size, new TopK(k), threshold, null).sort();
+	}
+
+	/**
+	 * {@link #topK(CaseMatrix.Query, int, double)} over the rows not excluded
+	 *
+	 * @param excluded
+	 *            Rows skipped, e.g. those held out of a fold
+	 */
+	public TopK topK(CaseMatrix.Query query, int k, double threshold, BitSet excluded) {
+		return topK(query, 0, size, new TopK(k), threshold, excluded).sort();
+	}
+
+	/**
+	 * Parallel {@link #topK(CaseMatrix.Query, int, double)}: chunks of rows are scanned by the retrieval's
+	 * workers and their heaps merged
+	 */
+	public TopK topK(final CaseMatrix.Query query, final int k, final double threshold,
+			ParallelRetrieval retrieval) {
+		return retrieval.execute(size, new ParallelRetrieval.ChunkTask<TopK>() {
+
+			public TopK compute(int from, int to) {
+				return topK(query, from, to, new TopK(k), threshold, null);
+			}
+
+			public TopK merge(TopK left, TopK right) {
+				left.merge(right);
+				return left;
+			}
+
+		}).sort();
+	}
+
+	private TopK topK(CaseMatrix.Query query, int from, int to, TopK topK, double threshold, BitSet excluded) {
+		int blockSize = Math.min(CaseMatrix.BLOCK_SIZE, Math.max(to - from, 0));
+		double[] scores = new double[blockSize];
+		double[] numbers = new double[blockSize];
+		int[] codes = new int[blockSize];
+		double scale = 100 / query.getMaxScore();
+		for (int start = from; start < to; start += CaseMatrix.BLOCK_SIZE) {
+			int end = Math.min(start + CaseMatrix.BLOCK_SIZE, to);
+			scoreRange(query, start, end, scores, numbers, codes);
+			for (int i = 0; i < end - start; i++) {
+				double similarity = scores[i] * scale;
+				if (similarity >= threshold && (excluded == null || !excluded.get(start + i))) {
+					topK.offer(start + i, similarity);
+				}
+			}
+		}
+		return topK;
+	}
+
+	/**
+	 * Scores the rows [from, to), at most {@link CaseMatrix#BLOCK_SIZE}, column by column
+	 *
+	 * @param query
+	 * @param from
+	 * @param to
+	 * @param scores
+	 *            Receives the weighted sum of row from + i at index i
+	 */
+	public void scoreRange(CaseMatrix.Query query, int from, int to, double[] scores) {
+		scoreRange(query, from, to, scores, new double[to - from], new int[to - from]);
+	}
+
+	private void scoreRange(CaseMatrix.Query query, int from, int to, double[] scores, double[] numbers,
+			int[] codes) {
+		int length = to - from;
+		Arrays.fill(scores, 0, length, 0);
+		for (int f = 0; f < numeric.length; f++) {
+			double q = query.getNumber(f);
+			if (Double.isNaN(q)) {
+				continue;
+			}
+			DoubleBuffer column = numeric[f].duplicate();
+			column.position(from);
+			column.get(numbers, 0, length);
+			kernel.accumulateRangeSimilarity(q, numbers, 0, numericRanges[f], numericWeights[f], scores, length);
+		}
+		for (int f = 0; f < nominal.length; f++) {
+			int code = query.getCode(f);
+			if (code < 0) {
+				continue;
+			}
+			IntBuffer column = nominal[f].duplicate();
+			column.position(from);
+			column.get(codes, 0, length);
+			double weight = nominalWeights[f];
+			for (int i = 0; i < length; i++) {
+				if (codes[i] == code) {
+					scores[i] += weight;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the rows to the heap, e.g. to build an index over them
+	 *
+	 * @return matrix without source cases
+	 */
+	public CaseMatrix toMatrix() {
+		CaseMatrix.Builder builder = new CaseMatrix.Builder(size);
+		for (IFeature feature : numericFeatures) {
+			builder.addNumericFeature(feature);
+		}
+		for (int f = 0; f < nominalFeatures.length; f++) {
+			builder.addNominalFeature(nominalFeatures[f], dictionaries[f]);
+		}
+		if (labels != null) {
+			builder.setClass(classAttribute, classDictionary);
+		}
+		double[] numbers = new double[numeric.length];
+		int[] codes = new int[nominal.length];
+		for (int row = 0; row < size; row++) {
+			for (int f = 0; f < numbers.length; f++) {
+				numbers[f] = numeric[f].get(row);
+			}
+			for (int f = 0; f < codes.length; f++) {
+				codes[f] = nominal[f].get(row);
+			}
+			builder.addRow(numbers, codes, labels == null ? NominalDictionary.MISSING : labels.get(row), null);
+		}
+		CaseMatrix matrix = builder.build();
+		matrix.setKernel(kernel);
+		return matrix;
+	}
+
+	public SimilarityKernel getKernel() {
+		return kernel;
+	}
+
+	public void setKernel(SimilarityKernel kernel) {
+		this.kernel = kernel;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getNumericCount() {
+		return numeric.length;
+	}
+
+	public int getNominalCount() {
+		return nominal.length;
+	}
+
+	public IFeature getNumericFeature(int f) {
+		return numericFeatures[f];
+	}
+
+	public IFeature getNominalFeature(int f) {
+		return nominalFeatures[f];
+	}
+
+	/**
+	 * @return numeric features followed by nominal features
+	 */
+	public List<IFeature> getFeatures() {
+		List<IFeature> features = new ArrayList<IFeature>(numericFeatures.length + nominalFeatures.length);
+		features.addAll(Arrays.asList(numericFeatures));
+		features.addAll(Arrays.asList(nominalFeatures));
+		return features;
+	}
+
+	public NominalDictionary getDictionary(int f) {
+		return dictionaries[f];
+	}
+
+	/**
+	 * @param f
+	 * @param row
+	 * @return value of a numeric feature, NaN when missing
+	 */
+	public double getNumber(int f, int row) {
+		return numeric[f].get(row);
+	}
+
+	/**
+	 * @param f
+	 * @param row
+	 * @return code of a nominal feature, {@link NominalDictionary#MISSING} when missing
+	 */
+	public int getCode(int f, int row) {
+		return nominal[f].get(row);
+	}
+
+	/**
+	 * @return true when the rows carry the codes of a class attribute
+	 */
+	public boolean hasLabels() {
+		return labels != null;
+	}
+
+	/**
+	 * @return class code of the row in {@link #getClassDictionary()}, {@link NominalDictionary#MISSING} when
+	 *         missing
+	 */
+	public int getLabel(int row) {
+		return labels.get(row);
+	}
+
+	/**
+	 * @return class of the row, null when missing
+	 */
+	public Object getClassLabel(int row) {
+		int code = labels.get(row);
+		return code == NominalDictionary.MISSING ? null : classDictionary.decode(code);
+	}
+
+	/**
+	 * @return class attribute, null without class
+	 */
+	public String getClassAttribute() {
+		return classAttribute;
+	}
+
+	public NominalDictionary getClassDictionary() {
+		return classDictionary;
+	}
+
+	@Override
+	public String toString() {
+		return "MappedCaseBase(" + size + " x " + getFeatures() + ")";
+	}
+
+}
@@ -0,0 +1,91 @@
+package zx.soft.cbr.classify.matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary encoding of the values of a nominal feature: every distinct value gets a dense int code, in
+ * order of first appearance. Codes are compared with ==, which matches the equals rule of
+ * {@link zx.soft.cbr.classify.core.DefaultFeatureComparator}.
+ * <p>
+ * Values are only added by {@link #encode}, which callers must not run concurrently; lookups and decoding may
+ * run while a value is being added, so a growing case base can keep answering queries.
+ *
+ * @author wanggang
+ *
+ */
+public class NominalDictionary {
+
+	/**
+	 * Code of a missing (null) value
+	 */
+	public static final int MISSING = -1;
+
+	/**
+	 * Code of a value absent from the dictionary, it never matches a stored code
+	 */
+	public static final int UNKNOWN = -2;
+
+	private final ConcurrentMap<Object, Integer> codes = new ConcurrentHashMap<Object, Integer>();
+
+	private volatile Object[] values = new Object[8];
+
+	private volatile int size;
+
+	/**
+	 * Returns the code of the value, adding it to the dictionary if needed
+	 *
+	 * @param value
+	 * @return code, {@link #MISSING} for null
+	 */
+	public int encode(Object value) {
+		if (value == null) {
+			return MISSING;
+		}
+		Integer code = codes.get(value);
+		if (code == null) {
+			code = size;
+			if (code == values.length) {
+				values = Arrays.copyOf(values, code * 2);
+			}
+			// the value is stored before its code is published
+			values[code] = value;
+			size = code + 1;
+			codes.put(value, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the code of the value without changing the dictionary
+	 *
+	 * @param value
+	 * @return code, {@link #MISSING} for null and {@link #UNKNOWN} for values never encoded
+	 */
+	public int lookup(Object value) {
+		if (value == null) {
+			return MISSING;
+		}
+		Integer code = codes.get(value);
+		return code == null ? UNKNOWN : code;
+	}
+
+	/**
+	 * @param code
+	 * @return value of the code, null for {@link #MISSING} and {@link #UNKNOWN}
+	 */
+	public Object decode(int code) {
+		return code < 0 ? null : values[code];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.asList(values).subList(0, size).toString();
+	}
+
+}
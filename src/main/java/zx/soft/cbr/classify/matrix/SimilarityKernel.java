@@ -0,0 +1,119 @@
+package zx.soft.cbr.classify.matrix;
+
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+
+/**
+ * Column kernels of the similarity scans. Each one accumulates the contribution of one numeric feature for a
+ * run of rows into a score buffer, so an implementation can evaluate several rows per instruction.
+ * <p>
+ * {@link #getDefault()} returns the Vector API implementation when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector} and the scalar one otherwise. Both give bit-identical results.
+ * Set the system property {@code cbr.vector} to false to force the scalar kernel.
+ *
+ * @author wanggang
+ *
+ */
+public abstract class SimilarityKernel {
+
+	private static final String VECTOR_KERNEL = "zx.soft.cbr.classify.matrix.VectorKernel";
+
+	private static final SimilarityKernel SCALAR = new ScalarKernel();
+
+	private static final SimilarityKernel DEFAULT = load();
+
+	private static SimilarityKernel load() {
+		if (!Boolean.parseBoolean(System.getProperty("cbr.vector", "true"))) {
+			return SCALAR;
+		}
+		try {
+			SimilarityKernel kernel = (SimilarityKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor()
+					.newInstance();
+			// fails here rather than in a scan when the incubator module is not resolved
+			kernel.accumulateRangeSimilarity(0, new double[1], 0, 1, 1, new double[1], 1);
+			return kernel;
+		} catch (Throwable e) {
+			return SCALAR;
+		}
+	}
+
+	/**
+	 * @return vector kernel when available, scalar kernel otherwise
+	 */
+	public static SimilarityKernel getDefault() {
+		return DEFAULT;
+	}
+
+	public static SimilarityKernel scalar() {
+		return SCALAR;
+	}
+
+	/**
+	 * scores[i] += weight * similarity(value, column[from + i]) for i in [0, length), with the range rule of
+	 * {@link zx.soft.cbr.classify.core.DefaultFeatureComparator#similar(double, double, double)}
+	 */
+	public abstract void accumulateRangeSimilarity(double value, double[] column, int from, double range,
+			double weight, double[] scores, int length);
+
+	/**
+	 * out[i] += weight * (value - column[from + i])^2 for i in [0, length)
+	 */
+	public abstract void accumulateSquaredDifference(double value, double[] column, int from, double weight,
+			double[] out, int length);
+
+	/**
+	 * out[i] += weight * value * column[from + i] for i in [0, length)
+	 */
+	public abstract void accumulateProduct(double value, double[] column, int from, double weight, double[] out,
+			int length);
+
+	/**
+	 * @return name of the implementation
+	 */
+	public String getName() {
+		return getClass().getSimpleName();
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	static final class ScalarKernel extends SimilarityKernel {
+
+		@Override
+		public void accumulateRangeSimilarity(double value, double[] column, int from, double range, double weight,
+				double[] scores, int length) {
+			double reciprocal = DefaultFeatureComparator.reciprocal(range);
+			for (int i = 0; i < length; i++) {
+				double similarity = 0;
+				double d = Math.abs(value - column[from + i]);
+				if (d == 0) {
+					similarity = 1;
+				} else if (d <= range) {
+					similarity = 1 - d * reciprocal;
+				}
+				scores[i] += similarity * weight;
+			}
+		}
+
+		@Override
+		public void accumulateSquaredDifference(double value, double[] column, int from, double weight,
+				double[] out, int length) {
+			for (int i = 0; i < length; i++) {
+				double d = value - column[from + i];
+				out[i] += d * d * weight;
+			}
+		}
+
+		@Override
+		public void accumulateProduct(double value, double[] column, int from, double weight, double[] out,
+				int length) {
+			double scaled = value * weight;
+			for (int i = 0; i < length; i++) {
+				out[i] += column[from + i] * scaled;
+			}
+		}
+
+	}
+
+}
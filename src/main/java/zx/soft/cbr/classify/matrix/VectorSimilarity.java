@@ -0,0 +1,490 @@
+package zx.soft.cbr.classify.matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import zx.soft.cbr.classify.core.CaseSimilarityImpl;
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+import zx.soft.cbr.classify.core.FeatureSimilarity;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.ICaseSimilarity;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.IFeatureComparator;
+import zx.soft.cbr.classify.core.IRetrievalListener;
+import zx.soft.cbr.classify.core.LiveCaseBase;
+import zx.soft.cbr.classify.core.RetrievalPhase;
+import zx.soft.cbr.classify.core.RetrievalTrace;
+import zx.soft.cbr.classify.core.ScoringPlan;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Similarity of cases seen as weighted feature vectors, the vector measures of matlab/src/SimilarityMeasures.m.
+ * A numeric feature of weight w and range r is the coordinate x * sqrt(w) / r (x * sqrt(w) without range), a
+ * nominal feature a one-hot block where the value present has coordinate sqrt(w); missing values are 0.
+ * <p>
+ * The case base is ingested once into columns holding the scaled coordinates, with the norm of every case, so
+ * scoring a case costs one dot product with the query, or one squared distance for the measures that
+ * {@link #isDistance()}, accumulated column by column through a {@link SimilarityKernel}. Only the snapshots of a
+ * {@link LiveCaseBase}, whose rows are never rewritten, keep their columns across retrievals with equal
+ * features: a later snapshot only appends the cases added since, an earlier one scans a prefix of the rows. Any
+ * other set may change in place between retrievals, so its columns are ingested for one retrieval only.
+ *
+ * @author wanggang
+ *
+ */
+public abstract class VectorSimilarity extends FeatureSimilarity {
+
+	private final SimilarityKernel kernel;
+
+	private volatile Vectors vectors;
+
+	protected VectorSimilarity() {
+		this(SimilarityKernel.getDefault());
+	}
+
+	protected VectorSimilarity(SimilarityKernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/**
+	 * @param value
+	 *            Dot product of the query and the case, their squared distance when {@link #isDistance()}
+	 * @param queryNorm
+	 *            Norm of the query
+	 * @param caseNorm
+	 *            Norm of the case
+	 * @return similarity in percent, 100 for identical vectors
+	 */
+	protected abstract double similarity(double value, double queryNorm, double caseNorm);
+
+	/**
+	 * @return true to score cases by their squared distance to the query, summed coordinate by coordinate,
+	 *         rather than by their dot product; false by default
+	 */
+	protected boolean isDistance() {
+		return false;
+	}
+
+	@Override
+	public Set<ICaseSimilarity> getSimilarity(ICase theCase, Set<ICase> similarCases, double threshold,
+			Object... params) {
+		if (similarCases == null || similarCases.isEmpty()) {
+			return null;
+		}
+		IRetrievalListener listener = getListener();
+		RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
+		Vectors current = getVectors(getPlan(theCase, params), similarCases);
+		int size = similarCases.size();
+		Columns columns = current.columns;
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
+		}
+		Query query = current.query(theCase);
+		double queryNorm = Math.sqrt(query.squaredNorm);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		Set<ICaseSimilarity> result = new HashSet<ICaseSimilarity>();
+		boolean distance = isDistance();
+		double[] values = new double[CaseMatrix.BLOCK_SIZE];
+		for (int from = 0; from < size; from += values.length) {
+			int length = Math.min(values.length, size - from);
+			if (distance) {
+				current.squaredDistance(columns, query, from, values, length);
+			} else {
+				current.dot(columns, query, from, values, length);
+			}
+			for (int i = 0; i < length; i++) {
+				int row = from + i;
+				double similarity = similarity(values[i], queryNorm, columns.norms[row]);
+				if (similarity >= threshold) {
+					result.add(new CaseSimilarityImpl(similarity, theCase, columns.cases[row]));
+				}
+			}
+		}
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.SCAN);
+			current.finish(trace, size, result.size(), listener);
+		}
+		return result;
+	}
+
+	@Override
+	public List<ICaseSimilarity> getMostSimilar(ICase theCase, Set<ICase> similarCases, int k, double threshold,
+			Object... params) {
+		if (similarCases == null || similarCases.isEmpty()) {
+			return new ArrayList<ICaseSimilarity>();
+		}
+		IRetrievalListener listener = getListener();
+		RetrievalTrace trace = RetrievalTrace.start(listener, getClass().getSimpleName());
+		Vectors current = getVectors(getPlan(theCase, params), similarCases);
+		int size = similarCases.size();
+		Columns columns = current.columns;
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESOLVE);
+		}
+		Query query = current.query(theCase);
+		double queryNorm = Math.sqrt(query.squaredNorm);
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.PREPARE);
+		}
+		TopK topK = new TopK(k);
+		boolean distance = isDistance();
+		double[] values = new double[CaseMatrix.BLOCK_SIZE];
+		for (int from = 0; from < size; from += values.length) {
+			int length = Math.min(values.length, size - from);
+			if (distance) {
+				current.squaredDistance(columns, query, from, values, length);
+			} else {
+				current.dot(columns, query, from, values, length);
+			}
+			for (int i = 0; i < length; i++) {
+				int row = from + i;
+				double similarity = similarity(values[i], queryNorm, columns.norms[row]);
+				if (similarity >= threshold) {
+					topK.offer(row, similarity);
+				}
+			}
+		}
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.SCAN);
+		}
+		topK.sort();
+		List<ICaseSimilarity> result = new ArrayList<ICaseSimilarity>(topK.size());
+		for (int i = 0; i < topK.size(); i++) {
+			result.add(new CaseSimilarityImpl(topK.score(i), theCase, columns.cases[topK.id(i)]));
+		}
+		if (trace != null) {
+			trace.endPhase(RetrievalPhase.RESULTS);
+			current.finish(trace, size, result.size(), listener);
+		}
+		return result;
+	}
+
+	/**
+	 * @return vectors holding at least the rows of the case set, in its iteration order
+	 */
+	private Vectors getVectors(ScoringPlan plan, Set<ICase> similarCases) {
+		if (!(similarCases instanceof LiveCaseBase.Snapshot)) {
+			Vectors scratch = new Vectors(plan, null, kernel, similarCases.size());
+			for (ICase theCase : similarCases) {
+				scratch.add(theCase);
+			}
+			return scratch;
+		}
+		LiveCaseBase.Snapshot snapshot = (LiveCaseBase.Snapshot) similarCases;
+		Vectors current = vectors;
+		if (current != null && current.matches(plan, snapshot)) {
+			return current;
+		}
+		synchronized (this) {
+			current = vectors;
+			if (current != null && current.matches(plan, snapshot)) {
+				return current;
+			}
+			if (current == null || !current.precedes(plan, snapshot)) {
+				current = new Vectors(plan, snapshot.getCaseBase(), kernel, snapshot.size());
+			}
+			// a later snapshot of the same case base: only its new cases are ingested
+			for (int id = current.size; id < snapshot.size(); id++) {
+				current.add(snapshot.get(id));
+			}
+			vectors = current;
+			return current;
+		}
+	}
+
+	/**
+	 * Drops the vectors ingested from a live case base, the next retrieval rebuilds them
+	 */
+	public void invalidate() {
+		vectors = null;
+	}
+
+	public SimilarityKernel getKernel() {
+		return kernel;
+	}
+
+	/**
+	 * Scaled coordinates and norms of one case set, growing with the snapshots of a {@link LiveCaseBase}. Rows
+	 * are appended under the lock of the similarity into columns with spare capacity, replaced by larger copies
+	 * when full, so a scan reads the columns once and only rows that are never written again.
+	 */
+	private static final class Vectors {
+
+		/**
+		 * {@link ScoringPlan#getKey()} of the features
+		 */
+		private final Object plan;
+
+		/**
+		 * Case base of the snapshots, null for the columns of a single retrieval
+		 */
+		private final LiveCaseBase source;
+
+		private final SimilarityKernel kernel;
+
+		private final IFeature[] numericFeatures;
+
+		private final IFeature[] nominalFeatures;
+
+		private final FeatureExtractor[] numericExtractors;
+
+		private final FeatureExtractor[] nominalExtractors;
+
+		private final NominalDictionary[] dictionaries;
+
+		/**
+		 * Coordinate of one unit of each numeric feature
+		 */
+		private final double[] scales;
+
+		/**
+		 * Squared coordinate of a nominal value
+		 */
+		private final double[] nominalWeights;
+
+		private volatile Columns columns;
+
+		private volatile int size;
+
+		Vectors(ScoringPlan plan, LiveCaseBase source, SimilarityKernel kernel, int capacity) {
+			this.plan = plan.getKey();
+			this.source = source;
+			this.kernel = kernel;
+			List<IFeature> numericList = new ArrayList<IFeature>();
+			List<IFeature> nominalList = new ArrayList<IFeature>();
+			List<FeatureExtractor> numericExtractorList = new ArrayList<FeatureExtractor>();
+			List<FeatureExtractor> nominalExtractorList = new ArrayList<FeatureExtractor>();
+			for (int i = 0; i < plan.size(); i++) {
+				IFeature feature = plan.getFeature(i);
+				if (feature.getWeight() < 0) {
+					throw new IllegalArgumentException("Vector similarities need non-negative weights: " + feature);
+				}
+				IFeatureComparator comparator = plan.getComparator(i);
+				if (comparator != null && !(comparator instanceof DefaultFeatureComparator)) {
+					throw new UnsupportedOperationException("Columnar scoring only applies the default comparator: "
+							+ feature);
+				}
+				if (plan.getExtractor(i).isNumeric()) {
+					numericList.add(feature);
+					numericExtractorList.add(plan.getExtractor(i));
+				} else {
+					nominalList.add(feature);
+					nominalExtractorList.add(plan.getExtractor(i));
+				}
+			}
+			this.numericFeatures = numericList.toArray(new IFeature[numericList.size()]);
+			this.nominalFeatures = nominalList.toArray(new IFeature[nominalList.size()]);
+			this.numericExtractors = numericExtractorList.toArray(new FeatureExtractor[numericExtractorList.size()]);
+			this.nominalExtractors = nominalExtractorList.toArray(new FeatureExtractor[nominalExtractorList.size()]);
+			this.scales = new double[numericFeatures.length];
+			for (int f = 0; f < scales.length; f++) {
+				double reciprocal = DefaultFeatureComparator.reciprocal(numericFeatures[f].getRange());
+				scales[f] = Math.sqrt(numericFeatures[f].getWeight()) * (reciprocal > 0 ? reciprocal : 1);
+			}
+			this.nominalWeights = new double[nominalFeatures.length];
+			this.dictionaries = new NominalDictionary[nominalFeatures.length];
+			for (int f = 0; f < nominalWeights.length; f++) {
+				nominalWeights[f] = nominalFeatures[f].getWeight();
+				dictionaries[f] = new NominalDictionary();
+			}
+			this.columns = new Columns(scales.length, nominalWeights.length, Math.max(capacity, 16));
+		}
+
+		/**
+		 * @return true when the rows hold the whole snapshot; rows of a case base are never rewritten, so a
+		 *         snapshot is a prefix of the rows
+		 */
+		boolean matches(ScoringPlan plan, LiveCaseBase.Snapshot snapshot) {
+			return precedes(plan, snapshot) && snapshot.size() <= size;
+		}
+
+		/**
+		 * @return true when the rows are a prefix of the snapshot
+		 */
+		boolean precedes(ScoringPlan plan, LiveCaseBase.Snapshot snapshot) {
+			return source == snapshot.getCaseBase() && this.plan.equals(plan.getKey());
+		}
+
+		/**
+		 * Appends a case, under the lock of the similarity
+		 */
+		void add(ICase theCase) {
+			int row = size;
+			Columns current = columns;
+			if (row == current.capacity) {
+				current = current.grow(row + (row >> 1) + 1);
+				columns = current;
+			}
+			double squaredNorm = 0;
+			for (int f = 0; f < scales.length; f++) {
+				double value = numericExtractors[f].getDouble(theCase);
+				double scaled = Double.isNaN(value) ? 0 : value * scales[f];
+				current.coordinates[f][row] = scaled;
+				squaredNorm += scaled * scaled;
+			}
+			for (int f = 0; f < nominalWeights.length; f++) {
+				int code = dictionaries[f].encode(nominalExtractors[f].get(theCase));
+				current.codes[f][row] = code;
+				if (code >= 0) {
+					squaredNorm += nominalWeights[f];
+				}
+			}
+			current.norms[row] = Math.sqrt(squaredNorm);
+			current.cases[row] = theCase;
+			size = row + 1;
+		}
+
+		Query query(ICase theCase) {
+			CaseMatrix.Query encoded = CaseMatrix.query(theCase, numericFeatures, nominalFeatures, dictionaries);
+			double[] numbers = new double[scales.length];
+			int[] codes = new int[nominalWeights.length];
+			double squaredNorm = 0;
+			for (int f = 0; f < numbers.length; f++) {
+				double value = encoded.getNumber(f);
+				numbers[f] = Double.isNaN(value) ? 0 : value * scales[f];
+				squaredNorm += numbers[f] * numbers[f];
+			}
+			for (int f = 0; f < codes.length; f++) {
+				codes[f] = encoded.getCode(f);
+				// a value unknown to the case base still counts in the norm of the query
+				if (codes[f] != NominalDictionary.MISSING) {
+					squaredNorm += nominalWeights[f];
+				}
+			}
+			return new Query(numbers, codes, squaredNorm);
+		}
+
+		/**
+		 * dots[i] = dot product of the query and row from + i
+		 */
+		void dot(Columns columns, Query query, int from, double[] dots, int length) {
+			Arrays.fill(dots, 0, length, 0);
+			for (int f = 0; f < scales.length; f++) {
+				if (query.numbers[f] != 0) {
+					kernel.accumulateProduct(query.numbers[f], columns.coordinates[f], from, 1, dots, length);
+				}
+			}
+			for (int f = 0; f < nominalWeights.length; f++) {
+				int code = query.codes[f];
+				if (code < 0) {
+					continue;
+				}
+				int[] column = columns.codes[f];
+				double weight = nominalWeights[f];
+				for (int i = 0; i < length; i++) {
+					if (column[from + i] == code) {
+						dots[i] += weight;
+					}
+				}
+			}
+		}
+
+		/**
+		 * distances[i] = squared distance of the query and row from + i, never computed from the norms, which
+		 * would cancel out for large coordinates
+		 */
+		void squaredDistance(Columns columns, Query query, int from, double[] distances, int length) {
+			Arrays.fill(distances, 0, length, 0);
+			for (int f = 0; f < scales.length; f++) {
+				kernel.accumulateSquaredDifference(query.numbers[f], columns.coordinates[f], from, 1, distances,
+						length);
+			}
+			for (int f = 0; f < nominalWeights.length; f++) {
+				int code = query.codes[f];
+				int[] column = columns.codes[f];
+				double weight = nominalWeights[f];
+				// one-hot blocks: w for each side holding a value, less 2w when they hold the same
+				double present = code != NominalDictionary.MISSING ? weight : 0;
+				for (int i = 0; i < length; i++) {
+					int other = column[from + i];
+					distances[i] += other < 0 ? present : (other == code ? 0 : present + weight);
+				}
+			}
+		}
+
+		void finish(RetrievalTrace trace, int scanned, int results, IRetrievalListener listener) {
+			trace.addScanned(scanned);
+			trace.addEvaluated((long) scanned * (scales.length + nominalWeights.length));
+			trace.finish(results, listener);
+		}
+
+	}
+
+	/**
+	 * Column arrays of one capacity
+	 */
+	private static final class Columns {
+
+		/**
+		 * coordinates[feature][row], 0 when missing
+		 */
+		final double[][] coordinates;
+
+		/**
+		 * codes[feature][row], dictionary codes of the nominal values
+		 */
+		final int[][] codes;
+
+		final double[] norms;
+
+		final ICase[] cases;
+
+		final int capacity;
+
+		Columns(int numericCount, int nominalCount, int capacity) {
+			this(new double[numericCount][capacity], new int[nominalCount][capacity], new double[capacity],
+					new ICase[capacity], capacity);
+		}
+
+		private Columns(double[][] coordinates, int[][] codes, double[] norms, ICase[] cases, int capacity) {
+			this.coordinates = coordinates;
+			this.codes = codes;
+			this.norms = norms;
+			this.cases = cases;
+			this.capacity = capacity;
+		}
+
+		Columns grow(int capacity) {
+			double[][] newCoordinates = new double[coordinates.length][];
+			for (int f = 0; f < coordinates.length; f++) {
+				newCoordinates[f] = Arrays.copyOf(coordinates[f], capacity);
+			}
+			int[][] newCodes = new int[codes.length][];
+			for (int f = 0; f < codes.length; f++) {
+				newCodes[f] = Arrays.copyOf(codes[f], capacity);
+			}
+			return new Columns(newCoordinates, newCodes, Arrays.copyOf(norms, capacity), Arrays.copyOf(cases,
+					capacity), capacity);
+		}
+
+	}
+
+	/**
+	 * Scaled coordinates of a query
+	 */
+	private static final class Query {
+
+		private final double[] numbers;
+
+		/**
+		 * Dictionary codes of the nominal values
+		 */
+		private final int[] codes;
+
+		private final double squaredNorm;
+
+		Query(double[] numbers, int[] codes, double squaredNorm) {
+			this.numbers = numbers;
+			this.codes = codes;
+			this.squaredNorm = squaredNorm;
+		}
+
+	}
+
+}
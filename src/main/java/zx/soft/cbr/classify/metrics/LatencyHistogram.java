@@ -0,0 +1,161 @@
+package zx.soft.cbr.classify.metrics;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of non-negative values with HdrHistogram's log-linear buckets: values below 128 are
+ * counted exactly, larger values in buckets of 64 per power of two, so every value is known within 1/64
+ * (1.6%) over the whole long range. Recording is an index computation and one atomic increment, without
+ * allocation or locking.
+ *
+ * @author wanggang
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int LINEAR = SUB_BUCKETS * 2;
+
+	private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value
+	 *            Non-negative value, nanoseconds for latencies; negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * @return largest value counted in a bucket
+	 */
+	static long highestValue(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+
+	/**
+	 * @param percentile
+	 *            Between 0 and 100
+	 * @return smallest bucket bound at or above the given percentage of the values, never above the largest
+	 *         value; 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return exact mean, 0 if empty
+	 */
+	public double getMean() {
+		long total = count.get();
+		return total == 0 ? 0 : (double) sum.get() / total;
+	}
+
+	/**
+	 * @return exact largest value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Adds the values of another histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = other.counts.get(i);
+			if (n != 0) {
+				counts.addAndGet(i, n);
+			}
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		long value = other.max.get();
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return count of every non-empty bucket, by the largest value of the bucket
+	 */
+	public SortedMap<Long, Long> export() {
+		SortedMap<Long, Long> buckets = new TreeMap<Long, Long>();
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = counts.get(i);
+			if (n != 0) {
+				buckets.put(highestValue(i), n);
+			}
+		}
+		return buckets;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean=" + getMean() + ", p50=" + getValueAtPercentile(50)
+				+ ", p99=" + getValueAtPercentile(99) + ", max=" + getMax() + "]";
+	}
+
+}
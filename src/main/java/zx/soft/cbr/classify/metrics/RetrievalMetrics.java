@@ -0,0 +1,156 @@
+package zx.soft.cbr.classify.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import zx.soft.cbr.classify.core.IRetrievalListener;
+import zx.soft.cbr.classify.core.RetrievalPhase;
+import zx.soft.cbr.classify.core.RetrievalTrace;
+
+/**
+ * In-process registry of the retrievals reported by instrumented algorithms: a {@link LatencyHistogram} of
+ * the total time and of every phase, and running totals of the cases scanned, features evaluated, results
+ * returned and bytes allocated. May be shared by several algorithms and threads.
+ *
+ * @author wanggang
+ *
+ */
+public class RetrievalMetrics implements IRetrievalListener {
+
+	private final boolean allocationTracked;
+
+	private final LatencyHistogram total = new LatencyHistogram();
+
+	private final LatencyHistogram[] phases = new LatencyHistogram[RetrievalPhase.values().length];
+
+	private final AtomicLong retrievals = new AtomicLong();
+
+	private final AtomicLong scanned = new AtomicLong();
+
+	private final AtomicLong evaluated = new AtomicLong();
+
+	private final AtomicLong results = new AtomicLong();
+
+	private final AtomicLong allocatedBytes = new AtomicLong();
+
+	/**
+	 * Metrics without allocation tracking
+	 */
+	public RetrievalMetrics() {
+		this(false);
+	}
+
+	/**
+	 * @param allocationTracked
+	 *            Measure the bytes allocated by the retrieving threads
+	 */
+	public RetrievalMetrics(boolean allocationTracked) {
+		this.allocationTracked = allocationTracked;
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new LatencyHistogram();
+		}
+	}
+
+	public boolean isAllocationTracked() {
+		return allocationTracked;
+	}
+
+	public void retrieved(RetrievalTrace trace) {
+		retrievals.incrementAndGet();
+		total.record(trace.getTotalNanos());
+		for (RetrievalPhase phase : RetrievalPhase.values()) {
+			long nanos = trace.getNanos(phase);
+			if (nanos > 0) {
+				phases[phase.ordinal()].record(nanos);
+			}
+		}
+		scanned.addAndGet(trace.getScanned());
+		evaluated.addAndGet(trace.getEvaluated());
+		results.addAndGet(trace.getResults());
+		if (trace.getAllocatedBytes() > 0) {
+			allocatedBytes.addAndGet(trace.getAllocatedBytes());
+		}
+	}
+
+	/**
+	 * @return retrieval latencies in nanoseconds
+	 */
+	public LatencyHistogram getHistogram() {
+		return total;
+	}
+
+	/**
+	 * @return latencies of a phase in nanoseconds, retrievals that skip the phase are not counted
+	 */
+	public LatencyHistogram getHistogram(RetrievalPhase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	public long getRetrievals() {
+		return retrievals.get();
+	}
+
+	public long getScanned() {
+		return scanned.get();
+	}
+
+	public long getEvaluated() {
+		return evaluated.get();
+	}
+
+	public long getResults() {
+		return results.get();
+	}
+
+	/**
+	 * @return bytes allocated by the retrieving threads, 0 unless allocations are tracked
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	public void reset() {
+		total.reset();
+		for (LatencyHistogram phase : phases) {
+			phase.reset();
+		}
+		retrievals.set(0);
+		scanned.set(0);
+		evaluated.set(0);
+		results.set(0);
+		allocatedBytes.set(0);
+	}
+
+	/**
+	 * @return one line per phase and one for the whole retrieval, latencies in microseconds, followed by the
+	 *         totals
+	 */
+	public String format() {
+		StringBuilder builder = new StringBuilder(String.format("%-8s %10s %10s %10s %10s %10s %10s%n", "phase",
+				"count", "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+		for (RetrievalPhase phase : RetrievalPhase.values()) {
+			format(builder, phase.name(), phases[phase.ordinal()]);
+		}
+		format(builder, "TOTAL", total);
+		long count = Math.max(1, getRetrievals());
+		builder.append(String.format("per retrieval: %.1f cases scanned, %.1f features evaluated, %.1f results",
+				(double) getScanned() / count, (double) getEvaluated() / count, (double) getResults() / count));
+		if (allocationTracked) {
+			builder.append(String.format(", %.0f bytes allocated", (double) getAllocatedBytes() / count));
+		}
+		return builder.append(String.format("%n")).toString();
+	}
+
+	private static void format(StringBuilder builder, String name, LatencyHistogram histogram) {
+		builder.append(String.format("%-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, histogram.getCount(),
+				histogram.getMean() / 1e3, histogram.getValueAtPercentile(50) / 1e3,
+				histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+				histogram.getMax() / 1e3));
+	}
+
+	@Override
+	public String toString() {
+		return "RetrievalMetrics [retrievals=" + getRetrievals() + ", scanned=" + getScanned() + ", evaluated="
+				+ getEvaluated() + ", results=" + getResults() + ", latency=" + total + "]";
+	}
+
+}
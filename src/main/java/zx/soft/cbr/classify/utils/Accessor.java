@@ -103,6 +103,16 @@ public class Accessor {
 		}
 	}
 
+	/**
+	 * Returns a copy of this accessor owned by the given object, leaving this one untouched
+	 * 
+	 * @param owner
+	 * @return owner-bound accessor
+	 */
+	public Accessor bind(Object owner) {
+		return new Accessor(owner, getOwnerClass(), getGetter(), getSetter());
+	}
+
 	/**
 	 * Retorna a classe de onde o atributo foi capturado
 	 * 
@@ -4,6 +4,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -11,6 +12,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 
@@ -21,9 +24,10 @@ import java.util.StringTokenizer;
 public class AccessorUtil {
 
 	/**
-	 * Map de maps de accessors com a classe como chave, para armazenar maps j montados.
+	 * Map de maps de accessors com a classe como chave, para armazenar maps j montados. Os maps e os accessors
+	 * armazenados so imutveis e no tm owner, podendo ser compartilhados entre threads.
 	 */
-	private static Map<Class, Map<String, Accessor>> accessorMapCache = new HashMap<Class, Map<String, Accessor>>();
+	private static final ConcurrentMap<Class, Map<String, Accessor>> accessorMapCache = new ConcurrentHashMap<Class, Map<String, Accessor>>();
 
 	/**
 	 * Retorna um objeto Accessor representando um atributo especfico
@@ -74,7 +78,7 @@ public class AccessorUtil {
 	public static Accessor getAccessor(String name, Object obj) {
 		Accessor attribute = getAccessor(name, obj.getClass());
 		if (attribute != null) {
-			attribute.setOwner(obj);
+			attribute = attribute.bind(obj);
 		}
 		return attribute;
 	}
@@ -115,50 +119,51 @@ public class AccessorUtil {
 	public static Map<String, Accessor> getAccessorsMap(Class clazz, Object obj, boolean updateOwner) {
 		Map<String, Accessor> result = accessorMapCache.get(clazz);
 		if (result == null) {
-			result = new HashMap<String, Accessor>();
-			for (int i = 0; i < clazz.getMethods().length; i++) {
-				Method method = clazz.getMethods()[i];
-				if (isAccessor(method)) {
-					String name = getAttributeName(method);
-					Accessor attribute = result.get(name);
-					if (attribute == null) {
-						if (isGetter(method)) {
-							attribute = new Accessor(obj, clazz, method, null);
-						} else {
-							attribute = new Accessor(obj, clazz, null, method);
-						}
-						result.put(name, attribute);
+			result = buildAccessorsMap(clazz);
+			Map<String, Accessor> previous = accessorMapCache.putIfAbsent(clazz, result);
+			if (previous != null) {
+				result = previous;
+			}
+		}
+		if (obj != null && updateOwner) {
+			Map<String, Accessor> bound = new HashMap<String, Accessor>();
+			for (Accessor ac : result.values()) {
+				bound.put(ac.getName(), ac.bind(obj));
+			}
+			result = bound;
+		}
+		return result;
+	}
+
+	private static Map<String, Accessor> buildAccessorsMap(Class clazz) {
+		Map<String, Accessor> result = new HashMap<String, Accessor>();
+		for (int i = 0; i < clazz.getMethods().length; i++) {
+			Method method = clazz.getMethods()[i];
+			if (isAccessor(method)) {
+				String name = getAttributeName(method);
+				Accessor attribute = result.get(name);
+				if (attribute == null) {
+					if (isGetter(method)) {
+						attribute = new Accessor(clazz, method, null);
 					} else {
-						if (isGetter(method) && isCompatible(method, attribute.getSetter())) {
-							attribute.setGetter(method);
-						} else if (isCompatible(attribute.getGetter(), method)) {
-							attribute.setSetter(method);
-						}
+						attribute = new Accessor(clazz, null, method);
 					}
-				}
-			}
-			accessorMapCache.put(clazz, result);
-			// logger.debug("Map de accessors adicionada  cache: " + result + "
-			// na classe " +
-			// clazz.getName().substring(clazz.getName().lastIndexOf(".") + 1));
-		} else {
-			// logger.debug("Map de accessors recuperada da cache: " + result +
-			// " na classe " +
-			// clazz.getName().substring(clazz.getName().lastIndexOf(".") + 1));
-			if (updateOwner) {
-				for (Iterator<Accessor> i = result.values().iterator(); i.hasNext();) {
-					Accessor ac = i.next();
-					if (obj == null || !ObjectUtil.equals(ac.getOwner(), obj)) {
-						ac.setOwner(obj);
+					result.put(name, attribute);
+				} else {
+					if (isGetter(method) && isCompatible(method, attribute.getSetter())) {
+						attribute.setGetter(method);
+					} else if (isCompatible(attribute.getGetter(), method)) {
+						attribute.setSetter(method);
 					}
 				}
-				// logger.debug("Owner dos accessors atualizados: " + result + "
-				// na classe " +
-				// clazz.getName().substring(clazz.getName().lastIndexOf(".") +
-				// 1));
 			}
 		}
-		return result;
+		Map<String, Accessor> frozen = new HashMap<String, Accessor>();
+		for (Map.Entry<String, Accessor> entry : result.entrySet()) {
+			Accessor ac = entry.getValue();
+			frozen.put(entry.getKey(), new ImmutableAccessor(clazz, ac.getGetter(), ac.getSetter()));
+		}
+		return Collections.unmodifiableMap(frozen);
 	}
 
 	/**
@@ -302,7 +307,7 @@ public class AccessorUtil {
 	/**
 	 * Map com interfaces ou classes abstratas como chaves e classes concretas correspondentes como valor
 	 */
-	private static Map<Class, Class> typeMap = new HashMap<Class, Class>();
+	private static final Map<Class, Class> typeMap = new ConcurrentHashMap<Class, Class>();
 
 	public static void putType(Class abstraction, Class concrete) {
 		typeMap.put(abstraction, concrete);
@@ -542,13 +547,13 @@ public class AccessorUtil {
 
 	public static Object invokeGetter(String attribute, Object obj) throws IllegalArgumentException,
 			IllegalAccessException, InvocationTargetException {
-		Accessor ac = getAccessor(attribute, obj);
+		Accessor ac = getAccessor(attribute, obj.getClass());
 		return ac.invokeGetter(obj);
 	}
 
 	public static Object invokeSetter(String attribute, Object obj, Object param) throws IllegalArgumentException,
 			IllegalAccessException, InvocationTargetException {
-		Accessor ac = getAccessor(attribute, obj);
+		Accessor ac = getAccessor(attribute, obj.getClass());
 		return ac.invokeSetter(obj, param);
 	}
 
@@ -0,0 +1,62 @@
+package zx.soft.cbr.classify.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-class cache of {@link FeatureExtractor}s compiled from the readable accessors of
+ * {@link AccessorUtil}.
+ *
+ * @author wanggang
+ *
+ */
+@SuppressWarnings("rawtypes")
+public class ExtractorUtil {
+
+	/**
+	 * Compiled extractors per class, keyed by attribute name.
+	 */
+	private static final ConcurrentMap<Class, Map<String, FeatureExtractor>> extractorMapCache = new ConcurrentHashMap<Class, Map<String, FeatureExtractor>>();
+
+	/**
+	 * Returns the extractor of an attribute
+	 *
+	 * @param name
+	 *            Attribute name
+	 * @param clazz
+	 *            Class to be analysed
+	 * @return extractor, null if the attribute has no getter
+	 */
+	public static FeatureExtractor getExtractor(String name, Class clazz) {
+		return getExtractorsMap(clazz).get(name);
+	}
+
+	/**
+	 * Returns an unmodifiable map with the extractors of every readable attribute of the class
+	 *
+	 * @param clazz
+	 *            Class to be analysed
+	 * @return map
+	 */
+	public static Map<String, FeatureExtractor> getExtractorsMap(Class clazz) {
+		Map<String, FeatureExtractor> result = extractorMapCache.get(clazz);
+		if (result == null) {
+			Map<String, FeatureExtractor> compiled = new HashMap<String, FeatureExtractor>();
+			for (Accessor accessor : AccessorUtil.getAccessorsMap(clazz).values()) {
+				if (accessor.isReadable()) {
+					compiled.put(accessor.getName(), FeatureExtractor.compile(accessor.getName(), accessor.getGetter()));
+				}
+			}
+			result = Collections.unmodifiableMap(compiled);
+			Map<String, FeatureExtractor> previous = extractorMapCache.putIfAbsent(clazz, result);
+			if (previous != null) {
+				result = previous;
+			}
+		}
+		return result;
+	}
+
+}
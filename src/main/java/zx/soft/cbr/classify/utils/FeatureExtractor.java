@@ -0,0 +1,276 @@
+package zx.soft.cbr.classify.utils;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Compiled replacement for {@link Accessor#invokeGetter(Object)}. The getter is bound through
+ * {@link LambdaMetafactory} (falling back to a plain {@link MethodHandle}), and int, long, float and
+ * double getters get primitive variants so {@link #getDouble(Object)} does not box.
+ *
+ * @author wanggang
+ *
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public abstract class FeatureExtractor {
+
+	private final String name;
+
+	private final Method getter;
+
+	protected FeatureExtractor(String name, Method getter) {
+		this.name = name;
+		this.getter = getter;
+	}
+
+	/**
+	 * Returns the attribute value, boxed exactly as {@link Method#invoke(Object, Object...)} would.
+	 *
+	 * @param obj
+	 * @return value
+	 */
+	public abstract Object get(Object obj);
+
+	/**
+	 * Returns a numeric attribute value as a double, {@link Double#NaN} when a boxed value is null.
+	 *
+	 * @param obj
+	 * @return value
+	 */
+	public double getDouble(Object obj) {
+		Object value = get(obj);
+		return value == null ? Double.NaN : ((Number) value).doubleValue();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Method getGetter() {
+		return getter;
+	}
+
+	public Class getType() {
+		return getter.getReturnType();
+	}
+
+	/**
+	 * @return true if the getter returns a primitive, so the value is never null
+	 */
+	public boolean isPrimitive() {
+		return getType().isPrimitive();
+	}
+
+	/**
+	 * @return true if the getter returns a primitive number or a {@link Number}
+	 */
+	public boolean isNumeric() {
+		Class type = getType();
+		if (type.isPrimitive()) {
+			return type != boolean.class && type != char.class;
+		}
+		return Number.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public String toString() {
+		return name + "[" + getType().getSimpleName() + "]";
+	}
+
+	/**
+	 * Compiles the getter of an attribute
+	 *
+	 * @param name
+	 *            Attribute name
+	 * @param getter
+	 *            Getter method
+	 * @return extractor
+	 */
+	public static FeatureExtractor compile(String name, Method getter) {
+		MethodHandle handle;
+		try {
+			handle = unreflect(getter);
+		} catch (IllegalAccessException e) {
+			throw new InvalidAccessorException("Inaccessible getter: " + getter);
+		}
+		if (isLinkable(getter)) {
+			try {
+				return metafactory(name, getter, handle);
+			} catch (Throwable e) {
+				// fall back to the method handle below
+			}
+		}
+		return new HandleExtractor(name, getter, handle);
+	}
+
+	private static MethodHandle unreflect(Method getter) throws IllegalAccessException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			return lookup.unreflect(getter);
+		} catch (IllegalAccessException e) {
+			getter.setAccessible(true);
+			return lookup.unreflect(getter);
+		}
+	}
+
+	/**
+	 * The spun lambda class lives next to this class, so it can only call getters of public classes visible
+	 * from this class loader.
+	 */
+	private static boolean isLinkable(Method getter) {
+		Class owner = getter.getDeclaringClass();
+		if (!Modifier.isPublic(owner.getModifiers()) || !Modifier.isPublic(getter.getModifiers())) {
+			return false;
+		}
+		try {
+			return Class.forName(owner.getName(), false, FeatureExtractor.class.getClassLoader()) == owner;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static FeatureExtractor metafactory(String name, Method getter, MethodHandle handle) throws Throwable {
+		Class owner = getter.getDeclaringClass();
+		Class type = getter.getReturnType();
+		if (type == double.class || type == float.class) {
+			ToDoubleFunction function = (ToDoubleFunction) spin(handle, owner, ToDoubleFunction.class,
+					"applyAsDouble", double.class);
+			return new DoubleExtractor(name, getter, function, type == float.class);
+		} else if (type == int.class) {
+			ToIntFunction function = (ToIntFunction) spin(handle, owner, ToIntFunction.class, "applyAsInt",
+					int.class);
+			return new IntExtractor(name, getter, function);
+		} else if (type == long.class) {
+			ToLongFunction function = (ToLongFunction) spin(handle, owner, ToLongFunction.class, "applyAsLong",
+					long.class);
+			return new LongExtractor(name, getter, function);
+		}
+		Function function = (Function) spin(handle, owner, Function.class, "apply", Object.class);
+		return new FunctionExtractor(name, getter, function);
+	}
+
+	private static Object spin(MethodHandle handle, Class owner, Class functionalInterface, String methodName,
+			Class returnType) throws Throwable {
+		CallSite site = LambdaMetafactory.metafactory(MethodHandles.lookup(), methodName,
+				MethodType.methodType(functionalInterface), MethodType.methodType(returnType, Object.class), handle,
+				MethodType.methodType(returnType, owner));
+		return site.getTarget().invoke();
+	}
+
+	private static final class FunctionExtractor extends FeatureExtractor {
+
+		private final Function function;
+
+		FunctionExtractor(String name, Method getter, Function function) {
+			super(name, getter);
+			this.function = function;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return function.apply(obj);
+		}
+
+	}
+
+	private static final class DoubleExtractor extends FeatureExtractor {
+
+		private final ToDoubleFunction function;
+
+		private final boolean floatType;
+
+		DoubleExtractor(String name, Method getter, ToDoubleFunction function, boolean floatType) {
+			super(name, getter);
+			this.function = function;
+			this.floatType = floatType;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			double value = function.applyAsDouble(obj);
+			return floatType ? (Object) Float.valueOf((float) value) : (Object) Double.valueOf(value);
+		}
+
+		@Override
+		public double getDouble(Object obj) {
+			return function.applyAsDouble(obj);
+		}
+
+	}
+
+	private static final class IntExtractor extends FeatureExtractor {
+
+		private final ToIntFunction function;
+
+		IntExtractor(String name, Method getter, ToIntFunction function) {
+			super(name, getter);
+			this.function = function;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return Integer.valueOf(function.applyAsInt(obj));
+		}
+
+		@Override
+		public double getDouble(Object obj) {
+			return function.applyAsInt(obj);
+		}
+
+	}
+
+	private static final class LongExtractor extends FeatureExtractor {
+
+		private final ToLongFunction function;
+
+		LongExtractor(String name, Method getter, ToLongFunction function) {
+			super(name, getter);
+			this.function = function;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return Long.valueOf(function.applyAsLong(obj));
+		}
+
+		@Override
+		public double getDouble(Object obj) {
+			return function.applyAsLong(obj);
+		}
+
+	}
+
+	private static final class HandleExtractor extends FeatureExtractor {
+
+		private final MethodHandle handle;
+
+		HandleExtractor(String name, Method getter, MethodHandle handle) {
+			super(name, getter);
+			this.handle = handle.asType(MethodType.methodType(Object.class, Object.class));
+		}
+
+		@Override
+		public Object get(Object obj) {
+			try {
+				return handle.invokeExact(obj);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+	}
+
+}
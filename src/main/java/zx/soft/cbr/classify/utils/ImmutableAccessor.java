@@ -0,0 +1,58 @@
+package zx.soft.cbr.classify.utils;
+
+import java.lang.reflect.Method;
+
+/**
+ * Owner-free accessor shared by the {@link AccessorUtil} cache. Any attempt to change it after construction
+ * fails, use {@link #bind(Object)} to obtain an owner-bound copy.
+ * 
+ * @author wanggang
+ *
+ */
+@SuppressWarnings("rawtypes")
+final class ImmutableAccessor extends Accessor {
+
+	private final boolean frozen;
+
+	ImmutableAccessor(Class ownerClass, Method getter, Method setter) {
+		super(ownerClass, getter, setter);
+		this.frozen = true;
+	}
+
+	private void checkFrozen() {
+		if (frozen) {
+			throw new UnsupportedOperationException("Shared accessor cannot be modified: " + this);
+		}
+	}
+
+	@Override
+	public void setOwner(Object owner) {
+		checkFrozen();
+		super.setOwner(owner);
+	}
+
+	@Override
+	public void setOwnerClass(Class ownerClass) {
+		checkFrozen();
+		super.setOwnerClass(ownerClass);
+	}
+
+	@Override
+	public void setGetter(Method getter) {
+		checkFrozen();
+		super.setGetter(getter);
+	}
+
+	@Override
+	public void setSetter(Method setter) {
+		checkFrozen();
+		super.setSetter(setter);
+	}
+
+	@Override
+	public void reset() {
+		checkFrozen();
+		super.reset();
+	}
+
+}
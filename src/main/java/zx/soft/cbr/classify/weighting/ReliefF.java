@@ -0,0 +1,346 @@
+package zx.soft.cbr.classify.weighting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+import zx.soft.cbr.classify.core.FeatureImpl;
+import zx.soft.cbr.classify.core.ICase;
+import zx.soft.cbr.classify.core.IFeature;
+import zx.soft.cbr.classify.core.TopK;
+import zx.soft.cbr.classify.matrix.CaseMatrix;
+import zx.soft.cbr.classify.matrix.NominalDictionary;
+import zx.soft.cbr.classify.utils.ExtractorUtil;
+import zx.soft.cbr.classify.utils.FeatureExtractor;
+
+/**
+ * Feature weights learned with Kononenko's ReliefF, the relieff option of matlab/src/SimilarityMeasures.m.
+ * For each sampled case the k nearest cases of its class (hits) and of every other class (misses) are found;
+ * a feature gains weight when it differs on the misses and loses weight when it differs on the hits, misses
+ * being weighted by the prior of their class.
+ * <p>
+ * The difference on a feature is 1 minus its similarity under {@link DefaultFeatureComparator}, numeric
+ * features using the range observed in the case base, and the distance between two cases is the sum of
+ * their differences. The cases are stored in a {@link CaseMatrix}, so a neighbour search is a pass over
+ * primitive columns; the samples are split between the workers of an executor.
+ *
+ * @author wanggang
+ *
+ */
+public class ReliefF {
+
+	/**
+	 * Neighbours per class used by matlab/src/cbrRetrievalPhase.m
+	 */
+	public static final int DEFAULT_K = 5;
+
+	/**
+	 * Features weighing less are dropped by {@link #learn(Collection, Collection)}
+	 */
+	public static final double DEFAULT_MIN_WEIGHT = 0.01;
+
+	private final String classAttribute;
+
+	private final int k;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	private int samples;
+
+	private double minWeight = DEFAULT_MIN_WEIGHT;
+
+	private long seed = 42;
+
+	/**
+	 * Runs on the common pool
+	 */
+	public ReliefF(String classAttribute, int k) {
+		this(classAttribute, k, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism());
+	}
+
+	/**
+	 * @param classAttribute
+	 *            Attribute holding the class of a case
+	 * @param k
+	 *            Neighbours per class
+	 * @param executor
+	 * @param parallelism
+	 *            Number of threads of the executor available to one run
+	 */
+	public ReliefF(String classAttribute, int k, ExecutorService executor, int parallelism) {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		}
+		this.classAttribute = classAttribute;
+		this.k = k;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Weighs the features and drops the ones below the minimum weight
+	 *
+	 * @param cases
+	 *            Case base
+	 * @param features
+	 *            Candidate features, their weights are ignored
+	 * @return features in the given order with their learned weights, ready for
+	 *         {@link zx.soft.cbr.classify.core.ISimilarityAlgorithm#getSimilarity}; numeric features without a
+	 *         range get the observed one
+	 */
+	public List<IFeature> learn(Collection<? extends ICase> cases, Collection<IFeature> features) {
+		Map<String, double[]> learned = weigh(cases, features);
+		List<IFeature> result = new ArrayList<IFeature>();
+		for (IFeature feature : features) {
+			double[] weightAndRange = learned.get(feature.getAttribute());
+			if (weightAndRange != null && weightAndRange[0] >= minWeight) {
+				double range = feature.getRange() > 0 ? feature.getRange() : weightAndRange[1];
+				result.add(new FeatureImpl(feature.getAttribute(), weightAndRange[0], range));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param cases
+	 *            Case base
+	 * @param features
+	 *            Candidate features, their weights are ignored
+	 * @return weight, between -1 and 1, and observed range of each feature, by attribute
+	 */
+	public Map<String, double[]> weigh(Collection<? extends ICase> cases, Collection<IFeature> features) {
+		List<IFeature> unweighted = new ArrayList<IFeature>(features.size());
+		for (IFeature feature : features) {
+			if (feature.getAttribute().equals(classAttribute)) {
+				throw new IllegalArgumentException("The class attribute cannot be a feature: " + classAttribute);
+			}
+			unweighted.add(new FeatureImpl(feature.getAttribute(), 1, feature.getRange()));
+		}
+		final CaseMatrix matrix = CaseMatrix.build(cases, unweighted);
+		final int rows = matrix.size();
+		final double[] ranges = new double[matrix.getNumericCount()];
+		final double[] reciprocals = new double[ranges.length];
+		for (int f = 0; f < ranges.length; f++) {
+			ranges[f] = observedRange(matrix.getNumericColumn(f), rows);
+			reciprocals[f] = DefaultFeatureComparator.reciprocal(ranges[f]);
+		}
+		NominalDictionary classes = new NominalDictionary();
+		final int[] labels = new int[rows];
+		for (int row = 0; row < rows; row++) {
+			ICase theCase = matrix.getCase(row);
+			FeatureExtractor extractor = ExtractorUtil.getExtractor(classAttribute, theCase.getClass());
+			if (extractor == null) {
+				throw new IllegalArgumentException("No class attribute " + classAttribute + " in "
+						+ theCase.getClass().getName());
+			}
+			labels[row] = classes.encode(extractor.get(theCase));
+		}
+		final double[] priors = new double[classes.size()];
+		List<Integer> sampled = new ArrayList<Integer>(rows);
+		for (int row = 0; row < rows; row++) {
+			if (labels[row] >= 0) {
+				priors[labels[row]]++;
+				sampled.add(row);
+			}
+		}
+		for (int c = 0; c < priors.length; c++) {
+			priors[c] /= sampled.size();
+		}
+		if (samples > 0 && samples < sampled.size()) {
+			Collections.shuffle(sampled, new Random(seed));
+			sampled = sampled.subList(0, samples);
+		}
+		final int[] order = new int[sampled.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = sampled.get(i);
+		}
+		int sliceSize = Math.max(1, (order.length + parallelism * 4 - 1) / (parallelism * 4));
+		List<Callable<double[]>> slices = new ArrayList<Callable<double[]>>();
+		for (int slice = 0; slice < order.length; slice += sliceSize) {
+			final int sliceStart = slice;
+			final int sliceEnd = Math.min(slice + sliceSize, order.length);
+			slices.add(new Callable<double[]>() {
+
+				public double[] call() {
+					return update(matrix, ranges, reciprocals, labels, priors, order, sliceStart, sliceEnd);
+				}
+
+			});
+		}
+		int featureCount = matrix.getNumericCount() + matrix.getNominalCount();
+		double[] weights = new double[featureCount];
+		// slices are merged in order, so the weights do not depend on the scheduling
+		for (double[] delta : invokeAll(slices)) {
+			for (int f = 0; f < featureCount; f++) {
+				weights[f] += delta[f];
+			}
+		}
+		Map<String, double[]> result = new HashMap<String, double[]>();
+		for (int f = 0; f < featureCount; f++) {
+			double weight = order.length == 0 ? 0 : weights[f] / order.length;
+			if (f < ranges.length) {
+				result.put(matrix.getNumericFeature(f).getAttribute(), new double[] { weight, ranges[f] });
+			} else {
+				result.put(matrix.getNominalFeature(f - ranges.length).getAttribute(), new double[] { weight, 0 });
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sums the weight updates of the samples order[from, to)
+	 */
+	private double[] update(CaseMatrix matrix, double[] ranges, double[] reciprocals, int[] labels,
+			double[] priors, int[] order, int from, int to) {
+		int rows = matrix.size();
+		int numericCount = matrix.getNumericCount();
+		int nominalCount = matrix.getNominalCount();
+		double[] delta = new double[numericCount + nominalCount];
+		double[] distances = new double[rows];
+		TopK[] nearest = new TopK[priors.length];
+		for (int c = 0; c < nearest.length; c++) {
+			nearest[c] = new TopK(k);
+		}
+		for (int i = from; i < to; i++) {
+			int sample = order[i];
+			Arrays.fill(distances, 0);
+			for (int f = 0; f < numericCount; f++) {
+				double[] column = matrix.getNumericColumn(f);
+				double value = column[sample];
+				for (int row = 0; row < rows; row++) {
+					distances[row] += 1 - DefaultFeatureComparator.similar(value, column[row], ranges[f],
+							reciprocals[f]);
+				}
+			}
+			for (int f = 0; f < nominalCount; f++) {
+				int[] column = matrix.getNominalColumn(f);
+				int code = column[sample];
+				for (int row = 0; row < rows; row++) {
+					if (code < 0 || column[row] != code) {
+						distances[row] += 1;
+					}
+				}
+			}
+			for (TopK topK : nearest) {
+				topK.clear();
+			}
+			for (int row = 0; row < rows; row++) {
+				if (row != sample && labels[row] >= 0) {
+					nearest[labels[row]].offer(row, -distances[row]);
+				}
+			}
+			int own = labels[sample];
+			for (int c = 0; c < nearest.length; c++) {
+				int found = nearest[c].size();
+				if (found == 0) {
+					continue;
+				}
+				double scale = c == own ? -1.0 / found : priors[c] / (1 - priors[own]) / found;
+				for (int j = 0; j < found; j++) {
+					int neighbour = nearest[c].id(j);
+					for (int f = 0; f < numericCount; f++) {
+						double[] column = matrix.getNumericColumn(f);
+						delta[f] += scale * (1 - DefaultFeatureComparator.similar(column[sample], column[neighbour],
+								ranges[f], reciprocals[f]));
+					}
+					for (int f = 0; f < nominalCount; f++) {
+						int[] column = matrix.getNominalColumn(f);
+						if (column[sample] < 0 || column[sample] != column[neighbour]) {
+							delta[numericCount + f] += scale;
+						}
+					}
+				}
+			}
+		}
+		return delta;
+	}
+
+	private static double observedRange(double[] column, int rows) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int row = 0; row < rows; row++) {
+			if (column[row] < min) {
+				min = column[row];
+			}
+			if (column[row] > max) {
+				max = column[row];
+			}
+		}
+		return max > min ? max - min : 0;
+	}
+
+	private <R> List<R> invokeAll(List<Callable<R>> tasks) {
+		List<R> results = new ArrayList<R>(tasks.size());
+		try {
+			for (Future<R> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("ReliefF interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	public String getClassAttribute() {
+		return classAttribute;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @param samples
+	 *            Number of cases sampled, 0 to use every case
+	 */
+	public void setSamples(int samples) {
+		this.samples = samples;
+	}
+
+	public double getMinWeight() {
+		return minWeight;
+	}
+
+	public void setMinWeight(double minWeight) {
+		this.minWeight = minWeight;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @param seed
+	 *            Seed of the sampling
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+}
@@ -0,0 +1,88 @@
+package zx.soft.cbr.classify.matrix;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import zx.soft.cbr.classify.core.DefaultFeatureComparator;
+
+/**
+ * {@link SimilarityKernel} on the JDK Vector API, evaluating {@link #SPECIES} lanes per instruction and the
+ * remaining rows with the scalar rule. Lanes apply the same operations in the same order as the scalar
+ * kernel, so results are bit-identical.
+ * <p>
+ * Compiled by the jdk17 build profile and loaded by {@link SimilarityKernel#getDefault()} only when
+ * {@code jdk.incubator.vector} is resolved.
+ *
+ * @author wanggang
+ *
+ */
+public final class VectorKernel extends SimilarityKernel {
+
+	static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public void accumulateRangeSimilarity(double value, double[] column, int from, double range, double weight,
+			double[] scores, int length) {
+		DoubleVector query = DoubleVector.broadcast(SPECIES, value);
+		DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+		DoubleVector zero = DoubleVector.zero(SPECIES);
+		double reciprocal = DefaultFeatureComparator.reciprocal(range);
+		int upper = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector d = query.sub(DoubleVector.fromArray(SPECIES, column, from + i)).abs();
+			VectorMask<Double> inRange = d.compare(VectorOperators.LE, range);
+			VectorMask<Double> equal = d.compare(VectorOperators.EQ, 0);
+			DoubleVector similarity = zero.blend(one.sub(d.mul(reciprocal)), inRange).blend(one, equal);
+			similarity.mul(weight).add(DoubleVector.fromArray(SPECIES, scores, i)).intoArray(scores, i);
+		}
+		for (; i < length; i++) {
+			double similarity = 0;
+			double d = Math.abs(value - column[from + i]);
+			if (d == 0) {
+				similarity = 1;
+			} else if (d <= range) {
+				similarity = 1 - d * reciprocal;
+			}
+			scores[i] += similarity * weight;
+		}
+	}
+
+	@Override
+	public void accumulateSquaredDifference(double value, double[] column, int from, double weight, double[] out,
+			int length) {
+		DoubleVector query = DoubleVector.broadcast(SPECIES, value);
+		int upper = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector d = query.sub(DoubleVector.fromArray(SPECIES, column, from + i));
+			d.mul(d).mul(weight).add(DoubleVector.fromArray(SPECIES, out, i)).intoArray(out, i);
+		}
+		for (; i < length; i++) {
+			double d = value - column[from + i];
+			out[i] += d * d * weight;
+		}
+	}
+
+	@Override
+	public void accumulateProduct(double value, double[] column, int from, double weight, double[] out, int length) {
+		double scaled = value * weight;
+		int upper = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, column, from + i).mul(scaled).add(DoubleVector.fromArray(SPECIES, out, i))
+					.intoArray(out, i);
+		}
+		for (; i < length; i++) {
+			out[i] += column[from + i] * scaled;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "VectorKernel(" + SPECIES.length() + " x double)";
+	}
+
+}